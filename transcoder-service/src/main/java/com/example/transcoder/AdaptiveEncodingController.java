@@ -0,0 +1,147 @@
+package com.example.transcoder;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * 自适应编码档位控制
+ * 根据每路转码速度和节点CPU负载，在分段边界把个别流切换到更省CPU的档位，
+ * CPU恢复空闲后再逐路升回，避免节点饱和时所有流一起掉出实时。
+ * 每次调整都要重启FFmpeg，观众会遇到一个不连续点：降档后至少保持一段时间才升回，
+ * 升回后不久又被降档的流，下次要保持的时间加倍，负载在阈值附近波动时不会来回切换
+ */
+public class AdaptiveEncodingController {
+    private static final Logger logger = Logger.getLogger(AdaptiveEncodingController.class.getName());
+
+    public static final long EVALUATION_INTERVAL_MS = 5000;
+
+    private static final double CPU_HIGH = 0.90;
+    private static final double CPU_LOW = 0.60;
+    private static final int CPU_HIGH_SAMPLES = 3;    // 持续15秒饱和才按节点负载降档
+    private static final int CPU_LOW_SAMPLES = 12;    // 持续60秒空闲才升档
+    private static final long COOLDOWN_MS = 60000;    // 同一路两次调整的最小间隔
+    private static final long RESTORE_DWELL_MS = 10 * 60000L;  // 降档后至少保持该时长才升回
+    private static final long MAX_RESTORE_DWELL_MS = 60 * 60000L;
+
+    private final OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+    private final Map<String, History> histories = new HashMap<>();
+    private volatile double cpuLoad = -1;
+    private int highSamples;
+    private int lowSamples;
+
+    /**
+     * 评估一次所有转码并发出档位调整请求
+     * 单路速度持续低于实时时立即降该路；节点CPU持续饱和时每次只降一路，持续空闲时每次只升一路
+     */
+    public synchronized void evaluate(Collection<TranscoderService> transcoders) {
+        cpuLoad = readCpuLoad();
+        highSamples = cpuLoad >= CPU_HIGH ? highSamples + 1 : 0;
+        lowSamples = cpuLoad >= 0 && cpuLoad <= CPU_LOW ? lowSamples + 1 : 0;
+
+        long now = System.currentTimeMillis();
+        Set<String> activeKeys = new HashSet<>();
+        for (TranscoderService transcoder : transcoders) {
+            activeKeys.add(transcoder.getStreamKey());
+        }
+        histories.keySet().retainAll(activeKeys);
+
+        for (TranscoderService transcoder : transcoders) {
+            EncodingProfile cheaper = transcoder.getProfile().cheaper();
+            if (isAdjustable(transcoder, now) && cheaper != null && transcoder.getMetrics().isLagging()) {
+                request(transcoder, cheaper, now, "转码速度低于实时");
+            }
+        }
+
+        if (highSamples >= CPU_HIGH_SAMPLES) {
+            // 优先降当前档位最高的流，降级在各路之间均摊
+            transcoders.stream()
+                .filter(t -> isAdjustable(t, now) && t.getProfile().cheaper() != null)
+                .min(Comparator.comparingInt((TranscoderService t) -> t.getProfile().getLevel())
+                    .thenComparingDouble(t -> t.getMetrics().getSpeed()))
+                .ifPresent(t -> request(t, t.getProfile().cheaper(), now, "节点CPU饱和"));
+            highSamples = 0;
+        } else if (lowSamples >= CPU_LOW_SAMPLES) {
+            // 优先升当前降级最多的流
+            transcoders.stream()
+                .filter(t -> isAdjustable(t, now) && t.getProfile().better() != null && !t.getMetrics().isLagging()
+                    && history(t).mayRestore(now))
+                .max(Comparator.comparingInt(t -> t.getProfile().getLevel()))
+                .ifPresent(t -> request(t, t.getProfile().better(), now, "节点CPU空闲"));
+            lowSamples = 0;
+        }
+    }
+
+    private boolean isAdjustable(TranscoderService transcoder, long now) {
+        History history = histories.get(transcoder.getStreamKey());
+        return transcoder.getState() == TranscoderService.State.RUNNING
+            && (history == null || now - history.lastChange >= COOLDOWN_MS);
+    }
+
+    private History history(TranscoderService transcoder) {
+        return histories.computeIfAbsent(transcoder.getStreamKey(), key -> new History());
+    }
+
+    private void request(TranscoderService transcoder, EncodingProfile target, long now, String reason) {
+        EncodingProfile current = transcoder.getProfile();
+        if (!transcoder.requestProfile(target)) {
+            return;
+        }
+        history(transcoder).changed(target.getLevel() > current.getLevel(), now);
+        transcoder.getMetrics().recordProfileDecision(current, target);
+        logger.info(String.format(Locale.ROOT, "编码档位调整: %s %s -> %s（%s，speed=%.2fx，cpu=%.0f%%）",
+            transcoder.getStreamKey(), current, target, reason,
+            transcoder.getMetrics().getSpeed(), cpuLoad * 100));
+    }
+
+    /**
+     * 节点（容器）CPU使用率，0~1，不可用时返回-1
+     */
+    private double readCpuLoad() {
+        if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) osBean).getCpuLoad();
+        }
+        return -1;
+    }
+
+    /**
+     * 最近一次采样的节点CPU使用率
+     */
+    public double getCpuLoad() {
+        return cpuLoad;
+    }
+
+    /**
+     * 一路的调整记录
+     */
+    private static class History {
+        private long lastChange;
+        private long lastDownshift;
+        private long lastRestore;
+        private long restoreDwell = RESTORE_DWELL_MS;
+
+        void changed(boolean downshift, long now) {
+            if (downshift) {
+                // 升回后一个驻留期内又要降档，说明负载在阈值附近波动
+                if (lastRestore > 0 && now - lastRestore < restoreDwell) {
+                    restoreDwell = Math.min(restoreDwell * 2, MAX_RESTORE_DWELL_MS);
+                }
+                lastDownshift = now;
+            } else {
+                lastRestore = now;
+            }
+            lastChange = now;
+        }
+
+        boolean mayRestore(long now) {
+            return now - lastDownshift >= restoreDwell;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.transcoder;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * 内容复杂度估计
+ * 以CRF编码实际产出的视频分段码率衡量画面复杂度：开播后前几个分段做首次判断，
+ * 之后定期复查；码率持续顶到上限说明内容复杂，远低于上限说明内容简单。
+ * 新上限要重启编码进程才能生效，每次调整都会在播放列表中留下一个不连续点，所以调整要克制：
+ * 降级要求码率低于下一级上限的一定比例，与升级阈值之间留出回差；首次判断之后须连续两次判断一致；
+ * 调整后至少保持MIN_DWELL_MILLIS，每小时最多调整MAX_SWITCHES_PER_HOUR次
+ */
+public class ComplexityEstimator {
+    private static final int FIRST_DECISION_SEGMENTS = 3;
+    private static final int DECISION_INTERVAL_SEGMENTS = 10;
+    private static final int WINDOW_SEGMENTS = 5;
+    private static final double CAP_LIMITED = 0.85;   // 平均码率达到上限的该比例时升级
+    private static final double LOWER_FITS = 0.6;     // 平均码率低于下一级上限的该比例时降级
+    private static final int CONFIRMATIONS = 2;
+    private static final long MIN_DWELL_MILLIS = 5 * 60_000L;
+    private static final int MAX_SWITCHES_PER_HOUR = 4;
+    private static final long HOUR_MILLIS = 3_600_000L;
+
+    // 最近分段的 [时长(秒), 字节数]
+    private final Deque<double[]> window = new ArrayDeque<>();
+    private int observed;
+    private int sinceDecision;
+    private ContentComplexity candidate;
+    private int agreeing;
+    // 最近一小时内各次调整生效的时间
+    private final Deque<Long> switches = new ArrayDeque<>();
+
+    /**
+     * 记录一个视频分段，到达判断时机时返回建议的等级，无需调整时返回null
+     */
+    public synchronized ContentComplexity observe(double seconds, long bytes, ContentComplexity current, long nowMillis) {
+        window.addLast(new double[] {seconds, bytes});
+        if (window.size() > WINDOW_SEGMENTS) {
+            window.removeFirst();
+        }
+        observed++;
+        sinceDecision++;
+
+        boolean due = observed == FIRST_DECISION_SEGMENTS
+            || (observed > FIRST_DECISION_SEGMENTS && sinceDecision >= DECISION_INTERVAL_SEGMENTS);
+        if (!due) {
+            return null;
+        }
+        sinceDecision = 0;
+
+        ContentComplexity target = target(current);
+        agreeing = target != null && target == candidate ? agreeing + 1 : 1;
+        candidate = target;
+        if (target == null) {
+            return null;
+        }
+        // 开播时的等级只是默认值，首次判断直接调整
+        if (observed > FIRST_DECISION_SEGMENTS && agreeing < CONFIRMATIONS) {
+            return null;
+        }
+        return switchAllowed(nowMillis) ? target : null;
+    }
+
+    /**
+     * 新的码率上限已生效：旧上限下的样本不再有参考价值，记下调整时间用于驻留时长和每小时次数
+     */
+    public synchronized void applied(long nowMillis) {
+        window.clear();
+        sinceDecision = 0;
+        candidate = null;
+        agreeing = 0;
+        switches.addLast(nowMillis);
+    }
+
+    private ContentComplexity target(ContentComplexity current) {
+        double bitrate = getWindowBitrateKbps();
+        if (bitrate >= CAP_LIMITED * current.getMaxrateKbps()) {
+            return current.higher();
+        }
+        ContentComplexity lower = current.lower();
+        if (lower != null && bitrate <= LOWER_FITS * lower.getMaxrateKbps()) {
+            return lower;
+        }
+        return null;
+    }
+
+    private boolean switchAllowed(long nowMillis) {
+        while (!switches.isEmpty() && nowMillis - switches.peekFirst() >= HOUR_MILLIS) {
+            switches.removeFirst();
+        }
+        return switches.size() < MAX_SWITCHES_PER_HOUR
+            && (switches.isEmpty() || nowMillis - switches.peekLast() >= MIN_DWELL_MILLIS);
+    }
+
+    /**
+     * 最近若干分段的平均视频码率（kbit/s）
+     */
+    public synchronized double getWindowBitrateKbps() {
+        double seconds = 0;
+        double bytes = 0;
+        for (double[] sample : window) {
+            seconds += sample[0];
+            bytes += sample[1];
+        }
+        return seconds > 0 ? bytes * 8 / 1000 / seconds : 0;
+    }
+}
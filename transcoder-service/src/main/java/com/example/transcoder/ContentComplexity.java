@@ -0,0 +1,49 @@
+package com.example.transcoder;
+
+import java.util.List;
+
+/**
+ * 内容复杂度等级
+ * 视频以capped CRF编码：画质由CRF决定，简单内容（幻灯片、口播）自然用更少的码率；
+ * 等级只决定码率上限，复杂内容（游戏、运动）提高上限以保证画质
+ */
+public enum ContentComplexity {
+    LOW(600),
+    MEDIUM(1000),
+    HIGH(1800);
+
+    public static final int CRF = 23;
+
+    private final int maxrateKbps;
+
+    ContentComplexity(int maxrateKbps) {
+        this.maxrateKbps = maxrateKbps;
+    }
+
+    /**
+     * 对应的FFmpeg码率控制参数，VBV缓冲为两倍上限
+     */
+    public List<String> toArguments() {
+        return List.of(
+            "-crf", String.valueOf(CRF),
+            "-maxrate", maxrateKbps + "k",
+            "-bufsize", (maxrateKbps * 2) + "k"
+        );
+    }
+
+    /**
+     * 更高的等级，已是最高时返回null
+     */
+    public ContentComplexity higher() {
+        return ordinal() + 1 < values().length ? values()[ordinal() + 1] : null;
+    }
+
+    /**
+     * 更低的等级，已是最低时返回null
+     */
+    public ContentComplexity lower() {
+        return ordinal() > 0 ? values()[ordinal() - 1] : null;
+    }
+
+    public int getMaxrateKbps() { return maxrateKbps; }
+}
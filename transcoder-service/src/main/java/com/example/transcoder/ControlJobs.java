@@ -0,0 +1,180 @@
+package com.example.transcoder;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 控制任务
+ * 启动/停止转码在后台执行，调用方立即拿到任务ID并轮询结果；
+ * 同一路流的任务按提交顺序串行执行，不同流之间互不阻塞
+ */
+public class ControlJobs {
+    private static final Logger logger = Logger.getLogger(ControlJobs.class.getName());
+
+    // 已结束的任务保留该时长供查询
+    private static final long FINISHED_RETENTION_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private final ConcurrentMap<String, Job> jobs = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CompletableFuture<Void>> streamQueues = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+
+    public ControlJobs(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * 提交任务，排在该流已提交的任务之后执行
+     */
+    public Job submit(Type type, String streamKey, BooleanSupplier action) {
+        Job job = new Job(type, streamKey);
+        jobs.put(job.id, job);
+
+        CompletableFuture<Void> queued = streamQueues.compute(streamKey, (key, tail) ->
+            (tail != null ? tail : CompletableFuture.<Void>completedFuture(null))
+                .thenRunAsync(() -> run(job, action), executor));
+        queued.whenComplete((result, error) -> {
+            streamQueues.remove(streamKey, queued);
+            if (error != null) {
+                // 执行器已关闭等情况下任务未能运行
+                job.finish(false, "任务未执行: " + error.getMessage());
+            }
+        });
+        return job;
+    }
+
+    private void run(Job job, BooleanSupplier action) {
+        job.status = Status.RUNNING;
+        job.startedAt = System.currentTimeMillis();
+        try {
+            boolean success = action.getAsBoolean();
+            job.finish(success, success ? job.type.successMessage : job.type.failureMessage);
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "控制任务执行出错: " + job.type + " " + job.streamKey, e);
+            job.finish(false, job.type.failureMessage + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * 查询任务，不存在或已过期时返回null
+     */
+    public Job get(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    /**
+     * 清理过期的已结束任务
+     */
+    public void expireFinished() {
+        long cutoff = System.currentTimeMillis() - FINISHED_RETENTION_MS;
+        for (Map.Entry<String, Job> entry : jobs.entrySet()) {
+            Job job = entry.getValue();
+            if (job.isDone() && job.finishedAt < cutoff) {
+                jobs.remove(entry.getKey(), job);
+            }
+        }
+    }
+
+    /**
+     * 创建处理控制请求的执行器
+     * 运行在Java 21+时使用虚拟线程，否则退化为按需创建的缓存线程池
+     */
+    public static ExecutorService newRequestExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * 任务类型
+     */
+    public enum Type {
+        START("转码已启动", "转码启动失败"),
+        STOP("转码已停止", "转码服务不存在"),
+        VOD_TRANSCODE("VOD转码已完成", "VOD转码失败");
+
+        private final String successMessage;
+        private final String failureMessage;
+
+        Type(String successMessage, String failureMessage) {
+            this.successMessage = successMessage;
+            this.failureMessage = failureMessage;
+        }
+    }
+
+    /**
+     * 任务状态
+     */
+    public enum Status {
+        PENDING,
+        RUNNING,
+        SUCCEEDED,
+        FAILED
+    }
+
+    /**
+     * 控制任务
+     */
+    public static class Job {
+        private final String id = UUID.randomUUID().toString();
+        private final Type type;
+        private final String streamKey;
+        private final long createdAt = System.currentTimeMillis();
+        private final CompletableFuture<Job> completion = new CompletableFuture<>();
+        private volatile Status status = Status.PENDING;
+        private volatile String message;
+        private volatile long startedAt;
+        private volatile long finishedAt;
+
+        Job(Type type, String streamKey) {
+            this.type = type;
+            this.streamKey = streamKey;
+        }
+
+        private void finish(boolean success, String message) {
+            if (completion.isDone()) {
+                return;
+            }
+            this.message = message;
+            this.finishedAt = System.currentTimeMillis();
+            this.status = success ? Status.SUCCEEDED : Status.FAILED;
+            completion.complete(this);
+        }
+
+        /**
+         * 等待任务结束，最多等待指定时长
+         */
+        public Job await(long timeout, TimeUnit unit) throws InterruptedException {
+            try {
+                completion.get(timeout, unit);
+            } catch (TimeoutException | ExecutionException e) {
+                // 超时返回当前状态
+            }
+            return this;
+        }
+
+        public String getId() { return id; }
+        public Type getType() { return type; }
+        public String getStreamKey() { return streamKey; }
+        public Status getStatus() { return status; }
+        public String getMessage() { return message; }
+        public long getCreatedAt() { return createdAt; }
+        public long getStartedAt() { return startedAt; }
+        public long getFinishedAt() { return finishedAt; }
+        public boolean isDone() { return completion.isDone(); }
+    }
+}
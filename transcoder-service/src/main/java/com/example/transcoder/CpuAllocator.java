@@ -0,0 +1,256 @@
+package com.example.transcoder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * CPU分配
+ * 按容器的cgroup CPU配额和cpuset确定可用核心数，切成固定线程数的槽位，
+ * 每路转码绑定一个槽位（taskset）并使用槽位的线程数，避免大量FFmpeg进程默认按全部核心开线程互相争抢。
+ * 配额只限制CPU时间而不限定核心，槽位数和线程数按配额计算，绑定范围仍在整个cpuset上平分，
+ * 各槽位分散到全部核心，由调度器在范围内挑选空闲核心；只有cpuset本身收窄时绑定范围才随之收窄。
+ * 流数超过槽位数时多路共享负载最轻的槽位
+ */
+public class CpuAllocator {
+    private static final Logger logger = Logger.getLogger(CpuAllocator.class.getName());
+
+    private static final Path CGROUP_ROOT = Paths.get("/sys/fs/cgroup");
+    // /proc/<pid>/stat中的utime/stime以USER_HZ为单位，Linux各主流架构上固定为100
+    private static final double CLOCK_TICKS_PER_SECOND = 100.0;
+
+    private final List<Integer> cpus;
+    private final double quotaCores;
+    private final int poolCores;
+    private final int threadsPerSlot;
+    private final int[][] slots;
+    private final int[] slotJobs;
+    private final boolean tasksetAvailable;
+
+    /**
+     * @param cpus       cpuset中的核心编号
+     * @param quotaCores cgroup CPU配额折算的核心数，不限时为-1
+     */
+    CpuAllocator(List<Integer> cpus, double quotaCores, int cpusPerJob) {
+        this.cpus = List.copyOf(cpus);
+        this.quotaCores = quotaCores;
+        this.poolCores = quotaCores > 0
+            ? Math.max(1, Math.min(cpus.size(), (int) Math.ceil(quotaCores)))
+            : cpus.size();
+        this.threadsPerSlot = Math.max(1, Math.min(cpusPerJob, poolCores));
+        int slotCount = Math.max(1, poolCores / threadsPerSlot);
+        // 没有配额时每个槽位的核心数等于线程数；有配额时槽位少于核心，各自绑定更宽的一段，除不尽的核心分给后面的槽位
+        this.slots = new int[slotCount][];
+        for (int slot = 0; slot < slotCount; slot++) {
+            int from = slot * cpus.size() / slotCount;
+            int to = (slot + 1) * cpus.size() / slotCount;
+            slots[slot] = new int[to - from];
+            for (int i = from; i < to; i++) {
+                slots[slot][i - from] = cpus.get(i);
+            }
+        }
+        this.slotJobs = new int[slotCount];
+        this.tasksetAvailable = VodPackager.onPath("taskset");
+    }
+
+    /**
+     * 读取本容器可用的核心：cpuset限定核心范围，CPU配额限定核心数量
+     */
+    public static CpuAllocator detect(int cpusPerJob) {
+        List<Integer> cpus = readCpuset();
+        if (cpus.isEmpty()) {
+            for (int cpu = 0; cpu < Runtime.getRuntime().availableProcessors(); cpu++) {
+                cpus.add(cpu);
+            }
+        }
+        double quota = readQuotaCores();
+        CpuAllocator allocator = new CpuAllocator(cpus, quota, cpusPerJob);
+        logger.info("CPU池: " + describe(cpus) + (quota > 0 ? "（配额 " + quota + " 核）" : "")
+            + "，" + allocator.slots.length + " 个槽位，每槽 " + allocator.threadsPerSlot + " 线程、绑定 "
+            + allocator.slots[0].length + " 核"
+            + (allocator.tasksetAvailable ? "" : "，未找到taskset，仅限制线程数"));
+        return allocator;
+    }
+
+    /**
+     * 分配负载最轻的槽位
+     */
+    public synchronized Allocation allocate() {
+        int best = 0;
+        for (int slot = 1; slot < slots.length; slot++) {
+            if (slotJobs[slot] < slotJobs[best]) {
+                best = slot;
+            }
+        }
+        slotJobs[best]++;
+        return new Allocation(best, slots[best], threadsPerSlot);
+    }
+
+    public synchronized void release(Allocation allocation) {
+        if (allocation != null && slotJobs[allocation.slot] > 0) {
+            slotJobs[allocation.slot]--;
+        }
+    }
+
+    public int getPoolSize() { return poolCores; }
+    public int getSlotCount() { return slots.length; }
+    public double getQuotaCores() { return quotaCores; }
+
+    /**
+     * 进程累计占用的CPU时间（用户态+内核态，秒），无法读取时返回-1
+     */
+    public static double processCpuSeconds(long pid) {
+        try {
+            String stat = Files.readString(Paths.get("/proc", String.valueOf(pid), "stat"), StandardCharsets.US_ASCII);
+            // 进程名可能含空格，从最后一个右括号之后开始按字段切分；其后第一个字段是第3项state
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).trim().split(" ");
+            long utime = Long.parseLong(fields[11]);
+            long stime = Long.parseLong(fields[12]);
+            return (utime + stime) / CLOCK_TICKS_PER_SECOND;
+        } catch (IOException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 进程常驻内存（字节），无法读取时返回-1
+     */
+    public static long processRssBytes(long pid) {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc", String.valueOf(pid), "status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    // 形如 "VmRSS:    123456 kB"
+                    return Long.parseLong(line.substring(6).trim().split("\\s+")[0]) * 1024;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // 进程已退出或非Linux系统
+        }
+        return -1;
+    }
+
+    /**
+     * cgroup v2的cpuset.cpus.effective，或v1的cpuset.effective_cpus；都没有时取调度器给本进程的亲和性
+     */
+    private static List<Integer> readCpuset() {
+        for (Path file : List.of(CGROUP_ROOT.resolve("cpuset.cpus.effective"),
+                CGROUP_ROOT.resolve("cpuset").resolve("cpuset.effective_cpus"))) {
+            String value = readFirstLine(file);
+            if (value != null && !value.isEmpty()) {
+                return parseCpuList(value);
+            }
+        }
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("Cpus_allowed_list:")) {
+                    return parseCpuList(line.substring(line.indexOf(':') + 1).trim());
+                }
+            }
+        } catch (IOException e) {
+            // 非Linux系统
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * cgroup v2的cpu.max（"配额 周期"或"max 周期"），或v1的cpu.cfs_quota_us/cpu.cfs_period_us
+     *
+     * @return 配额折算的核心数，不限时返回-1
+     */
+    private static double readQuotaCores() {
+        String max = readFirstLine(CGROUP_ROOT.resolve("cpu.max"));
+        try {
+            if (max != null) {
+                String[] parts = max.split("\\s+");
+                return "max".equals(parts[0]) ? -1 : Double.parseDouble(parts[0]) / Double.parseDouble(parts[1]);
+            }
+            String quota = readFirstLine(CGROUP_ROOT.resolve("cpu").resolve("cpu.cfs_quota_us"));
+            String period = readFirstLine(CGROUP_ROOT.resolve("cpu").resolve("cpu.cfs_period_us"));
+            if (quota != null && period != null && Long.parseLong(quota) > 0) {
+                return Double.parseDouble(quota) / Double.parseDouble(period);
+            }
+        } catch (RuntimeException e) {
+            logger.warning("无法解析cgroup CPU配额: " + e.getMessage());
+        }
+        return -1;
+    }
+
+    /**
+     * 解析"0-3,8,10-11"格式的核心列表
+     */
+    static List<Integer> parseCpuList(String value) {
+        List<Integer> cpus = new ArrayList<>();
+        for (String range : value.split(",")) {
+            range = range.trim();
+            if (range.isEmpty()) {
+                continue;
+            }
+            int dash = range.indexOf('-');
+            int first = Integer.parseInt(dash < 0 ? range : range.substring(0, dash));
+            int last = dash < 0 ? first : Integer.parseInt(range.substring(dash + 1));
+            for (int cpu = first; cpu <= last; cpu++) {
+                cpus.add(cpu);
+            }
+        }
+        return cpus;
+    }
+
+    private static String readFirstLine(Path file) {
+        try {
+            List<String> lines = Files.readAllLines(file);
+            return lines.isEmpty() ? null : lines.get(0).trim();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String describe(List<Integer> list) {
+        return list.stream().map(String::valueOf).collect(Collectors.joining(","));
+    }
+
+    /**
+     * 一路转码分到的槽位
+     */
+    public class Allocation {
+        private final int slot;
+        private final int[] slotCpus;
+        private final int threads;
+
+        private Allocation(int slot, int[] slotCpus, int threads) {
+            this.slot = slot;
+            this.slotCpus = slotCpus;
+            this.threads = threads;
+        }
+
+        /**
+         * FFmpeg命令前缀：taskset -c <核心列表>，没有taskset时为空
+         */
+        public List<String> commandPrefix() {
+            return tasksetAvailable ? List.of("taskset", "-c", getCpuList()) : List.of();
+        }
+
+        /**
+         * FFmpeg线程数：按配额折算的核心数计算，可能少于绑定的核心数
+         */
+        public int getThreads() {
+            return threads;
+        }
+
+        public String getCpuList() {
+            StringBuilder list = new StringBuilder();
+            for (int cpu : slotCpus) {
+                if (list.length() > 0) {
+                    list.append(',');
+                }
+                list.append(cpu);
+            }
+            return list.toString();
+        }
+    }
+}
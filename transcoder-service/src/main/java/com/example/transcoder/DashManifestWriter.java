@@ -0,0 +1,312 @@
+package com.example.transcoder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * DASH清单生成器
+ * 根据FFmpeg输出的CMAF媒体播放列表生成manifest.mpd，
+ * HLS与DASH共用同一组fMP4分段，无需第二条打包流程
+ */
+public class DashManifestWriter {
+    private static final Logger logger = Logger.getLogger(DashManifestWriter.class.getName());
+
+    public static final String MANIFEST_NAME = "manifest.mpd";
+
+    private static final int TIMESCALE = 1000;
+    private static final Pattern SEGMENT_NUMBER = Pattern.compile("^(.*?)(\\d+)(\\.m4s)$");
+
+    private final Path outputDir;
+    private final int segmentDuration;
+    private final int playlistSize;
+    private final List<Representation> representations;
+
+    // 跨多次更新保留的时间线状态：分段序号 -> 媒体时间(ms) / 所属Period
+    private final List<Map<Long, Long>> mediaTimes = new ArrayList<>();
+    private final Map<Long, Long> segmentPeriods = new HashMap<>();
+    private final Map<Long, Instant> periodStarts = new HashMap<>();
+    private Instant availabilityStartTime;
+    private long lastModifiedKey = -1;
+
+    public DashManifestWriter(Path outputDir, int segmentDuration, int playlistSize,
+                              List<Representation> representations) {
+        this.outputDir = outputDir;
+        this.segmentDuration = segmentDuration;
+        this.playlistSize = playlistSize;
+        this.representations = new ArrayList<>(representations);
+        for (int i = 0; i < representations.size(); i++) {
+            mediaTimes.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * 检查媒体播放列表是否有变化，有变化时重新生成清单
+     *
+     * @return 清单是否被重写
+     */
+    public synchronized boolean update() throws IOException {
+        long modifiedKey = 0;
+        for (Representation representation : representations) {
+            Path playlist = outputDir.resolve(representation.getPlaylistName());
+            if (!Files.exists(playlist)) {
+                return false;
+            }
+            modifiedKey = modifiedKey * 31 + Files.getLastModifiedTime(playlist).toMillis();
+        }
+        if (modifiedKey == lastModifiedKey) {
+            return false;
+        }
+
+        List<MediaPlaylist> playlists = new ArrayList<>();
+        for (Representation representation : representations) {
+            playlists.add(MediaPlaylist.read(outputDir.resolve(representation.getPlaylistName())));
+        }
+
+        write(render(playlists));
+        lastModifiedKey = modifiedKey;
+        return true;
+    }
+
+    /**
+     * 更新某个表示的带宽（码率上限变化后）
+     */
+    public synchronized void setBandwidth(String playlistName, long bandwidth) {
+        for (int i = 0; i < representations.size(); i++) {
+            Representation r = representations.get(i);
+            if (r.getPlaylistName().equals(playlistName)) {
+                representations.set(i, new Representation(playlistName, r.getContentType(), r.getMimeType(),
+                    r.getCodecs(), bandwidth));
+            }
+        }
+    }
+
+    /**
+     * 根据媒体播放列表渲染MPD（播放列表顺序与表示顺序一致）
+     */
+    public synchronized String render(List<MediaPlaylist> playlists) {
+        Instant now = Instant.now();
+
+        // 以第一个表示（视频）划分Period：每个不连续点开启一个新Period
+        MediaPlaylist primary = playlists.get(0);
+        Long previousPeriod = null;
+        for (MediaPlaylist.Segment segment : primary.getSegments()) {
+            Long periodId = segmentPeriods.get(segment.getSequence());
+            if (periodId == null && !segment.isDiscontinuity()) {
+                periodId = segmentPeriods.get(segment.getSequence() - 1);
+            }
+            if (periodId == null) {
+                periodId = segment.isDiscontinuity() || previousPeriod == null ? segment.getSequence() : previousPeriod;
+            }
+            segmentPeriods.put(segment.getSequence(), periodId);
+            previousPeriod = periodId;
+        }
+
+        for (int i = 0; i < playlists.size(); i++) {
+            assignMediaTimes(playlists.get(i), mediaTimes.get(i));
+        }
+
+        for (MediaPlaylist.Segment segment : primary.getSegments()) {
+            long periodId = segmentPeriods.get(segment.getSequence());
+            if (!periodStarts.containsKey(periodId)) {
+                Instant wallClock = segment.getProgramDateTime() != null ? segment.getProgramDateTime() : now;
+                long mediaTime = mediaTimes.get(0).getOrDefault(segment.getSequence(), 0L);
+                periodStarts.put(periodId, wallClock.minusMillis(mediaTime));
+            }
+        }
+        if (availabilityStartTime == null && !periodStarts.isEmpty()) {
+            availabilityStartTime = periodStarts.values().stream().min(Instant::compareTo).get();
+        }
+
+        StringBuilder mpd = new StringBuilder(4096);
+        mpd.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+        mpd.append("<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\"")
+           .append(" profiles=\"urn:mpeg:dash:profile:isoff-live:2011\" type=\"dynamic\"")
+           .append(" availabilityStartTime=\"").append(availabilityStartTime != null ? availabilityStartTime : now).append('"')
+           .append(" publishTime=\"").append(now).append('"')
+           .append(" minimumUpdatePeriod=\"").append(duration(segmentDuration)).append('"')
+           .append(" minBufferTime=\"").append(duration(segmentDuration)).append('"')
+           .append(" timeShiftBufferDepth=\"").append(duration(segmentDuration * playlistSize)).append('"')
+           .append(" suggestedPresentationDelay=\"").append(duration(segmentDuration * 3)).append('"')
+           .append(" maxSegmentDuration=\"").append(duration(primary.getTargetDuration())).append("\">\n");
+
+        for (Map.Entry<Long, List<MediaPlaylist.Segment>> period : groupByPeriod(primary).entrySet()) {
+            long periodId = period.getKey();
+            Duration start = Duration.between(availabilityStartTime, periodStarts.get(periodId));
+            mpd.append("  <Period id=\"").append(periodId).append("\" start=\"")
+               .append(duration(Math.max(0, start.toMillis()) / 1000.0)).append("\">\n");
+
+            for (int i = 0; i < representations.size(); i++) {
+                List<MediaPlaylist.Segment> segments = segmentsInPeriod(playlists.get(i), periodId);
+                if (!segments.isEmpty()) {
+                    renderAdaptationSet(mpd, i, representations.get(i), segments, mediaTimes.get(i));
+                }
+            }
+            mpd.append("  </Period>\n");
+        }
+        mpd.append("</MPD>\n");
+
+        trimState(primary);
+        return mpd.toString();
+    }
+
+    private void assignMediaTimes(MediaPlaylist playlist, Map<Long, Long> times) {
+        MediaPlaylist.Segment previous = null;
+        for (MediaPlaylist.Segment segment : playlist.getSegments()) {
+            if (!times.containsKey(segment.getSequence())) {
+                // 每次FFmpeg（重新）启动时输出时间戳从0开始
+                long mediaTime = 0;
+                if (!segment.isDiscontinuity() && previous != null && times.containsKey(previous.getSequence())) {
+                    mediaTime = times.get(previous.getSequence()) + Math.round(previous.getDuration() * TIMESCALE);
+                }
+                times.put(segment.getSequence(), mediaTime);
+            }
+            previous = segment;
+        }
+    }
+
+    private Map<Long, List<MediaPlaylist.Segment>> groupByPeriod(MediaPlaylist playlist) {
+        Map<Long, List<MediaPlaylist.Segment>> periods = new LinkedHashMap<>();
+        for (MediaPlaylist.Segment segment : playlist.getSegments()) {
+            periods.computeIfAbsent(segmentPeriods.get(segment.getSequence()), k -> new ArrayList<>()).add(segment);
+        }
+        return periods;
+    }
+
+    private List<MediaPlaylist.Segment> segmentsInPeriod(MediaPlaylist playlist, long periodId) {
+        List<MediaPlaylist.Segment> segments = new ArrayList<>();
+        for (MediaPlaylist.Segment segment : playlist.getSegments()) {
+            Long segmentPeriod = segmentPeriods.get(segment.getSequence());
+            if (segmentPeriod != null && segmentPeriod == periodId) {
+                segments.add(segment);
+            }
+        }
+        return segments;
+    }
+
+    private void renderAdaptationSet(StringBuilder mpd, int index, Representation representation,
+                                     List<MediaPlaylist.Segment> segments, Map<Long, Long> times) {
+        MediaPlaylist.Segment first = segments.get(0);
+        Matcher matcher = SEGMENT_NUMBER.matcher(first.getUri());
+        if (!matcher.matches() || first.getInitUri() == null) {
+            logger.warning("无法为分段生成DASH模板: " + first.getUri());
+            return;
+        }
+        String mediaTemplate = matcher.group(1) + "$Number%0" + matcher.group(2).length() + "d$" + matcher.group(3);
+
+        mpd.append("    <AdaptationSet id=\"").append(index)
+           .append("\" contentType=\"").append(representation.getContentType())
+           .append("\" mimeType=\"").append(representation.getMimeType())
+           .append("\" segmentAlignment=\"true\" startWithSAP=\"1\">\n");
+        mpd.append("      <Representation id=\"").append(index)
+           .append("\" codecs=\"").append(representation.getCodecs())
+           .append("\" bandwidth=\"").append(representation.getBandwidth()).append("\">\n");
+        mpd.append("        <SegmentTemplate timescale=\"").append(TIMESCALE)
+           .append("\" initialization=\"").append(first.getInitUri())
+           .append("\" media=\"").append(mediaTemplate)
+           .append("\" startNumber=\"").append(first.getSequence()).append("\">\n");
+        mpd.append("          <SegmentTimeline>\n");
+
+        // 相同时长的连续分段合并为一个S元素（r属性）
+        long runStart = times.get(first.getSequence());
+        long runDuration = Math.round(first.getDuration() * TIMESCALE);
+        int repeat = 0;
+        for (int i = 1; i < segments.size(); i++) {
+            long d = Math.round(segments.get(i).getDuration() * TIMESCALE);
+            if (d == runDuration) {
+                repeat++;
+            } else {
+                appendTimelineEntry(mpd, runStart, runDuration, repeat);
+                runStart = times.get(segments.get(i).getSequence());
+                runDuration = d;
+                repeat = 0;
+            }
+        }
+        appendTimelineEntry(mpd, runStart, runDuration, repeat);
+
+        mpd.append("          </SegmentTimeline>\n");
+        mpd.append("        </SegmentTemplate>\n");
+        mpd.append("      </Representation>\n");
+        mpd.append("    </AdaptationSet>\n");
+    }
+
+    private void appendTimelineEntry(StringBuilder mpd, long t, long d, int repeat) {
+        mpd.append("            <S t=\"").append(t).append("\" d=\"").append(d).append('"');
+        if (repeat > 0) {
+            mpd.append(" r=\"").append(repeat).append('"');
+        }
+        mpd.append("/>\n");
+    }
+
+    /**
+     * 丢弃已滑出播放列表窗口的分段状态，保证内存占用有界
+     */
+    private void trimState(MediaPlaylist primary) {
+        if (primary.getSegments().isEmpty()) {
+            return;
+        }
+        long oldest = primary.getSegments().get(0).getSequence();
+        segmentPeriods.keySet().removeIf(sequence -> sequence < oldest - 1);
+        for (Map<Long, Long> times : mediaTimes) {
+            times.keySet().removeIf(sequence -> sequence < oldest - 1);
+        }
+        periodStarts.keySet().retainAll(segmentPeriods.values());
+    }
+
+    private void write(String content) throws IOException {
+        Path target = outputDir.resolve(MANIFEST_NAME);
+        Path temp = outputDir.resolve(MANIFEST_NAME + ".tmp");
+        Files.writeString(temp, content, StandardCharsets.UTF_8);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String duration(double seconds) {
+        return String.format(Locale.ROOT, "PT%.3fS", seconds);
+    }
+
+    /**
+     * 清单中的一个表示（对应一个HLS媒体播放列表）
+     */
+    public static class Representation {
+        private final String playlistName;
+        private final String contentType;
+        private final String mimeType;
+        private final String codecs;
+        private final long bandwidth;
+
+        public Representation(String playlistName, String contentType, String mimeType, String codecs, long bandwidth) {
+            this.playlistName = playlistName;
+            this.contentType = contentType;
+            this.mimeType = mimeType;
+            this.codecs = codecs;
+            this.bandwidth = bandwidth;
+        }
+
+        public static Representation video(String playlistName, String codecs, long bandwidth) {
+            return new Representation(playlistName, "video", "video/mp4", codecs, bandwidth);
+        }
+
+        public static Representation audio(String playlistName, String codecs, long bandwidth) {
+            return new Representation(playlistName, "audio", "audio/mp4", codecs, bandwidth);
+        }
+
+        public String getPlaylistName() { return playlistName; }
+        public String getContentType() { return contentType; }
+        public String getMimeType() { return mimeType; }
+        public String getCodecs() { return codecs; }
+        public long getBandwidth() { return bandwidth; }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.transcoder;
+
+import java.util.List;
+
+/**
+ * 视频编码档位
+ * 从上到下编码开销依次降低：先换更快的x264预设，再降低输出分辨率；
+ * 码率、profile与level保持不变，清单中的codecs与带宽无需随档位变化
+ */
+public enum EncodingProfile {
+    FULL("medium", 0),           // libx264默认预设，源分辨率
+    FAST("veryfast", 0),
+    FASTER("superfast", 720),
+    FASTEST("ultrafast", 480);
+
+    private final String preset;
+    private final int maxHeight;   // 0表示保持源分辨率
+
+    EncodingProfile(String preset, int maxHeight) {
+        this.preset = preset;
+        this.maxHeight = maxHeight;
+    }
+
+    /**
+     * 对应的FFmpeg视频编码参数
+     */
+    public List<String> toArguments() {
+        return List.of("-preset", preset);
+    }
+
+    /**
+     * 编码前的缩放滤镜，保持源分辨率时返回null
+     * 只缩小不放大，宽度按比例取偶数
+     */
+    public String scaleFilter() {
+        return maxHeight > 0 ? "scale=-2:'min(" + maxHeight + ",ih)'" : null;
+    }
+
+    /**
+     * 下一个更省CPU的档位，已是最低档时返回null
+     */
+    public EncodingProfile cheaper() {
+        return ordinal() + 1 < values().length ? values()[ordinal() + 1] : null;
+    }
+
+    /**
+     * 上一个质量更高的档位，已是最高档时返回null
+     */
+    public EncodingProfile better() {
+        return ordinal() > 0 ? values()[ordinal() - 1] : null;
+    }
+
+    /**
+     * 档位序号，0为最高质量（用于指标）
+     */
+    public int getLevel() {
+        return ordinal();
+    }
+
+    public String getPreset() { return preset; }
+    public int getMaxHeight() { return maxHeight; }
+}
@@ -0,0 +1,142 @@
+package com.example.transcoder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * HLS媒体播放列表
+ * 解析FFmpeg写出的分段列表（EXTINF、EXT-X-MAP、EXT-X-DISCONTINUITY等）
+ */
+public class MediaPlaylist {
+
+    private final int targetDuration;
+    private final long mediaSequence;
+    private final List<Segment> segments;
+
+    private MediaPlaylist(int targetDuration, long mediaSequence, List<Segment> segments) {
+        this.targetDuration = targetDuration;
+        this.mediaSequence = mediaSequence;
+        this.segments = Collections.unmodifiableList(segments);
+    }
+
+    /**
+     * 从文件读取并解析播放列表
+     */
+    public static MediaPlaylist read(Path path) throws IOException {
+        return parse(Files.readAllLines(path, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解析播放列表内容
+     */
+    public static MediaPlaylist parse(List<String> lines) {
+        int targetDuration = 0;
+        long mediaSequence = 0;
+        List<Segment> segments = new ArrayList<>();
+
+        String initUri = null;
+        Instant programDateTime = null;
+        double duration = -1;
+        boolean discontinuity = false;
+
+        for (String rawLine : lines) {
+            String line = rawLine.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            if (line.startsWith("#EXT-X-TARGETDURATION:")) {
+                targetDuration = Integer.parseInt(valueOf(line));
+            } else if (line.startsWith("#EXT-X-MEDIA-SEQUENCE:")) {
+                mediaSequence = Long.parseLong(valueOf(line));
+            } else if (line.startsWith("#EXT-X-MAP:")) {
+                initUri = attribute(line, "URI");
+            } else if (line.startsWith("#EXT-X-PROGRAM-DATE-TIME:")) {
+                programDateTime = parseDateTime(valueOf(line));
+            } else if (line.startsWith("#EXT-X-DISCONTINUITY")) {
+                discontinuity = true;
+            } else if (line.startsWith("#EXTINF:")) {
+                String value = valueOf(line);
+                int comma = value.indexOf(',');
+                duration = Double.parseDouble(comma >= 0 ? value.substring(0, comma) : value);
+            } else if (!line.startsWith("#") && duration >= 0) {
+                long sequence = mediaSequence + segments.size();
+                segments.add(new Segment(sequence, line, duration, initUri, programDateTime, discontinuity));
+                programDateTime = null;
+                duration = -1;
+                discontinuity = false;
+            }
+        }
+
+        return new MediaPlaylist(targetDuration, mediaSequence, segments);
+    }
+
+    private static String valueOf(String line) {
+        return line.substring(line.indexOf(':') + 1).trim();
+    }
+
+    private static String attribute(String line, String name) {
+        String key = name + "=\"";
+        int start = line.indexOf(key);
+        if (start < 0) {
+            return null;
+        }
+        start += key.length();
+        int end = line.indexOf('"', start);
+        return end > start ? line.substring(start, end) : null;
+    }
+
+    private static Instant parseDateTime(String value) {
+        try {
+            return OffsetDateTime.parse(value).toInstant();
+        } catch (DateTimeParseException e) {
+            // FFmpeg输出的时区格式为+0800，不带冒号
+            try {
+                return OffsetDateTime.parse(value.replaceAll("([+-]\\d{2})(\\d{2})$", "$1:$2")).toInstant();
+            } catch (DateTimeParseException ignored) {
+                return null;
+            }
+        }
+    }
+
+    public int getTargetDuration() { return targetDuration; }
+    public long getMediaSequence() { return mediaSequence; }
+    public List<Segment> getSegments() { return segments; }
+
+    /**
+     * 播放列表中的单个分段
+     */
+    public static class Segment {
+        private final long sequence;
+        private final String uri;
+        private final double duration;
+        private final String initUri;
+        private final Instant programDateTime;
+        private final boolean discontinuity;
+
+        public Segment(long sequence, String uri, double duration, String initUri,
+                       Instant programDateTime, boolean discontinuity) {
+            this.sequence = sequence;
+            this.uri = uri;
+            this.duration = duration;
+            this.initUri = initUri;
+            this.programDateTime = programDateTime;
+            this.discontinuity = discontinuity;
+        }
+
+        public long getSequence() { return sequence; }
+        public String getUri() { return uri; }
+        public double getDuration() { return duration; }
+        public String getInitUri() { return initUri; }
+        public Instant getProgramDateTime() { return programDateTime; }
+        public boolean isDiscontinuity() { return discontinuity; }
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.transcoder;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 输出目录监听
+ * 用一个WatchService（Linux上基于inotify）监听所有流的输出目录，
+ * 把文件创建、修改、删除事件分发给对应的流，替代定时扫描目录
+ */
+public class OutputDirectoryWatcher {
+    private static final Logger logger = Logger.getLogger(OutputDirectoryWatcher.class.getName());
+
+    private final WatchService watchService;
+    private final ConcurrentMap<WatchKey, Listener> listeners = new ConcurrentHashMap<>();
+    private final Thread thread;
+
+    public OutputDirectoryWatcher() throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.thread = new Thread(this::run, "output-directory-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * 开始监听目录，返回用于取消监听的WatchKey
+     */
+    public WatchKey register(Path directory, Listener listener) throws IOException {
+        WatchKey key = directory.register(watchService,
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY,
+            StandardWatchEventKinds.ENTRY_DELETE);
+        listeners.put(key, listener);
+        return key;
+    }
+
+    /**
+     * 取消监听
+     */
+    public void unregister(WatchKey key) {
+        if (key != null) {
+            key.cancel();
+            listeners.remove(key);
+        }
+    }
+
+    private void run() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            Listener listener = listeners.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (listener == null) {
+                    continue;
+                }
+                try {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // 事件队列溢出时丢失了部分事件，由监听方重新扫描目录
+                        listener.onOverflow();
+                    } else {
+                        String fileName = ((Path) event.context()).getFileName().toString();
+                        listener.onEvent(fileName, event.kind() == StandardWatchEventKinds.ENTRY_DELETE);
+                    }
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "处理目录事件时出错: " + event.context(), e);
+                }
+            }
+            if (!key.reset()) {
+                // 目录已被删除
+                listeners.remove(key);
+            }
+        }
+    }
+
+    /**
+     * 停止监听
+     */
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "关闭目录监听失败", e);
+        }
+    }
+
+    /**
+     * 目录事件监听器
+     * 在监听线程上回调，耗时处理应转交给其他线程
+     */
+    public interface Listener {
+        void onEvent(String fileName, boolean deleted);
+
+        void onOverflow();
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.transcoder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * 单路流输出目录的内存索引
+ * 由目录监听事件维护，记录每个分段的序号、时长、大小和创建时间，
+ * 查询与过期清理都不再遍历目录
+ */
+public class SegmentIndex {
+    private static final Logger logger = Logger.getLogger(SegmentIndex.class.getName());
+    private static final Pattern SEGMENT_NAME = Pattern.compile("seg_(\\d+)_(\\d+)\\.m4s");
+
+    private final Path directory;
+    private final int retainedSegments;
+    private final ConcurrentMap<String, Entry> files = new ConcurrentHashMap<>();
+    // 各轨道（%v）按序号排列的分段
+    private final ConcurrentMap<Integer, ConcurrentSkipListMap<Long, Entry>> variants = new ConcurrentHashMap<>();
+
+    /**
+     * @param retainedSegments 已移出播放列表后仍保留的分段数，给正在下载的播放器留出余量；为负数时保留全部分段
+     */
+    public SegmentIndex(Path directory, int retainedSegments) {
+        this.directory = directory;
+        this.retainedSegments = retainedSegments;
+    }
+
+    /**
+     * 全量扫描目录，仅在开始监听和事件溢出时调用
+     */
+    public void scan() {
+        try (Stream<Path> paths = Files.list(directory)) {
+            paths.forEach(path -> onEvent(path.getFileName().toString(), false));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "扫描输出目录失败: " + directory, e);
+        }
+        for (String fileName : new ArrayList<>(files.keySet())) {
+            if (!Files.exists(directory.resolve(fileName))) {
+                remove(fileName);
+            }
+        }
+    }
+
+    /**
+     * 处理目录事件
+     */
+    public void onEvent(String fileName, boolean deleted) {
+        if (deleted) {
+            remove(fileName);
+            return;
+        }
+
+        Entry entry = files.computeIfAbsent(fileName, this::newEntry);
+        if (entry.sequence < 0) {
+            // 分段在写完并进入播放列表时再取大小，其余文件随事件更新
+            entry.size = sizeOf(fileName);
+        }
+    }
+
+    /**
+     * 媒体播放列表更新后补全分段时长与大小，并删除已移出窗口的旧分段
+     * 重启或切换编码参数后，旧FFmpeg进程留下的分段不会被新进程的delete_segments清理，由这里回收
+     */
+    public void applyPlaylist(MediaPlaylist playlist) {
+        int variant = -1;
+        for (MediaPlaylist.Segment segment : playlist.getSegments()) {
+            Entry entry = files.computeIfAbsent(segment.getUri(), this::newEntry);
+            if (entry.duration == 0) {
+                entry.duration = segment.getDuration();
+                entry.size = sizeOf(segment.getUri());
+            }
+            variant = entry.variant;
+        }
+        if (variant < 0 || retainedSegments < 0) {
+            return;
+        }
+
+        ConcurrentSkipListMap<Long, Entry> segments = variants.get(variant);
+        if (segments == null) {
+            return;
+        }
+        NavigableMap<Long, Entry> expired = segments.headMap(playlist.getMediaSequence() - retainedSegments, false);
+        for (Entry entry : new ArrayList<>(expired.values())) {
+            try {
+                if (Files.deleteIfExists(directory.resolve(entry.fileName))) {
+                    logger.fine("删除过期分段: " + entry.fileName);
+                }
+            } catch (IOException e) {
+                logger.log(Level.FINE, "删除过期分段失败: " + entry.fileName, e);
+            }
+            remove(entry.fileName);
+        }
+    }
+
+    /**
+     * 删除索引中的全部文件
+     */
+    public void deleteAll() {
+        for (String fileName : new ArrayList<>(files.keySet())) {
+            Path path = directory.resolve(fileName);
+            try {
+                Files.deleteIfExists(path);
+                logger.fine("删除输出文件: " + path);
+            } catch (IOException e) {
+                logger.warning("删除文件失败: " + path + " - " + e.getMessage());
+            }
+            remove(fileName);
+        }
+    }
+
+    /**
+     * 查询文件，不存在时返回null
+     */
+    public Entry get(String fileName) {
+        return files.get(fileName);
+    }
+
+    /**
+     * 某个轨道当前索引中的分段，按序号排列
+     */
+    public List<Entry> getSegments(int variant) {
+        ConcurrentSkipListMap<Long, Entry> segments = variants.get(variant);
+        return segments != null ? new ArrayList<>(segments.values()) : List.of();
+    }
+
+    public int getFileCount() { return files.size(); }
+
+    private Entry newEntry(String fileName) {
+        Entry entry = new Entry(fileName, System.currentTimeMillis());
+        Matcher matcher = SEGMENT_NAME.matcher(fileName);
+        if (matcher.matches()) {
+            entry.variant = Integer.parseInt(matcher.group(1));
+            entry.sequence = Long.parseLong(matcher.group(2));
+            variants.computeIfAbsent(entry.variant, v -> new ConcurrentSkipListMap<>()).put(entry.sequence, entry);
+        }
+        return entry;
+    }
+
+    private void remove(String fileName) {
+        Entry entry = files.remove(fileName);
+        if (entry != null && entry.sequence >= 0) {
+            Map<Long, Entry> segments = variants.get(entry.variant);
+            if (segments != null) {
+                segments.remove(entry.sequence, entry);
+            }
+        }
+    }
+
+    private long sizeOf(String fileName) {
+        try {
+            return Files.size(directory.resolve(fileName));
+        } catch (NoSuchFileException e) {
+            return -1;
+        } catch (IOException e) {
+            logger.log(Level.FINE, "读取文件大小失败: " + fileName, e);
+            return -1;
+        }
+    }
+
+    /**
+     * 索引中的文件
+     */
+    public static class Entry {
+        private final String fileName;
+        private final long createdAt;
+        private int variant = -1;
+        private long sequence = -1;
+        private volatile long size = -1;
+        private volatile double duration;
+
+        Entry(String fileName, long createdAt) {
+            this.fileName = fileName;
+            this.createdAt = createdAt;
+        }
+
+        public String getFileName() { return fileName; }
+        public long getCreatedAt() { return createdAt; }
+        public int getVariant() { return variant; }
+        public long getSequence() { return sequence; }
+        public long getSize() { return size; }
+        public double getDuration() { return duration; }
+    }
+}
@@ -0,0 +1,245 @@
+package com.example.transcoder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * 分段接收服务
+ * 接收FFmpeg以HTTP PUT/DELETE方式输出的播放列表与分段，写入内存分段存储，
+ * 并通过GET直接从内存提供 /hls/{streamKey}/{fileName}
+ * 只监听回环地址：接口不做鉴权，能访问端口就能改写或删除任意流的分段，只供本机的FFmpeg使用。
+ * Web API经控制端口上只读的 /hls/ 读取（{@link #handleRead}），只支持GET/HEAD
+ */
+public class SegmentIngestServer {
+    private static final Logger logger = Logger.getLogger(SegmentIngestServer.class.getName());
+
+    public static final String CONTEXT_PATH = "/hls/";
+    private static final int WORKER_THREADS = 8;
+
+    private final int port;
+    private final SegmentStore segmentStore;
+    private HttpServer server;
+    private ExecutorService executor;
+    private volatile UploadObserver uploadObserver;
+    private volatile ThumbnailCache thumbnailCache;
+
+    public SegmentIngestServer(int port, SegmentStore segmentStore) {
+        this.port = port;
+        this.segmentStore = segmentStore;
+    }
+
+    /**
+     * 启动接收服务
+     */
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(CONTEXT_PATH, this::handle);
+        // PUT请求体在分段写完前会持续传输，不能占用调度线程
+        executor = Executors.newFixedThreadPool(WORKER_THREADS);
+        server.setExecutor(executor);
+        server.start();
+        logger.info("分段接收服务已启动，监听回环地址端口: " + port);
+    }
+
+    /**
+     * 设置上传耗时观察者（用于分段写入耗时指标）
+     */
+    public void setUploadObserver(UploadObserver uploadObserver) {
+        this.uploadObserver = uploadObserver;
+    }
+
+    /**
+     * 设置缩略图缓存：缩略图与预览图写入该缓存，不占用分段存储
+     */
+    public void setThumbnailCache(ThumbnailCache thumbnailCache) {
+        this.thumbnailCache = thumbnailCache;
+    }
+    
+    /**
+     * 获取FFmpeg输出使用的基础URL
+     */
+    public String getIngestBaseUrl() {
+        return "http://127.0.0.1:" + port + CONTEXT_PATH;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String[] file = parsePath(exchange);
+            if (file == null) {
+                return;
+            }
+            String streamKey = file[0];
+            String fileName = file[1];
+
+            ThumbnailCache images = thumbnailCache;
+            if (images != null && ThumbnailCache.isImage(fileName)) {
+                handleImage(exchange, images, streamKey, fileName);
+                return;
+            }
+            
+            switch (exchange.getRequestMethod()) {
+                case "PUT":
+                case "POST":
+                    long startNanos = System.nanoTime();
+                    try (InputStream body = exchange.getRequestBody()) {
+                        segmentStore.put(streamKey, fileName, body.readAllBytes());
+                    }
+                    UploadObserver observer = uploadObserver;
+                    if (observer != null) {
+                        observer.onUpload(streamKey, fileName, (System.nanoTime() - startNanos) / 1e9);
+                    }
+                    sendEmpty(exchange, 201);
+                    break;
+                case "DELETE":
+                    segmentStore.delete(streamKey, fileName);
+                    sendEmpty(exchange, 204);
+                    break;
+                case "GET":
+                case "HEAD":
+                    serve(exchange, streamKey, fileName);
+                    break;
+                default:
+                    sendEmpty(exchange, 405);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * 只读访问：从内存提供播放列表与分段，挂载在对外的控制端口上供Web API读取
+     * 带ETag，播放列表未变化时对条件请求返回304
+     */
+    public void handleRead(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                sendEmpty(exchange, 405);
+                return;
+            }
+            String[] file = parsePath(exchange);
+            if (file != null) {
+                serve(exchange, file[0], file[1]);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * 解析 /hls/{streamKey}/{fileName}，不合法时已发送响应并返回null
+     */
+    private String[] parsePath(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath().substring(CONTEXT_PATH.length());
+        int slash = path.indexOf('/');
+        if (slash <= 0 || slash == path.length() - 1) {
+            sendEmpty(exchange, 404);
+            return null;
+        }
+        String streamKey = path.substring(0, slash);
+        String fileName = path.substring(slash + 1);
+        if (fileName.contains("/") || fileName.startsWith(".") || streamKey.startsWith(".")) {
+            sendEmpty(exchange, 400);
+            return null;
+        }
+        return new String[] {streamKey, fileName};
+    }
+
+    private void handleImage(HttpExchange exchange, ThumbnailCache images, String streamKey, String fileName)
+            throws IOException {
+        switch (exchange.getRequestMethod()) {
+            case "PUT":
+            case "POST":
+                try (InputStream body = exchange.getRequestBody()) {
+                    images.put(streamKey, fileName, body.readAllBytes());
+                }
+                sendEmpty(exchange, 201);
+                break;
+            case "GET":
+                ThumbnailCache.Image image = images.get(streamKey, fileName);
+                if (image == null) {
+                    sendEmpty(exchange, 404);
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Type", contentType(fileName));
+                exchange.sendResponseHeaders(200, image.getData().length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(image.getData());
+                }
+                break;
+            default:
+                sendEmpty(exchange, 405);
+        }
+    }
+    
+    private void serve(HttpExchange exchange, String streamKey, String fileName) throws IOException {
+        SegmentStore.Entry entry = segmentStore.get(streamKey, fileName);
+        if (entry == null) {
+            sendEmpty(exchange, 404);
+            return;
+        }
+
+        byte[] data = entry.getData();
+        // 同名文件（播放列表）每次写入都是新条目，长度和写入时间即可区分版本
+        String etag = "\"" + Long.toHexString(data.length) + "-" + Long.toHexString(entry.getStoredAt()) + "\"";
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("X-Stored-At", String.valueOf(entry.getStoredAt()));
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            sendEmpty(exchange, 304);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", contentType(fileName));
+        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(data.length));
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(200, data.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(data);
+        }
+    }
+
+    private void sendEmpty(HttpExchange exchange, int statusCode) throws IOException {
+        exchange.sendResponseHeaders(statusCode, -1);
+    }
+
+    static String contentType(String fileName) {
+        if (fileName.endsWith(".m3u8")) return "application/vnd.apple.mpegurl";
+        if (fileName.endsWith(".mpd")) return "application/dash+xml";
+        if (fileName.endsWith(".m4s")) return "video/iso.segment";
+        if (fileName.endsWith(".mp4")) return "video/mp4";
+        if (fileName.endsWith(".ts")) return "video/mp2t";
+        if (fileName.endsWith(".jpg")) return "image/jpeg";
+        return "application/octet-stream";
+    }
+
+    /**
+     * 上传耗时观察者
+     */
+    public interface UploadObserver {
+        void onUpload(String streamKey, String fileName, double seconds);
+    }
+
+    /**
+     * 停止接收服务
+     */
+    public void stop() {
+        if (server != null) {
+            server.stop(1);
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.transcoder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 内存分段存储
+ * 保存FFmpeg通过HTTP PUT上传的播放列表与分段，按总字节数限制容量，
+ * 可选异步写穿到磁盘，直播分发的关键路径上不产生磁盘I/O
+ */
+public class SegmentStore {
+    private static final Logger logger = Logger.getLogger(SegmentStore.class.getName());
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    // 媒体分段按写入顺序排队，超出容量时从最旧的开始淘汰
+    private final Queue<String> evictionQueue = new ConcurrentLinkedQueue<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final long maxBytes;
+    private final Path writeThroughDir;
+    private final ExecutorService writeThroughExecutor;
+
+    /**
+     * @param maxBytes        内存中分段的最大总字节数
+     * @param writeThroughDir 写穿目录，为null时不写磁盘
+     */
+    public SegmentStore(long maxBytes, Path writeThroughDir) {
+        this.maxBytes = maxBytes;
+        this.writeThroughDir = writeThroughDir;
+        this.writeThroughExecutor = writeThroughDir != null ? Executors.newSingleThreadExecutor() : null;
+    }
+
+    /**
+     * 保存文件（FFmpeg PUT）
+     */
+    public void put(String streamKey, String fileName, byte[] data) {
+        String key = key(streamKey, fileName);
+        Entry previous = entries.put(key, new Entry(data, System.currentTimeMillis()));
+        totalBytes.addAndGet(data.length - (previous != null ? previous.data.length : 0));
+
+        if (isEvictable(fileName) && previous == null) {
+            evictionQueue.add(key);
+        }
+        evictIfNecessary();
+
+        if (writeThroughExecutor != null) {
+            writeThroughExecutor.execute(() -> writeToDisk(streamKey, fileName, data));
+        }
+        for (Listener listener : listeners) {
+            listener.onStored(streamKey, fileName, data);
+        }
+    }
+
+    /**
+     * 读取文件
+     */
+    public Entry get(String streamKey, String fileName) {
+        return entries.get(key(streamKey, fileName));
+    }
+
+    /**
+     * 删除文件（FFmpeg DELETE）
+     */
+    public boolean delete(String streamKey, String fileName) {
+        Entry removed = entries.remove(key(streamKey, fileName));
+        if (removed == null) {
+            return false;
+        }
+        totalBytes.addAndGet(-removed.data.length);
+        if (isEvictable(fileName)) {
+            evictionQueue.remove(key(streamKey, fileName));
+        }
+        if (writeThroughExecutor != null) {
+            writeThroughExecutor.execute(() -> deleteFromDisk(streamKey, fileName));
+        }
+        return true;
+    }
+
+    /**
+     * 删除某个流的全部文件
+     */
+    public void removeStream(String streamKey) {
+        String prefix = streamKey + "/";
+        for (String key : entries.keySet()) {
+            if (key.startsWith(prefix)) {
+                delete(streamKey, key.substring(prefix.length()));
+            }
+        }
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public long getTotalBytes() { return totalBytes.get(); }
+    public long getMaxBytes() { return maxBytes; }
+    public long getEvictionCount() { return evictionCount.get(); }
+    public int getEntryCount() { return entries.size(); }
+    public boolean isWriteThrough() { return writeThroughDir != null; }
+
+    /**
+     * 等待此前已排队的写穿完成
+     */
+    public void awaitWriteThrough(long timeout, TimeUnit unit) {
+        if (writeThroughExecutor == null) {
+            return;
+        }
+        try {
+            writeThroughExecutor.submit(() -> { }).get(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException | RejectedExecutionException e) {
+            logger.log(Level.WARNING, "等待写穿完成失败", e);
+        }
+    }
+
+    /**
+     * 关闭写穿线程，等待已排队的写入完成
+     */
+    public void shutdown() {
+        if (writeThroughExecutor != null) {
+            writeThroughExecutor.shutdown();
+            try {
+                writeThroughExecutor.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void evictIfNecessary() {
+        while (totalBytes.get() > maxBytes) {
+            String oldest = evictionQueue.poll();
+            if (oldest == null) {
+                return;
+            }
+            Entry removed = entries.remove(oldest);
+            if (removed != null) {
+                totalBytes.addAndGet(-removed.data.length);
+                evictionCount.incrementAndGet();
+                logger.fine("内存分段存储已满，淘汰: " + oldest);
+            }
+        }
+    }
+
+    /**
+     * 只淘汰媒体分段；播放列表、清单和初始化分段体积小且必须常驻
+     */
+    private static boolean isEvictable(String fileName) {
+        return fileName.endsWith(".m4s") || fileName.endsWith(".ts");
+    }
+
+    private void writeToDisk(String streamKey, String fileName, byte[] data) {
+        try {
+            Path dir = writeThroughDir.resolve(streamKey);
+            Files.createDirectories(dir);
+            Path temp = dir.resolve(fileName + ".tmp");
+            Files.write(temp, data);
+            Files.move(temp, dir.resolve(fileName), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "写穿磁盘失败: " + streamKey + "/" + fileName, e);
+        }
+    }
+
+    private void deleteFromDisk(String streamKey, String fileName) {
+        try {
+            Files.deleteIfExists(writeThroughDir.resolve(streamKey).resolve(fileName));
+        } catch (IOException e) {
+            logger.warning("删除磁盘文件失败: " + streamKey + "/" + fileName + " - " + e.getMessage());
+        }
+    }
+
+    private static String key(String streamKey, String fileName) {
+        return streamKey + "/" + fileName;
+    }
+
+    /**
+     * 存储的文件内容
+     */
+    public static class Entry {
+        private final byte[] data;
+        private final long storedAt;
+
+        Entry(byte[] data, long storedAt) {
+            this.data = data;
+            this.storedAt = storedAt;
+        }
+
+        public byte[] getData() { return data; }
+        public long getStoredAt() { return storedAt; }
+    }
+
+    /**
+     * 文件写入监听器
+     */
+    public interface Listener {
+        void onStored(String streamKey, String fileName, byte[] data);
+    }
+}
@@ -0,0 +1,215 @@
+package com.example.transcoder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * 附加输出
+ * 转推到其他RTMP服务器，或录制为MP4文件。每个附加输出是一个单独的FFmpeg进程，以流复制方式读取本路的HLS主播放列表，
+ * 不参与编码：添加、移除附加输出或附加输出失败都不会重启主编码进程，HLS不受影响。
+ * 主编码重启（切换档位或崩溃后）时播放列表暂时结束，附加输出随后自动重连，只缺少重连前后的片刻
+ */
+public class StreamOutput {
+    private static final Logger logger = Logger.getLogger(StreamOutput.class.getName());
+
+    // 失败后的重连退避，连续运行超过STABLE_RUN_MS后复位
+    private static final long RETRY_MIN_MS = 1000;
+    private static final long RETRY_MAX_MS = 60000;
+    private static final long STABLE_RUN_MS = 30000;
+    private static final DateTimeFormatter LAUNCH_ID_FORMAT =
+        DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneOffset.UTC);
+
+    private final String id = UUID.randomUUID().toString().substring(0, 8);
+    private final Type type;
+    private final String target;
+    private final long createdAt = System.currentTimeMillis();
+    private volatile Status status = Status.PENDING;
+    private volatile String location;
+    private volatile String error;
+
+    private String inputUrl;
+    private ScheduledExecutorService scheduler;
+    private Runnable failureListener;
+    private Process process;
+    private long launchedAt;
+    private long retryDelayMillis = RETRY_MIN_MS;
+    private boolean stopped;
+
+    /**
+     * @param target RTMP转推为目标URL，录制为输出目录
+     */
+    public StreamOutput(Type type, String target) {
+        this.type = type;
+        this.target = target;
+    }
+
+    /**
+     * 读取进程的FFmpeg命令：从直播边缘的分段开始读取主播放列表，音视频原样复制到目标；
+     * 录制每次启动写一个新文件，避免覆盖之前的内容
+     */
+    List<String> buildCommand(String inputUrl, String launchId) {
+        List<String> command = new ArrayList<>(List.of(
+            "ffmpeg", "-nostdin", "-nostats", "-loglevel", "error",
+            "-live_start_index", "-1",              // 从最新分段开始，不回放整个窗口
+            "-i", inputUrl,
+            "-map", "0:v",
+            "-map", "0:a?",                         // 只推视频的流没有音频轨
+            "-c", "copy"));
+        if (type == Type.RTMP) {
+            location = target;
+            command.addAll(List.of("-f", "flv", location));
+        } else {
+            location = Path.of(target, id + "-" + launchId + ".mp4").toString();
+            command.addAll(List.of(
+                "-f", "mp4",
+                "-movflags", "+frag_keyframe+empty_moov+default_base_moof", // 中断时已写内容仍可播放
+                location));
+        }
+        return command;
+    }
+
+    /**
+     * 启动读取进程，进程退出后按退避重新启动，直到stop()
+     *
+     * @param inputUrl        本路HLS主播放列表的地址或路径
+     * @param failureListener 每次读取进程异常退出时调用
+     */
+    synchronized void start(String inputUrl, ScheduledExecutorService scheduler, Runnable failureListener) {
+        this.inputUrl = inputUrl;
+        this.scheduler = scheduler;
+        this.failureListener = failureListener;
+        launch();
+    }
+
+    /**
+     * 停止读取进程；录制文件为分片MP4，正常结束时写完当前分片
+     */
+    synchronized void stop() {
+        stopped = true;
+        if (process != null && process.isAlive()) {
+            process.destroy();
+        }
+    }
+
+    private synchronized void launch() {
+        if (stopped) {
+            return;
+        }
+        List<String> command = buildCommand(inputUrl, LAUNCH_ID_FORMAT.format(Instant.now()));
+        try {
+            Process started = new ProcessBuilder(command).redirectErrorStream(true).start();
+            process = started;
+            launchedAt = System.currentTimeMillis();
+            markActive();
+            Thread follower = new Thread(() -> follow(started), "stream-output-" + id);
+            follower.setDaemon(true);
+            follower.start();
+        } catch (IOException e) {
+            failed(e.getMessage());
+        }
+    }
+
+    /**
+     * 读取进程日志直到退出，保留最后一行作为失败原因
+     */
+    private void follow(Process started) {
+        String lastLine = null;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(started.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lastLine = line;
+            }
+        } catch (IOException e) {
+            // 进程已结束
+        }
+        int exitCode;
+        try {
+            exitCode = started.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        synchronized (this) {
+            if (stopped || process != started) {
+                return;
+            }
+            if (System.currentTimeMillis() - launchedAt >= STABLE_RUN_MS) {
+                retryDelayMillis = RETRY_MIN_MS;
+            }
+            if (exitCode == 0) {
+                // 读到播放列表结束：主编码正在重启，稍后重连
+                status = Status.PENDING;
+                scheduleLaunch(RETRY_MIN_MS);
+            } else {
+                failed("FFmpeg退出码 " + exitCode + (lastLine != null ? ": " + lastLine : ""));
+            }
+        }
+    }
+
+    private void failed(String reason) {
+        markFailed(reason);
+        logger.warning("附加输出失败，" + retryDelayMillis + "ms后重连: " + type + " " + location + " - " + reason);
+        if (failureListener != null) {
+            failureListener.run();
+        }
+        scheduleLaunch(retryDelayMillis);
+        retryDelayMillis = Math.min(retryDelayMillis * 2, RETRY_MAX_MS);
+    }
+
+    private void scheduleLaunch(long delayMillis) {
+        try {
+            scheduler.schedule(this::launch, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // 转码服务已停止
+        }
+    }
+
+    void markActive() {
+        status = Status.ACTIVE;
+        error = null;
+    }
+
+    void markFailed(String reason) {
+        status = Status.FAILED;
+        error = reason;
+    }
+
+    public String getId() { return id; }
+    public Type getType() { return type; }
+    public String getTarget() { return target; }
+    public long getCreatedAt() { return createdAt; }
+    public Status getStatus() { return status; }
+    public String getLocation() { return location; }
+    public String getError() { return error; }
+
+    /**
+     * 输出类型
+     */
+    public enum Type {
+        RTMP,
+        RECORDING
+    }
+
+    /**
+     * 输出状态：PENDING为读取进程尚未启动或等待重连，FAILED为上次运行失败、等待退避后重连
+     */
+    public enum Status {
+        PENDING,
+        ACTIVE,
+        FAILED
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.transcoder;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 缩略图缓存
+ * 保存每路流最新的关键帧缩略图和滚动预览图（雪碧图），按总字节数限制容量，
+ * 超出时淘汰最久未访问的图片
+ */
+public class ThumbnailCache {
+    public static final String THUMBNAIL = "thumb.jpg";
+    public static final String SPRITE = "sprite.jpg";
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, Image> images = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes;
+    private long evictionCount;
+
+    public ThumbnailCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 是否为缩略图文件名
+     */
+    public static boolean isImage(String fileName) {
+        return THUMBNAIL.equals(fileName) || SPRITE.equals(fileName);
+    }
+
+    /**
+     * 保存图片（FFmpeg每个间隔覆盖一次）
+     */
+    public synchronized void put(String streamKey, String fileName, byte[] data) {
+        Image previous = images.put(key(streamKey, fileName), new Image(data, System.currentTimeMillis()));
+        totalBytes += data.length - (previous != null ? previous.data.length : 0);
+
+        Iterator<Map.Entry<String, Image>> eldest = images.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Image evicted = eldest.next().getValue();
+            eldest.remove();
+            totalBytes -= evicted.data.length;
+            evictionCount++;
+        }
+    }
+
+    /**
+     * 读取图片，不存在时返回null
+     */
+    public synchronized Image get(String streamKey, String fileName) {
+        return images.get(key(streamKey, fileName));
+    }
+
+    /**
+     * 删除某个流的全部图片
+     */
+    public synchronized void removeStream(String streamKey) {
+        for (String fileName : new String[] {THUMBNAIL, SPRITE}) {
+            Image removed = images.remove(key(streamKey, fileName));
+            if (removed != null) {
+                totalBytes -= removed.data.length;
+            }
+        }
+    }
+
+    public synchronized long getTotalBytes() { return totalBytes; }
+    public synchronized long getEvictionCount() { return evictionCount; }
+    public synchronized int getImageCount() { return images.size(); }
+    public long getMaxBytes() { return maxBytes; }
+
+    private static String key(String streamKey, String fileName) {
+        return streamKey + "/" + fileName;
+    }
+
+    /**
+     * 缓存的图片
+     */
+    public static class Image {
+        private final byte[] data;
+        private final long updatedAt;
+        private final String etag;
+
+        Image(byte[] data, long updatedAt) {
+            this.data = data;
+            this.updatedAt = updatedAt;
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            this.etag = "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(data.length) + "\"";
+        }
+
+        public byte[] getData() { return data; }
+        public long getUpdatedAt() { return updatedAt; }
+        public String getEtag() { return etag; }
+    }
+}
@@ -0,0 +1,472 @@
+package com.example.transcoder;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * 直播转码容量基准测试
+ * 每路输入由一个FFmpeg把测试源按实时速度循环输出FLV，经本地HTTP-FLV中继（{@link FlvRelay}）提供给TranscoderManager拉流转码。
+ * 中继接受任意多个读者和重连：启动转码前的音轨探测、转码进程崩溃后的重连都各占一个连接，
+ * 每级的inputs列给出期间打开的输入连接数，正常为每路新流2个（探测与转码各一个），多出的是重连
+ * 对每个编码档位逐级增加并发路数，记录首个分段耗时（TTFS）、各路速度、CPU与内存，
+ * 给出每个档位能保持实时的最大路数
+ *
+ * 用法: java -cp classes com.example.transcoder.TranscoderBenchmark [源文件] [--profiles FULL,FAST]
+ *       [--max-streams N] [--step N] [--measure-seconds S] [--cpus-per-stream N]
+ * 不指定源文件时先用lavfi生成一段1080p30测试视频；推流只做-c copy，推流进程本身几乎不占CPU
+ */
+public class TranscoderBenchmark {
+
+    // 平滑速度在输入实时的情况下围绕1.0波动，低于该值视为跟不上
+    private static final double REALTIME_SPEED = 0.97;
+    private static final int RELAY_PORT = 19350;
+    private static final long PUBLISHER_STARTUP_MS = 1000;
+    private static final long FIRST_SEGMENT_TIMEOUT_MS = 30000;
+    private static final int SOURCE_SECONDS = 60;
+
+    public static void main(String[] args) throws Exception {
+        Path source = null;
+        List<EncodingProfile> profiles = List.of(EncodingProfile.values());
+        int maxStreams = Runtime.getRuntime().availableProcessors() * 2;
+        int step = 1;
+        int measureSeconds = 30;
+        int cpusPerStream = TranscoderMain.DEFAULT_CPUS_PER_STREAM;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--profiles":
+                    profiles = new ArrayList<>();
+                    for (String name : args[++i].split(",")) {
+                        profiles.add(EncodingProfile.valueOf(name.trim().toUpperCase(Locale.ROOT)));
+                    }
+                    break;
+                case "--max-streams":
+                    maxStreams = Integer.parseInt(args[++i]);
+                    break;
+                case "--step":
+                    step = Integer.parseInt(args[++i]);
+                    break;
+                case "--measure-seconds":
+                    measureSeconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--cpus-per-stream":
+                    cpusPerStream = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    source = Paths.get(args[i]);
+            }
+        }
+
+        Path workDir = Files.createTempDirectory("transcoder-benchmark");
+        try {
+            if (source == null) {
+                source = VodTranscodeBenchmark.generateSource(workDir, SOURCE_SECONDS);
+            }
+            System.out.printf(Locale.ROOT, "源文件: %s，最多 %d 路，步长 %d，每级测量 %ds，每路绑定 %s%n",
+                source, maxStreams, step, measureSeconds, cpusPerStream > 0 ? cpusPerStream + " 核" : "不绑定");
+
+            Map<EncodingProfile, Integer> summary = new LinkedHashMap<>();
+            for (EncodingProfile profile : profiles) {
+                System.out.printf(Locale.ROOT, "%n档位 %s（preset %s%s）%n", profile, profile.getPreset(),
+                    profile.getMaxHeight() > 0 ? "，最高 " + profile.getMaxHeight() + "p" : "");
+                System.out.printf(Locale.ROOT, "%-8s %-12s %-12s %-12s %-10s %-10s %-10s %-10s%n",
+                    "streams", "ttfs(s)", "min speed", "avg speed", "cpu", "rss(MB)", "inputs", "realtime");
+                Path outputDir = Files.createDirectories(workDir.resolve("out-" + profile));
+                summary.put(profile, ramp(source, outputDir, profile, maxStreams, step, measureSeconds, cpusPerStream));
+            }
+
+            System.out.printf(Locale.ROOT, "%n最大实时路数%n");
+            summary.forEach((profile, streams) -> System.out.printf(Locale.ROOT, "  %-8s %d%n", profile, streams));
+        } finally {
+            try (Stream<Path> paths = Files.walk(workDir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * 逐级增加路数，已启动的流保持运行，直到某一级跟不上实时
+     *
+     * @return 能保持实时的最大路数
+     */
+    private static int ramp(Path source, Path outputDir, EncodingProfile profile, int maxStreams, int step,
+                            int measureSeconds, int cpusPerStream) throws IOException, InterruptedException {
+        TranscoderManager manager = new TranscoderManager(outputDir.toString(), "rtmp://127.0.0.1");
+        manager.setInitialProfile(profile);
+        if (cpusPerStream > 0) {
+            manager.enableCpuAffinity(cpusPerStream);
+        }
+        FlvRelay relay = new FlvRelay(RELAY_PORT);
+        List<Process> publishers = new ArrayList<>();
+        List<String> streamKeys = new ArrayList<>();
+        int realtimeStreams = 0;
+        try {
+            for (int streams = step; streams <= maxStreams; streams += step) {
+                int first = streamKeys.size();
+                for (int i = first; i < streams; i++) {
+                    String streamKey = "bench" + i;
+                    publishers.add(relay.publish(source, streamKey));
+                    streamKeys.add(streamKey);
+                }
+                Thread.sleep(PUBLISHER_STARTUP_MS);
+                long connectionsBefore = relay.getConnections();
+
+                // TTFS：从启动转码到第一个媒体播放列表出现
+                List<Long> started = new ArrayList<>();
+                for (int i = first; i < streams; i++) {
+                    started.add(System.nanoTime());
+                    manager.startTranscoding(streamKeys.get(i), relay.url(streamKeys.get(i)), null);
+                }
+                double ttfs = awaitFirstSegments(outputDir, streamKeys.subList(first, streams), started);
+
+                Level level = ttfs < 0 ? null : measure(manager, streamKeys, measureSeconds);
+                boolean realtime = level != null && level.realtime;
+                System.out.printf(Locale.ROOT, "%-8d %-12s %-12s %-12s %-10s %-10s %-10d %-10s%n",
+                    streams,
+                    ttfs < 0 ? "timeout" : String.format(Locale.ROOT, "%.2f", ttfs),
+                    level == null ? "-" : String.format(Locale.ROOT, "%.3fx", level.minSpeed),
+                    level == null ? "-" : String.format(Locale.ROOT, "%.3fx", level.avgSpeed),
+                    level == null ? "-" : String.format(Locale.ROOT, "%.2f", level.cpuCores),
+                    level == null ? "-" : String.valueOf(level.rssBytes / (1024 * 1024)),
+                    relay.getConnections() - connectionsBefore,
+                    realtime ? "yes" : "no");
+                if (!realtime) {
+                    break;
+                }
+                realtimeStreams = streams;
+            }
+        } finally {
+            manager.stopAllTranscoders();
+            for (Process publisher : publishers) {
+                publisher.destroyForcibly();
+            }
+            relay.close();
+        }
+        return realtimeStreams;
+    }
+
+    /**
+     * 等待新启动的各路写出第一个视频播放列表
+     *
+     * @return 平均TTFS（秒），有任一路超时返回-1
+     */
+    private static double awaitFirstSegments(Path outputDir, List<String> streamKeys, List<Long> started)
+            throws InterruptedException {
+        double total = 0;
+        long deadline = System.nanoTime() + FIRST_SEGMENT_TIMEOUT_MS * 1_000_000L;
+        for (int i = 0; i < streamKeys.size(); i++) {
+            Path playlist = outputDir.resolve(streamKeys.get(i)).resolve(TranscoderService.VIDEO_PLAYLIST);
+            while (!Files.exists(playlist)) {
+                if (System.nanoTime() > deadline) {
+                    return -1;
+                }
+                Thread.sleep(50);
+            }
+            total += (System.nanoTime() - started.get(i)) / 1e9;
+        }
+        return total / streamKeys.size();
+    }
+
+    /**
+     * 在测量窗口内每秒采样各路速度，CPU与内存取窗口末尾的进程采样
+     * 码率等级切换会重启FFmpeg，新进程报告进度前速度为0，这些采样不计入平均
+     */
+    private static Level measure(TranscoderManager manager, List<String> streamKeys, int measureSeconds)
+            throws InterruptedException {
+        double[] speedSums = new double[streamKeys.size()];
+        int[] speedSamples = new int[streamKeys.size()];
+        long[] restartsBefore = new long[streamKeys.size()];
+        for (int i = 0; i < streamKeys.size(); i++) {
+            TranscoderService transcoder = manager.getTranscoder(streamKeys.get(i));
+            restartsBefore[i] = transcoder != null ? transcoder.getMetrics().getRestarts() : 0;
+        }
+
+        for (int second = 0; second < measureSeconds; second++) {
+            Thread.sleep(1000);
+            for (int i = 0; i < streamKeys.size(); i++) {
+                TranscoderService transcoder = manager.getTranscoder(streamKeys.get(i));
+                double speed = transcoder != null ? transcoder.getMetrics().getSpeed() : 0;
+                if (speed > 0) {
+                    speedSums[i] += speed;
+                    speedSamples[i]++;
+                }
+            }
+        }
+
+        Level level = new Level();
+        level.minSpeed = Double.MAX_VALUE;
+        level.realtime = true;
+        for (int i = 0; i < streamKeys.size(); i++) {
+            TranscoderService transcoder = manager.getTranscoder(streamKeys.get(i));
+            double speed = speedSamples[i] > 0 ? speedSums[i] / speedSamples[i] : 0;
+            level.minSpeed = Math.min(level.minSpeed, speed);
+            level.avgSpeed += speed / streamKeys.size();
+            if (transcoder == null || transcoder.getState() != TranscoderService.State.RUNNING
+                    || transcoder.getMetrics().getRestarts() != restartsBefore[i]) {
+                level.realtime = false;
+                continue;
+            }
+            level.cpuCores += transcoder.getMetrics().getCpuCores();
+            level.rssBytes += transcoder.getMetrics().getRssBytes();
+        }
+        level.realtime &= level.minSpeed >= REALTIME_SPEED;
+        return level;
+    }
+
+    /**
+     * 一级并发的测量结果
+     */
+    private static class Level {
+        double minSpeed;
+        double avgSpeed;
+        double cpuCores;
+        long rssBytes;
+        boolean realtime;
+    }
+
+    /**
+     * 本地HTTP-FLV中继
+     * 推流FFmpeg把测试源按实时速度以FLV写到标准输出，中继按标签拆开后分发给任意多个读者：
+     * 新读者先收到FLV头、元数据和音视频序列头，再从下一个视频关键帧开始接收。
+     * 读者断开或重连不影响推流进程，也不影响其他读者
+     */
+    static class FlvRelay {
+        // 读者积压超过约十秒的标签时断开它，避免拖住推流
+        private static final int MAX_QUEUED_TAGS = 1024;
+        private static final long HEADER_TIMEOUT_MS = 10000;
+        private static final byte[] END = new byte[0];
+
+        private final int port;
+        private final HttpServer server;
+        private final ExecutorService executor;
+        private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+        private final AtomicLong connections = new AtomicLong();
+
+        FlvRelay(int port) throws IOException {
+            this.port = port;
+            this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            // 每个读者占一个线程直到断开
+            this.executor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "flv-relay");
+                thread.setDaemon(true);
+                return thread;
+            });
+            server.createContext("/live/", this::handle);
+            server.setExecutor(executor);
+            server.start();
+        }
+
+        String url(String streamKey) {
+            return "http://127.0.0.1:" + port + "/live/" + streamKey + ".flv";
+        }
+
+        /**
+         * 启动推流进程：按原始速度循环读取源文件，只做-c copy
+         */
+        Process publish(Path source, String streamKey) throws IOException {
+            return publish(streamKey, List.of(
+                "ffmpeg", "-nostdin", "-nostats", "-loglevel", "error",
+                "-re",
+                "-stream_loop", "-1",
+                "-i", source.toString(),
+                "-c", "copy",
+                "-f", "flv",
+                "pipe:1"));
+        }
+
+        /**
+         * 中继任意向标准输出写FLV的进程
+         */
+        Process publish(String streamKey, List<String> command) throws IOException {
+            Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+            Channel channel = new Channel();
+            channels.put(streamKey, channel);
+            Thread pump = new Thread(() -> channel.pump(process.getInputStream()), "flv-relay-" + streamKey);
+            pump.setDaemon(true);
+            pump.start();
+            return process;
+        }
+
+        /**
+         * 累计接受的读者连接数
+         */
+        long getConnections() {
+            return connections.get();
+        }
+
+        void close() {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            String name = exchange.getRequestURI().getPath().substring("/live/".length());
+            Channel channel = channels.get(name.endsWith(".flv") ? name.substring(0, name.length() - 4) : name);
+            if (channel == null) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            connections.incrementAndGet();
+            Reader reader = null;
+            try {
+                reader = channel.subscribe();
+                exchange.getResponseHeaders().set("Content-Type", "video/x-flv");
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = exchange.getResponseBody();
+                for (byte[] chunk : reader.initial) {
+                    out.write(chunk);
+                }
+                out.flush();
+                for (byte[] tag = reader.queue.take(); tag != END; tag = reader.queue.take()) {
+                    out.write(tag);
+                    if (reader.queue.isEmpty()) {
+                        out.flush();
+                    }
+                }
+            } catch (IOException e) {
+                // 读者断开，如探测结束或转码进程退出
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (reader != null) {
+                    channel.unsubscribe(reader);
+                }
+                exchange.close();
+            }
+        }
+
+        /**
+         * 一路推流：记录新读者需要的开头部分，并把后续标签分发给各读者
+         */
+        private static class Channel {
+            private byte[] header;
+            // 按标签类型保存最新的元数据（18）、视频（9）和音频（8）序列头
+            private final Map<Integer, byte[]> initTags = new LinkedHashMap<>();
+            private final List<Reader> readers = new ArrayList<>();
+            private boolean ended;
+
+            void pump(InputStream in) {
+                try (DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+                    // 9字节FLV头加第一个PreviousTagSize
+                    byte[] head = new byte[13];
+                    data.readFully(head);
+                    synchronized (this) {
+                        header = head;
+                        notifyAll();
+                    }
+                    byte[] tagHeader = new byte[11];
+                    while (true) {
+                        data.readFully(tagHeader);
+                        int size = (tagHeader[1] & 0xFF) << 16 | (tagHeader[2] & 0xFF) << 8 | (tagHeader[3] & 0xFF);
+                        byte[] tag = new byte[11 + size + 4];
+                        System.arraycopy(tagHeader, 0, tag, 0, 11);
+                        data.readFully(tag, 11, size + 4);
+                        dispatch(tag, size);
+                    }
+                } catch (IOException e) {
+                    // 推流进程退出
+                }
+                synchronized (this) {
+                    ended = true;
+                    notifyAll();
+                    for (Reader reader : readers) {
+                        reader.end();
+                    }
+                    readers.clear();
+                }
+            }
+
+            private synchronized void dispatch(byte[] tag, int size) {
+                int type = tag[0] & 0x1F;
+                int flags = size > 0 ? tag[11] & 0xFF : 0;
+                // AVC视频与AAC音频的第二个字节为0时是序列头（解码器配置）
+                boolean sequenceHeader = size > 1 && tag[12] == 0
+                    && (type == 9 && (flags & 0x0F) == 7 || type == 8 && flags >> 4 == 10);
+                if (type == 18 || sequenceHeader) {
+                    initTags.put(type, tag);
+                }
+                boolean keyframe = type == 9 && flags >> 4 == 1 && !sequenceHeader;
+                for (Iterator<Reader> it = readers.iterator(); it.hasNext(); ) {
+                    Reader reader = it.next();
+                    reader.started |= keyframe;
+                    if (!reader.started) {
+                        continue;
+                    }
+                    if (reader.queue.size() >= MAX_QUEUED_TAGS) {
+                        reader.end();
+                        it.remove();
+                    } else {
+                        reader.queue.offer(tag);
+                    }
+                }
+            }
+
+            synchronized Reader subscribe() throws IOException, InterruptedException {
+                long deadline = System.currentTimeMillis() + HEADER_TIMEOUT_MS;
+                while (header == null && !ended) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw new IOException("publisher sent no FLV header");
+                    }
+                    TimeUnit.MILLISECONDS.timedWait(this, remaining);
+                }
+                if (ended) {
+                    throw new IOException("publisher exited");
+                }
+                List<byte[]> initial = new ArrayList<>();
+                initial.add(header);
+                initial.addAll(initTags.values());
+                Reader reader = new Reader(initial);
+                readers.add(reader);
+                return reader;
+            }
+
+            synchronized void unsubscribe(Reader reader) {
+                readers.remove(reader);
+            }
+        }
+
+        private static class Reader {
+            private final List<byte[]> initial;
+            private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>(MAX_QUEUED_TAGS + 1);
+            private boolean started;
+
+            Reader(List<byte[]> initial) {
+                this.initial = initial;
+            }
+
+            /**
+             * 结束读者；分发时队列最多放MAX_QUEUED_TAGS个标签，总为END留有位置
+             */
+            void end() {
+                queue.offer(END);
+            }
+        }
+    }
+}
@@ -2,8 +2,14 @@ package com.example.transcoder;
 
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.logging.Logger;
 import java.util.logging.Level;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -20,22 +26,84 @@ public class TranscoderMain {
     private static final int DEFAULT_PORT = 8081;
     private static final String DEFAULT_OUTPUT_DIR = "/app/hls";
     private static final String DEFAULT_RTMP_URL = "rtmp://rtmp-server:1935/live";
+    private static final int DEFAULT_INGEST_PORT = 8082;
+    private static final int DEFAULT_SEGMENT_STORE_MB = 256;
+    private static final String DEFAULT_VOD_DIR = "/app/vod";
+    private static final String DEFAULT_VOD_HEIGHTS = "720,480";
+    static final int DEFAULT_CPUS_PER_STREAM = 2;
+    private static final int THUMBNAIL_CACHE_MB = 64;
+    // 缩略图随分段更新，缓存时长不超过一个分段
+    private static final int THUMBNAIL_MAX_AGE_SECONDS = 5;
+    private static final int MAX_WAIT_SECONDS = 30;
     
     private final TranscoderManager transcoderManager;
     private final int port;
+    private final SegmentStore segmentStore;
+    private final SegmentIngestServer ingestServer;
+    private final ThumbnailCache thumbnailCache;
+    private final ExecutorService requestExecutor;
+    private final ControlJobs controlJobs;
     private HttpServer server;
     private ScheduledExecutorService scheduler;
     
     public TranscoderMain(int port, String outputDir, String rtmpBaseUrl) {
+        this(port, outputDir, rtmpBaseUrl, 0, 0, true, false, null, 1, 0);
+    }
+    
+    /**
+     * @param ingestPort       分段接收端口，为0时FFmpeg直接写磁盘
+     * @param segmentStoreMb   内存分段存储容量（MB）
+     * @param writeThrough     是否将分段写穿到输出目录
+     * @param adaptiveEncoding 是否按负载自动调整编码档位
+     * @param vodDir           直播录制归档目录，为null时不录制
+     * @param vodWorkers       录制转码同时运行的编码进程数
+     * @param cpusPerStream    每路转码绑定的核心数，为0时不绑定
+     */
+    public TranscoderMain(int port, String outputDir, String rtmpBaseUrl,
+                          int ingestPort, int segmentStoreMb, boolean writeThrough, boolean adaptiveEncoding,
+                          String vodDir, int vodWorkers, int cpusPerStream) {
         this.port = port;
-        this.transcoderManager = new TranscoderManager(outputDir, rtmpBaseUrl);
+        if (ingestPort > 0) {
+            this.segmentStore = new SegmentStore(segmentStoreMb * 1024L * 1024L,
+                writeThrough ? Paths.get(outputDir) : null);
+            this.ingestServer = new SegmentIngestServer(ingestPort, segmentStore);
+            this.transcoderManager = new TranscoderManager(outputDir, rtmpBaseUrl,
+                segmentStore, ingestServer.getIngestBaseUrl());
+            this.ingestServer.setUploadObserver(transcoderManager::recordSegmentUpload);
+        } else {
+            this.segmentStore = null;
+            this.ingestServer = null;
+            this.transcoderManager = new TranscoderManager(outputDir, rtmpBaseUrl);
+        }
+        if (cpusPerStream > 0) {
+            this.transcoderManager.enableCpuAffinity(cpusPerStream);
+        }
+        if (adaptiveEncoding) {
+            this.transcoderManager.enableAdaptiveEncoding();
+        }
+        if (vodDir != null) {
+            this.transcoderManager.enableVodArchive(Paths.get(vodDir), vodWorkers);
+        }
+        this.thumbnailCache = new ThumbnailCache(THUMBNAIL_CACHE_MB * 1024L * 1024L);
+        this.transcoderManager.setThumbnailCache(thumbnailCache);
+        if (ingestServer != null) {
+            this.ingestServer.setThumbnailCache(thumbnailCache);
+        }
         this.scheduler = Executors.newScheduledThreadPool(2);
+        // 控制请求与启停任务共用，停止转码时的进程等待不会阻塞其他请求
+        this.requestExecutor = ControlJobs.newRequestExecutor();
+        this.controlJobs = new ControlJobs(requestExecutor);
     }
     
     /**
      * 启动转码服务
      */
     public void start() throws IOException {
+        // 先启动分段接收服务，FFmpeg启动后立即会上传播放列表
+        if (ingestServer != null) {
+            ingestServer.start();
+        }
+        
         // 创建HTTP服务器
         server = HttpServer.create(new InetSocketAddress(port), 0);
         
@@ -43,24 +111,46 @@ public class TranscoderMain {
         server.createContext("/start", this::handleStart);
         server.createContext("/stop", this::handleStop);
         server.createContext("/status", this::handleStatus);
+        server.createContext("/jobs", this::handleJobs);
+        server.createContext("/thumbnail", this::handleThumbnail);
+        server.createContext("/vod/transcode", this::handleVodTranscode);
+        server.createContext("/outputs", this::handleOutputs);
         server.createContext("/health", this::handleHealth);
+        server.createContext("/metrics", this::handleMetrics);
+        if (ingestServer != null) {
+            // 内存分段存储的只读访问，Web API从这里读取播放列表与分段；写入只在回环地址上接收
+            server.createContext(SegmentIngestServer.CONTEXT_PATH, ingestServer::handleRead);
+        }
         
         // 启动服务器
-        server.setExecutor(null);
+        server.setExecutor(requestExecutor);
         server.start();
         
         logger.info("转码服务已启动，监听端口: " + port);
         logger.info("API端点:");
-        logger.info("  POST /start?streamKey=<key>  - 启动转码");
-        logger.info("  POST /stop?streamKey=<key>   - 停止转码");
+        logger.info("  POST /start?streamKey=<key>[&audio=1|0] - 启动转码（异步任务），给出audio时不探测输入");
+        logger.info("  POST /stop?streamKey=<key>   - 停止转码（异步任务）");
+        logger.info("  GET  /jobs?id=<jobId>        - 查询任务，wait=<秒>等待结束");
         logger.info("  GET  /status?streamKey=<key> - 查询状态");
+        logger.info("  GET  /thumbnail?streamKey=<key>[&type=sprite] - 缩略图/预览图");
+        logger.info("  POST /vod/transcode?streamKey=<key>&session=<id>[&heights=720,480] - 录制分块并行转码（异步任务）");
+        logger.info("  GET  /outputs?streamKey=<key> - 附加输出列表");
+        logger.info("  POST /outputs?streamKey=<key>&type=rtmp&url=<rtmp地址> | type=recording - 添加转推/录制");
+        logger.info("  DELETE /outputs?streamKey=<key>&id=<outputId> - 移除附加输出");
         logger.info("  GET  /health                 - 健康检查");
+        logger.info("  GET  /metrics                - Prometheus指标");
+        if (ingestServer != null) {
+            logger.info("  GET  /hls/{streamKey}/{file}  - 从内存分段存储读取播放列表与分段（只读）");
+            logger.info("分段接收: " + ingestServer.getIngestBaseUrl() + "{streamKey}/{file} (PUT/DELETE/GET)"
+                + (segmentStore.isWriteThrough() ? "，写穿磁盘" : ""));
+        }
         
         // 启动定期清理任务
         scheduler.scheduleAtFixedRate(
             transcoderManager::cleanupInactiveTranscoders,
             30, 30, TimeUnit.SECONDS
         );
+        scheduler.scheduleAtFixedRate(controlJobs::expireFinished, 60, 60, TimeUnit.SECONDS);
         
         // 添加关闭钩子
         Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
@@ -81,19 +171,15 @@ public class TranscoderMain {
             return;
         }
         
+        // 可选：调用方已知推流是否带音频时传入audio=1/0，省去启动前对输入的探测
+        String audio = getQueryParameter(exchange, "audio");
+        Boolean hasAudio = audio == null || audio.isEmpty() ? null : "1".equals(audio) || "true".equalsIgnoreCase(audio);
+        
         logger.info("收到启动转码请求: " + streamKey);
         
-        boolean success = transcoderManager.startTranscoding(streamKey);
-        if (success) {
-            TranscoderManager.TranscoderStatus status = transcoderManager.getTranscoderStatus(streamKey);
-            String response = String.format(
-                "{\"success\": true, \"message\": \"转码已启动\", \"streamKey\": \"%s\", \"playlistUrl\": \"%s\"}",
-                streamKey, status.getPlaylistUrl()
-            );
-            sendResponse(exchange, 200, response);
-        } else {
-            sendResponse(exchange, 500, "{\"success\": false, \"message\": \"转码启动失败\"}");
-        }
+        ControlJobs.Job job = controlJobs.submit(ControlJobs.Type.START, streamKey,
+            () -> transcoderManager.startTranscoding(streamKey, hasAudio));
+        sendJobAccepted(exchange, job);
     }
     
     /**
@@ -113,14 +199,214 @@ public class TranscoderMain {
         
         logger.info("收到停止转码请求: " + streamKey);
         
-        boolean success = transcoderManager.stopTranscoding(streamKey);
-        if (success) {
-            sendResponse(exchange, 200, "{\"success\": true, \"message\": \"转码已停止\"}");
-        } else {
-            sendResponse(exchange, 404, "{\"success\": false, \"message\": \"转码服务不存在\"}");
+        ControlJobs.Job job = controlJobs.submit(ControlJobs.Type.STOP, streamKey,
+            () -> transcoderManager.stopTranscoding(streamKey));
+        sendJobAccepted(exchange, job);
+    }
+    
+    /**
+     * 处理录制转码请求：把已归档的一次直播转成指定高度的各档MP4
+     */
+    private void handleVodTranscode(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            sendResponse(exchange, 405, "Method Not Allowed");
+            return;
+        }
+        if (transcoderManager.getVodPackager() == null) {
+            sendResponse(exchange, 409, "{\"success\": false, \"message\": \"未启用直播录制\"}");
+            return;
+        }
+        
+        String streamKey = getQueryParameter(exchange, "streamKey");
+        String session = getQueryParameter(exchange, "session");
+        if (streamKey == null || streamKey.trim().isEmpty() || session == null || session.trim().isEmpty()) {
+            sendResponse(exchange, 400, "Missing streamKey or session parameter");
+            return;
+        }
+        
+        List<Integer> heights = new ArrayList<>();
+        String heightsParam = getQueryParameter(exchange, "heights");
+        try {
+            for (String height : (heightsParam != null ? heightsParam : DEFAULT_VOD_HEIGHTS).split(",")) {
+                heights.add(Integer.parseInt(height.trim()));
+            }
+        } catch (NumberFormatException e) {
+            sendResponse(exchange, 400, "Invalid heights parameter");
+            return;
+        }
+        
+        logger.info("收到录制转码请求: " + streamKey + "/" + session + " " + heights);
+        
+        // 按录制排队，不占用该流启停任务的队列
+        ControlJobs.Job job = controlJobs.submit(ControlJobs.Type.VOD_TRANSCODE, streamKey + "/" + session,
+            () -> transcoderManager.transcodeRecording(streamKey, session, heights));
+        sendJobAccepted(exchange, job);
+    }
+    
+    /**
+     * 处理附加输出请求：从HLS输出流复制的RTMP转推和MP4录制
+     * 添加后读取进程异步启动、从下一个分段开始输出，所以返回202
+     */
+    private void handleOutputs(HttpExchange exchange) throws IOException {
+        String streamKey = getQueryParameter(exchange, "streamKey");
+        if (streamKey == null || streamKey.trim().isEmpty()) {
+            sendResponse(exchange, 400, "Missing streamKey parameter");
+            return;
+        }
+        
+        switch (exchange.getRequestMethod()) {
+            case "GET": {
+                StringBuilder response = new StringBuilder("{\"streamKey\": \"").append(jsonEscape(streamKey)).append("\", \"outputs\": [");
+                boolean first = true;
+                for (StreamOutput output : transcoderManager.getOutputs(streamKey)) {
+                    if (!first) response.append(", ");
+                    response.append(outputJson(output));
+                    first = false;
+                }
+                response.append("]}");
+                sendResponse(exchange, 200, response.toString());
+                break;
+            }
+            case "POST": {
+                StreamOutput.Type type;
+                try {
+                    type = StreamOutput.Type.valueOf(String.valueOf(getQueryParameter(exchange, "type")).toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    sendResponse(exchange, 400, "Invalid type parameter, expected rtmp or recording");
+                    return;
+                }
+                StreamOutput output = transcoderManager.addOutput(streamKey, type, getQueryParameter(exchange, "url"));
+                if (output == null) {
+                    sendResponse(exchange, 409, "{\"success\": false, \"message\": \"流未在转码、转推地址无效或未启用直播录制\"}");
+                    return;
+                }
+                sendResponse(exchange, 202, outputJson(output));
+                break;
+            }
+            case "DELETE": {
+                String outputId = getQueryParameter(exchange, "id");
+                if (outputId == null || outputId.trim().isEmpty()) {
+                    sendResponse(exchange, 400, "Missing id parameter");
+                    return;
+                }
+                if (!transcoderManager.removeOutput(streamKey, outputId)) {
+                    sendResponse(exchange, 404, "{\"success\": false, \"message\": \"输出不存在\"}");
+                    return;
+                }
+                sendResponse(exchange, 202, "{\"success\": true}");
+                break;
+            }
+            default:
+                sendResponse(exchange, 405, "Method Not Allowed");
         }
     }
     
+    private String outputJson(StreamOutput output) {
+        StringBuilder json = new StringBuilder(String.format(
+            "{\"id\": \"%s\", \"type\": \"%s\", \"target\": \"%s\", \"status\": \"%s\", \"createdAt\": %d",
+            output.getId(), output.getType(), jsonEscape(output.getTarget()), output.getStatus(), output.getCreatedAt()
+        ));
+        if (output.getLocation() != null) {
+            json.append(String.format(", \"location\": \"%s\"", jsonEscape(output.getLocation())));
+        }
+        if (output.getError() != null) {
+            json.append(String.format(", \"error\": \"%s\"", jsonEscape(output.getError())));
+        }
+        return json.append('}').toString();
+    }
+    
+    /**
+     * 转义JSON字符串值中的引号、反斜杠和控制字符；流名称等来自请求，不能原样写入
+     */
+    private static String jsonEscape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+    
+    /**
+     * 返回已受理的任务；带wait参数时先等待任务结束，结束则直接返回结果
+     */
+    private void sendJobAccepted(HttpExchange exchange, ControlJobs.Job job) throws IOException {
+        awaitIfRequested(exchange, job);
+        if (!job.isDone()) {
+            exchange.getResponseHeaders().set("Location", "/jobs?id=" + job.getId());
+        }
+        sendResponse(exchange, job.isDone() ? 200 : 202, jobJson(job));
+    }
+    
+    /**
+     * 处理任务查询请求
+     */
+    private void handleJobs(HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            sendResponse(exchange, 405, "Method Not Allowed");
+            return;
+        }
+        
+        String jobId = getQueryParameter(exchange, "id");
+        if (jobId == null || jobId.trim().isEmpty()) {
+            sendResponse(exchange, 400, "Missing id parameter");
+            return;
+        }
+        
+        ControlJobs.Job job = controlJobs.get(jobId);
+        if (job == null) {
+            sendResponse(exchange, 404, "{\"success\": false, \"message\": \"任务不存在或已过期\"}");
+            return;
+        }
+        awaitIfRequested(exchange, job);
+        sendResponse(exchange, 200, jobJson(job));
+    }
+    
+    private void awaitIfRequested(HttpExchange exchange, ControlJobs.Job job) throws IOException {
+        String wait = getQueryParameter(exchange, "wait");
+        if (wait == null) {
+            return;
+        }
+        try {
+            long seconds = Math.min(MAX_WAIT_SECONDS, Math.max(0, Long.parseLong(wait)));
+            job.await(seconds, TimeUnit.SECONDS);
+        } catch (NumberFormatException e) {
+            // 忽略无效的等待时长
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待任务时被中断");
+        }
+    }
+    
+    /**
+     * 任务JSON，启动成功的任务附带播放地址
+     */
+    private String jobJson(ControlJobs.Job job) {
+        StringBuilder json = new StringBuilder(String.format(
+            "{\"jobId\": \"%s\", \"type\": \"%s\", \"streamKey\": \"%s\", \"status\": \"%s\", \"success\": %s, \"createdAt\": %d",
+            job.getId(), job.getType(), jsonEscape(job.getStreamKey()), job.getStatus(),
+            job.getStatus() == ControlJobs.Status.SUCCEEDED, job.getCreatedAt()
+        ));
+        if (job.isDone()) {
+            json.append(String.format(", \"finishedAt\": %d, \"message\": \"%s\"",
+                job.getFinishedAt(), jsonEscape(job.getMessage())));
+        }
+        if (job.getType() == ControlJobs.Type.START && job.getStatus() == ControlJobs.Status.SUCCEEDED) {
+            TranscoderManager.TranscoderStatus status = transcoderManager.getTranscoderStatus(job.getStreamKey());
+            if (status.getPlaylistUrl() != null) {
+                json.append(String.format(", \"playlistUrl\": \"%s\", \"manifestUrl\": \"%s\"",
+                    jsonEscape(status.getPlaylistUrl()), jsonEscape(status.getManifestUrl())));
+            }
+        }
+        return json.append('}').toString();
+    }
+    
     /**
      * 处理状态查询请求
      */
@@ -133,29 +419,73 @@ public class TranscoderMain {
         String streamKey = getQueryParameter(exchange, "streamKey");
         if (streamKey == null || streamKey.trim().isEmpty()) {
             // 返回所有转码状态
-            String[] activeKeys = transcoderManager.getActiveStreamKeys();
             StringBuilder response = new StringBuilder("{\"activeTranscoders\": [");
-            for (int i = 0; i < activeKeys.length; i++) {
-                if (i > 0) response.append(", ");
-                TranscoderManager.TranscoderStatus status = transcoderManager.getTranscoderStatus(activeKeys[i]);
-                response.append(String.format(
-                    "{\"streamKey\": \"%s\", \"isRunning\": %s, \"playlistUrl\": \"%s\"}",
-                    status.getStreamKey(), status.isRunning(), status.getPlaylistUrl()
-                ));
+            boolean first = true;
+            for (TranscoderManager.TranscoderStatus status : transcoderManager.getAllTranscoderStatus()) {
+                if (!first) response.append(", ");
+                response.append(statusJson(status));
+                first = false;
             }
             response.append("]}");
             sendResponse(exchange, 200, response.toString());
         } else {
             // 返回特定流的状态
             TranscoderManager.TranscoderStatus status = transcoderManager.getTranscoderStatus(streamKey);
-            String response = String.format(
-                "{\"streamKey\": \"%s\", \"isRunning\": %s, \"playlistUrl\": \"%s\"}",
-                status.getStreamKey(), status.isRunning(), status.getPlaylistUrl()
-            );
-            sendResponse(exchange, 200, response);
+            sendResponse(exchange, 200, statusJson(status));
         }
     }
     
+    /**
+     * 处理缩略图请求：type=thumb为最新缩略图，type=sprite为最近一分钟的预览图
+     */
+    private void handleThumbnail(HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            sendResponse(exchange, 405, "Method Not Allowed");
+            return;
+        }
+        
+        String streamKey = getQueryParameter(exchange, "streamKey");
+        if (streamKey == null || streamKey.trim().isEmpty()) {
+            sendResponse(exchange, 400, "Missing streamKey parameter");
+            return;
+        }
+        String type = getQueryParameter(exchange, "type");
+        String fileName = "sprite".equals(type) ? ThumbnailCache.SPRITE : ThumbnailCache.THUMBNAIL;
+        
+        ThumbnailCache.Image image = thumbnailCache.get(streamKey, fileName);
+        if (image == null) {
+            sendResponse(exchange, 404, "{\"success\": false, \"message\": \"缩略图尚未生成\"}");
+            return;
+        }
+        
+        exchange.getResponseHeaders().set("ETag", image.getEtag());
+        exchange.getResponseHeaders().set("Cache-Control", "public, max-age=" + THUMBNAIL_MAX_AGE_SECONDS);
+        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+        if (image.getEtag().equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "image/jpeg");
+        exchange.sendResponseHeaders(200, image.getData().length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(image.getData());
+        }
+    }
+    
+    /**
+     * 转码状态JSON
+     */
+    private String statusJson(TranscoderManager.TranscoderStatus status) {
+        // 快照只在状态变化时生成，速度取当前值
+        return String.format(Locale.ROOT,
+            "{\"streamKey\": \"%s\", \"isRunning\": %s, \"state\": \"%s\", \"playlistUrl\": \"%s\", \"manifestUrl\": \"%s\", \"restartCount\": %d, \"downtimeMs\": %d, \"speed\": %.3f}",
+            jsonEscape(status.getStreamKey()), status.isRunning(), status.getState(),
+            jsonEscape(String.valueOf(status.getPlaylistUrl())), jsonEscape(String.valueOf(status.getManifestUrl())),
+            status.getRestartCount(), status.getDowntimeMillis(), transcoderManager.getSpeed(status.getStreamKey())
+        );
+    }
+    
     /**
      * 处理健康检查请求
      */
@@ -166,22 +496,99 @@ public class TranscoderMain {
         }
         
         int activeCount = transcoderManager.getActiveTranscoderCount();
-        String response = String.format(
-            "{\"status\": \"UP\", \"activeTranscoders\": %d}",
-            activeCount
-        );
+        String response;
+        if (segmentStore != null) {
+            response = String.format(
+                "{\"status\": \"UP\", \"activeTranscoders\": %d, \"segmentStore\": {\"entries\": %d, \"bytes\": %d, \"maxBytes\": %d, \"evictions\": %d}}",
+                activeCount, segmentStore.getEntryCount(), segmentStore.getTotalBytes(),
+                segmentStore.getMaxBytes(), segmentStore.getEvictionCount()
+            );
+        } else {
+            response = String.format(
+                "{\"status\": \"UP\", \"activeTranscoders\": %d}",
+                activeCount
+            );
+        }
         sendResponse(exchange, 200, response);
     }
     
+    /**
+     * 处理Prometheus指标请求
+     */
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            sendResponse(exchange, 405, "Method Not Allowed");
+            return;
+        }
+        
+        StringBuilder response = new StringBuilder(4096);
+        TranscoderMetrics.writePrometheus(response, transcoderManager.getAllMetrics());
+        
+        response.append("# HELP transcoder_active_streams Running transcoders\n");
+        response.append("# TYPE transcoder_active_streams gauge\n");
+        TranscoderMetrics.sample(response, "transcoder_active_streams", null, transcoderManager.getActiveTranscoderCount());
+        response.append("# HELP transcoder_crash_loops_total Streams abandoned after repeated FFmpeg crashes\n");
+        response.append("# TYPE transcoder_crash_loops_total counter\n");
+        TranscoderMetrics.sample(response, "transcoder_crash_loops_total", null, transcoderManager.getCrashLoopCount());
+        AdaptiveEncodingController adaptiveEncoding = transcoderManager.getAdaptiveEncoding();
+        CpuAllocator cpuAllocator = transcoderManager.getCpuAllocator();
+        if (cpuAllocator != null) {
+            response.append("# HELP transcoder_cpu_pool_cores Cores available to transcoders after cgroup quota and cpuset\n");
+            response.append("# TYPE transcoder_cpu_pool_cores gauge\n");
+            TranscoderMetrics.sample(response, "transcoder_cpu_pool_cores", null, cpuAllocator.getPoolSize());
+            response.append("# HELP transcoder_cpu_slots CPU sets handed out to transcoders\n");
+            response.append("# TYPE transcoder_cpu_slots gauge\n");
+            TranscoderMetrics.sample(response, "transcoder_cpu_slots", null, cpuAllocator.getSlotCount());
+        }
+        if (adaptiveEncoding != null) {
+            response.append("# HELP transcoder_node_cpu_load Node CPU load seen by the adaptive encoding controller\n");
+            response.append("# TYPE transcoder_node_cpu_load gauge\n");
+            TranscoderMetrics.sample(response, "transcoder_node_cpu_load", null, adaptiveEncoding.getCpuLoad());
+        }
+        response.append("# HELP transcoder_thumbnail_cache_bytes Bytes held by the thumbnail cache\n");
+        response.append("# TYPE transcoder_thumbnail_cache_bytes gauge\n");
+        TranscoderMetrics.sample(response, "transcoder_thumbnail_cache_bytes", null, thumbnailCache.getTotalBytes());
+        response.append("# HELP transcoder_thumbnail_cache_evictions_total Images evicted from the thumbnail cache\n");
+        response.append("# TYPE transcoder_thumbnail_cache_evictions_total counter\n");
+        TranscoderMetrics.sample(response, "transcoder_thumbnail_cache_evictions_total", null, thumbnailCache.getEvictionCount());
+        if (segmentStore != null) {
+            response.append("# HELP transcoder_segment_store_bytes Bytes held by the in-memory segment store\n");
+            response.append("# TYPE transcoder_segment_store_bytes gauge\n");
+            TranscoderMetrics.sample(response, "transcoder_segment_store_bytes", null, segmentStore.getTotalBytes());
+            response.append("# HELP transcoder_segment_store_evictions_total Segments evicted from the in-memory store\n");
+            response.append("# TYPE transcoder_segment_store_evictions_total counter\n");
+            TranscoderMetrics.sample(response, "transcoder_segment_store_evictions_total", null, segmentStore.getEvictionCount());
+        }
+        VodPackager vodPackager = transcoderManager.getVodPackager();
+        if (vodPackager != null) {
+            response.append("# HELP transcoder_vod_jobs_pending Recordings waiting to be packaged\n");
+            response.append("# TYPE transcoder_vod_jobs_pending gauge\n");
+            TranscoderMetrics.sample(response, "transcoder_vod_jobs_pending", null, vodPackager.getPendingJobs());
+            response.append("# HELP transcoder_vod_jobs_completed_total Recordings packaged into MP4\n");
+            response.append("# TYPE transcoder_vod_jobs_completed_total counter\n");
+            TranscoderMetrics.sample(response, "transcoder_vod_jobs_completed_total", null, vodPackager.getCompletedJobs());
+            response.append("# HELP transcoder_vod_jobs_failed_total Recording packaging jobs that failed\n");
+            response.append("# TYPE transcoder_vod_jobs_failed_total counter\n");
+            TranscoderMetrics.sample(response, "transcoder_vod_jobs_failed_total", null, vodPackager.getFailedJobs());
+        }
+        
+        sendResponse(exchange, 200, response.toString(), "text/plain; version=0.0.4; charset=utf-8");
+    }
+    
     /**
      * 发送HTTP响应
      */
     private void sendResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
-        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        sendResponse(exchange, statusCode, response, "application/json");
+    }
+    
+    private void sendResponse(HttpExchange exchange, int statusCode, String response, String contentType) throws IOException {
+        byte[] body = response.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
         exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
-        exchange.sendResponseHeaders(statusCode, response.getBytes().length);
+        exchange.sendResponseHeaders(statusCode, body.length);
         try (OutputStream os = exchange.getResponseBody()) {
-            os.write(response.getBytes());
+            os.write(body);
         }
     }
     
@@ -189,11 +596,12 @@ public class TranscoderMain {
      * 获取查询参数
      */
     private String getQueryParameter(HttpExchange exchange, String paramName) {
-        String query = exchange.getRequestURI().getQuery();
+        // 取未解码的查询串，参数值（如转推地址）中编码过的&和=不会被当作分隔符
+        String query = exchange.getRequestURI().getRawQuery();
         if (query == null) return null;
         
         for (String param : query.split("&")) {
-            String[] pair = param.split("=");
+            String[] pair = param.split("=", 2);
             if (pair.length == 2 && paramName.equals(pair[0])) {
                 try {
                     return URLDecoder.decode(pair[1], "UTF-8");
@@ -222,6 +630,12 @@ public class TranscoderMain {
         if (server != null) {
             server.stop(5);
         }
+        requestExecutor.shutdown();
+        
+        if (ingestServer != null) {
+            ingestServer.stop();
+            segmentStore.shutdown();
+        }
         
         logger.info("转码服务已关闭");
     }
@@ -235,6 +649,14 @@ public class TranscoderMain {
             int port = DEFAULT_PORT;
             String outputDir = DEFAULT_OUTPUT_DIR;
             String rtmpUrl = DEFAULT_RTMP_URL;
+            int ingestPort = DEFAULT_INGEST_PORT;
+            int segmentStoreMb = DEFAULT_SEGMENT_STORE_MB;
+            boolean writeThrough = true;
+            boolean adaptiveEncoding = true;
+            boolean vodArchive = false;
+            String vodDir = DEFAULT_VOD_DIR;
+            int vodWorkers = Runtime.getRuntime().availableProcessors();
+            int cpusPerStream = DEFAULT_CPUS_PER_STREAM;
             
             for (int i = 0; i < args.length; i++) {
                 switch (args[i]) {
@@ -253,11 +675,52 @@ public class TranscoderMain {
                             rtmpUrl = args[++i];
                         }
                         break;
+                    case "--ingest-port":
+                        if (i + 1 < args.length) {
+                            ingestPort = Integer.parseInt(args[++i]);
+                        }
+                        break;
+                    case "--segment-store-mb":
+                        if (i + 1 < args.length) {
+                            segmentStoreMb = Integer.parseInt(args[++i]);
+                        }
+                        break;
+                    case "--write-through":
+                        if (i + 1 < args.length) {
+                            writeThrough = Boolean.parseBoolean(args[++i]);
+                        }
+                        break;
+                    case "--adaptive-encoding":
+                        if (i + 1 < args.length) {
+                            adaptiveEncoding = Boolean.parseBoolean(args[++i]);
+                        }
+                        break;
+                    case "--vod-archive":
+                        if (i + 1 < args.length) {
+                            vodArchive = Boolean.parseBoolean(args[++i]);
+                        }
+                        break;
+                    case "--vod-dir":
+                        if (i + 1 < args.length) {
+                            vodDir = args[++i];
+                        }
+                        break;
+                    case "--vod-workers":
+                        if (i + 1 < args.length) {
+                            vodWorkers = Integer.parseInt(args[++i]);
+                        }
+                        break;
+                    case "--cpus-per-stream":
+                        if (i + 1 < args.length) {
+                            cpusPerStream = Integer.parseInt(args[++i]);
+                        }
+                        break;
                 }
             }
             
             // 启动转码服务
-            TranscoderMain main = new TranscoderMain(port, outputDir, rtmpUrl);
+            TranscoderMain main = new TranscoderMain(port, outputDir, rtmpUrl, ingestPort, segmentStoreMb, writeThrough,
+                adaptiveEncoding, vodArchive ? vodDir : null, vodWorkers, cpusPerStream);
             main.start();
             
             // 保持运行
@@ -2,9 +2,21 @@ package com.example.transcoder;
 
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 import java.util.logging.Level;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
 
 /**
  * 转码管理器
@@ -13,39 +25,309 @@ import java.nio.file.Paths;
 public class TranscoderManager {
     private static final Logger logger = Logger.getLogger(TranscoderManager.class.getName());
     
+    // 重启退避与崩溃循环判定参数
+    private static final long INITIAL_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 30000;
+    private static final long STABLE_RUN_MS = 60000;     // 运行超过该时长后重置退避
+    private static final int CRASH_LOOP_THRESHOLD = 5;   // 窗口内崩溃次数达到该值即放弃
+    private static final long CRASH_LOOP_WINDOW_MS = 120000;
+    private static final long PROCESS_SAMPLE_INTERVAL_MS = 5000;
+    private static final String RECORDINGS_DIR = "recordings"; // 附加录制输出，与按场次归档的目录并列
+    
     private final ConcurrentMap<String, TranscoderService> activeTranscoders = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, RestartTracker> restartTrackers = new ConcurrentHashMap<>();
+    // 每次推流的轨道布局只探测一次：放弃重启后重新启动的同一推流沿用，停止转码（推流结束）时清除
+    private final ConcurrentMap<String, Boolean> trackLayouts = new ConcurrentHashMap<>();
+    // 状态快照在启动、退出、重启、停止时更新，查询不触及进程
+    private final ConcurrentMap<String, TranscoderStatus> statusSnapshots = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService supervisor = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicLong crashLoops = new AtomicLong();
     private final String baseOutputDir;
     private final String rtmpBaseUrl;
+    private final SegmentStore segmentStore;
+    private final String ingestBaseUrl;
+    private volatile AdaptiveEncodingController adaptiveEncoding;
+    private volatile ThumbnailCache thumbnailCache;
+    private final OutputDirectoryWatcher outputWatcher;
+    private volatile VodPackager vodPackager;
+    private volatile VodTranscoder vodTranscoder;
+    private volatile CpuAllocator cpuAllocator;
+    private volatile EncodingProfile initialProfile = EncodingProfile.FULL;
     
     public TranscoderManager(String baseOutputDir, String rtmpBaseUrl) {
+        this(baseOutputDir, rtmpBaseUrl, null, null);
+    }
+    
+    /**
+     * @param segmentStore  内存分段存储，为null时FFmpeg直接写磁盘
+     * @param ingestBaseUrl 分段接收服务的基础URL
+     */
+    public TranscoderManager(String baseOutputDir, String rtmpBaseUrl, SegmentStore segmentStore, String ingestBaseUrl) {
         this.baseOutputDir = baseOutputDir;
         this.rtmpBaseUrl = rtmpBaseUrl;
+        this.segmentStore = segmentStore;
+        this.ingestBaseUrl = ingestBaseUrl;
+        
+        if (segmentStore != null) {
+            segmentStore.addListener((streamKey, fileName, data) -> {
+                TranscoderService transcoder = activeTranscoders.get(streamKey);
+                if (transcoder != null) {
+                    transcoder.onFileStored(fileName);
+                }
+            });
+        }
+        this.outputWatcher = segmentStore == null ? createOutputWatcher() : null;
+        supervisor.scheduleWithFixedDelay(this::sampleProcesses, PROCESS_SAMPLE_INTERVAL_MS,
+            PROCESS_SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+    
+    private static OutputDirectoryWatcher createOutputWatcher() {
+        try {
+            return new OutputDirectoryWatcher();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "无法监听输出目录，改为定时轮询", e);
+            return null;
+        }
+    }
+    
+    /**
+     * 设置缩略图缓存，之后启动的转码会把预览图写入该缓存
+     */
+    public void setThumbnailCache(ThumbnailCache thumbnailCache) {
+        this.thumbnailCache = thumbnailCache;
+    }
+    
+    /**
+     * 启用自适应编码档位：定期按转码速度与节点CPU调整各路编码档位
+     */
+    public void enableAdaptiveEncoding() {
+        AdaptiveEncodingController controller = new AdaptiveEncodingController();
+        adaptiveEncoding = controller;
+        supervisor.scheduleWithFixedDelay(() -> {
+            try {
+                controller.evaluate(new ArrayList<>(activeTranscoders.values()));
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "评估编码档位时出错", e);
+            }
+        }, AdaptiveEncodingController.EVALUATION_INTERVAL_MS, AdaptiveEncodingController.EVALUATION_INTERVAL_MS,
+            TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * 启用CPU绑定：之后启动的转码各自绑定一组核心，FFmpeg线程数与核心数一致
+     *
+     * @param cpusPerStream 每路转码的核心数
+     */
+    public void enableCpuAffinity(int cpusPerStream) {
+        cpuAllocator = CpuAllocator.detect(cpusPerStream);
+    }
+    
+    /**
+     * 获取CPU分配器，未启用CPU绑定时返回null
+     */
+    public CpuAllocator getCpuAllocator() {
+        return cpuAllocator;
+    }
+    
+    private void sampleProcesses() {
+        for (TranscoderService transcoder : activeTranscoders.values()) {
+            transcoder.sampleProcess();
+        }
+    }
+    
+    /**
+     * 设置之后启动的转码使用的初始编码档位
+     */
+    public void setInitialProfile(EncodingProfile initialProfile) {
+        this.initialProfile = initialProfile;
+    }
+    
+    /**
+     * 启用直播录制：之后启动的转码保留全部分段，停止时归档到vodDir并以低优先级打包成MP4
+     * HTTP输出模式下分段只在写穿目录中落盘，未开启写穿时无法归档
+     *
+     * @param vodWorkers 录制转码同时运行的编码进程数
+     */
+    public boolean enableVodArchive(Path vodDir, int vodWorkers) {
+        if (segmentStore != null && !segmentStore.isWriteThrough()) {
+            logger.warning("未开启写穿磁盘，无法归档直播录制");
+            return false;
+        }
+        vodPackager = new VodPackager(vodDir);
+        // 每个编码进程单线程，总并行度由工作线程数决定；以最低优先级运行，让出直播转码
+        vodTranscoder = new VodTranscoder(vodWorkers, 1, VodTranscoder.DEFAULT_CHUNK_SECONDS, true);
+        logger.info("直播录制归档目录: " + vodDir + "，录制转码并行数: " + vodWorkers);
+        return true;
+    }
+    
+    /**
+     * 把一次已归档的直播录制转成指定高度的各档MP4，输出到归档目录
+     * 优先使用打包好的MP4，尚未打包时直接读取VOD播放列表
+     */
+    public boolean transcodeRecording(String streamKey, String sessionId, List<Integer> heights) {
+        VodPackager packager = vodPackager;
+        if (packager == null || heights.isEmpty()) {
+            return false;
+        }
+        Path archiveDir = packager.archiveDirFor(streamKey, sessionId).normalize();
+        if (!archiveDir.startsWith(packager.getVodDir().normalize()) || !Files.isDirectory(archiveDir)) {
+            logger.warning("录制不存在: " + streamKey + "/" + sessionId);
+            return false;
+        }
+        Path source = archiveDir.resolve(VodPackager.RECORDING_NAME);
+        if (!Files.exists(source)) {
+            source = archiveDir.resolve(TranscoderService.MASTER_PLAYLIST);
+        }
+        
+        List<VodTranscoder.Rendition> renditions = new ArrayList<>();
+        for (int height : heights) {
+            renditions.add(VodTranscoder.Rendition.forHeight(height));
+        }
+        try {
+            vodTranscoder.transcode(source, archiveDir, renditions);
+            return true;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "录制转码失败: " + streamKey + "/" + sessionId, e);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
+    /**
+     * 为正在转码的流添加附加输出，从HLS输出流复制，不重启编码
+     * 录制写到录制归档目录下该流的子目录，需要启用直播录制
+     *
+     * @return 新的输出，流未在转码或目标无效时返回null
+     */
+    public StreamOutput addOutput(String streamKey, StreamOutput.Type type, String url) {
+        TranscoderService transcoder = activeTranscoders.get(streamKey);
+        if (transcoder == null || !transcoder.isRunning()) {
+            return null;
+        }
+        String target;
+        if (type == StreamOutput.Type.RECORDING) {
+            VodPackager packager = vodPackager;
+            if (packager == null) {
+                logger.warning("未启用直播录制，无法添加录制输出: " + streamKey);
+                return null;
+            }
+            Path recordingDir = packager.getVodDir().resolve(streamKey).resolve(RECORDINGS_DIR);
+            try {
+                Files.createDirectories(recordingDir);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "创建录制目录失败: " + recordingDir, e);
+                return null;
+            }
+            target = recordingDir.toString();
+        } else {
+            if (url == null || !(url.startsWith("rtmp://") || url.startsWith("rtmps://"))) {
+                logger.warning("无效的转推地址: " + streamKey + " " + url);
+                return null;
+            }
+            target = url;
+        }
+        StreamOutput output = transcoder.addOutput(type, target);
+        logger.info("添加附加输出: " + streamKey + " " + type + " " + output.getId());
+        return output;
+    }
+    
+    /**
+     * 移除附加输出
+     */
+    public boolean removeOutput(String streamKey, String outputId) {
+        TranscoderService transcoder = activeTranscoders.get(streamKey);
+        if (transcoder == null || !transcoder.removeOutput(outputId)) {
+            return false;
+        }
+        logger.info("移除附加输出: " + streamKey + " " + outputId);
+        return true;
+    }
+    
+    /**
+     * 获取流的附加输出，流未在转码时返回空列表
+     */
+    public List<StreamOutput> getOutputs(String streamKey) {
+        TranscoderService transcoder = activeTranscoders.get(streamKey);
+        return transcoder != null ? transcoder.getOutputs() : List.of();
+    }
+    
+    /**
+     * 获取VOD打包器，未启用录制时返回null
+     */
+    public VodPackager getVodPackager() {
+        return vodPackager;
+    }
+    
+    /**
+     * 获取自适应编码控制器，未启用时返回null
+     */
+    public AdaptiveEncodingController getAdaptiveEncoding() {
+        return adaptiveEncoding;
     }
     
     /**
      * 启动转码服务
      */
     public boolean startTranscoding(String streamKey) {
+        return startTranscoding(streamKey, null);
+    }
+    
+    /**
+     * 启动转码服务
+     *
+     * @param hasAudio 调用方已知的轨道布局（如推流事件中的音频信息），为null时探测输入
+     */
+    public boolean startTranscoding(String streamKey, Boolean hasAudio) {
+        return startTranscoding(streamKey, rtmpBaseUrl + "/" + streamKey, hasAudio);
+    }
+    
+    /**
+     * 从指定输入地址启动转码服务
+     */
+    public boolean startTranscoding(String streamKey, String inputUrl, Boolean hasAudio) {
+        if (hasAudio != null) {
+            trackLayouts.put(streamKey, hasAudio);
+        }
         if (activeTranscoders.containsKey(streamKey)) {
             logger.warning("转码服务已存在: " + streamKey);
             return false;
         }
         
         try {
-            // 构建输入和输出路径
-            String inputUrl = rtmpBaseUrl + "/" + streamKey;
+            // 构建输出路径
             String outputDir = Paths.get(baseOutputDir, streamKey).toString();
             
             // 创建转码服务
-            TranscoderService transcoder = new TranscoderService(streamKey, inputUrl, outputDir);
+            TranscoderService transcoder = new TranscoderService(streamKey, inputUrl, outputDir, segmentStore, ingestBaseUrl);
+            transcoder.setExitListener(this::onUnexpectedExit);
+            transcoder.setThumbnailCache(thumbnailCache);
+            transcoder.setOutputWatcher(outputWatcher);
+            transcoder.setVodPackager(vodPackager);
+            transcoder.setInitialProfile(initialProfile);
+            transcoder.setKnownHasAudio(trackLayouts.get(streamKey));
+            if (cpuAllocator != null) {
+                transcoder.setCpuAllocation(cpuAllocator.allocate());
+            }
+            if (activeTranscoders.putIfAbsent(streamKey, transcoder) != null) {
+                releaseCpu(transcoder);
+                logger.warning("转码服务已存在: " + streamKey);
+                return false;
+            }
             
             // 启动转码
             if (transcoder.start()) {
-                activeTranscoders.put(streamKey, transcoder);
+                trackLayouts.put(streamKey, transcoder.hasAudio());
+                restartTrackers.put(streamKey, new RestartTracker());
+                publishStatus(transcoder);
                 logger.info("转码服务启动成功: " + streamKey);
                 return true;
             } else {
                 logger.warning("转码服务启动失败: " + streamKey);
+                activeTranscoders.remove(streamKey, transcoder);
+                transcoder.stop();
+                releaseCpu(transcoder);
                 return false;
             }
             
@@ -55,13 +337,82 @@ public class TranscoderManager {
         }
     }
     
+    /**
+     * FFmpeg进程意外退出：按指数退避安排重启，频繁崩溃时放弃并回收资源
+     */
+    private void onUnexpectedExit(TranscoderService transcoder, int exitCode, long uptimeMillis) {
+        String streamKey = transcoder.getStreamKey();
+        if (activeTranscoders.get(streamKey) != transcoder) {
+            return;
+        }
+        
+        RestartTracker tracker = restartTrackers.computeIfAbsent(streamKey, k -> new RestartTracker());
+        long delay;
+        synchronized (tracker) {
+            long now = System.currentTimeMillis();
+            tracker.crashTimes.addLast(now);
+            while (!tracker.crashTimes.isEmpty() && now - tracker.crashTimes.peekFirst() > CRASH_LOOP_WINDOW_MS) {
+                tracker.crashTimes.removeFirst();
+            }
+            
+            if (tracker.crashTimes.size() >= CRASH_LOOP_THRESHOLD) {
+                logger.severe("转码服务崩溃循环（" + CRASH_LOOP_WINDOW_MS / 1000 + "秒内崩溃"
+                    + tracker.crashTimes.size() + "次），停止重启: " + streamKey);
+                crashLoops.incrementAndGet();
+                transcoder.setState(TranscoderService.State.FAILED);
+                publishStatus(transcoder);
+                supervisor.execute(() -> removeTranscoder(streamKey, transcoder));
+                return;
+            }
+            
+            tracker.consecutiveFailures = uptimeMillis >= STABLE_RUN_MS ? 1 : tracker.consecutiveFailures + 1;
+            delay = Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << Math.min(tracker.consecutiveFailures - 1, 16));
+        }
+        
+        transcoder.setState(TranscoderService.State.RESTARTING);
+        publishStatus(transcoder);
+        logger.info("将在 " + delay + "ms 后重启转码服务: " + streamKey + "（退出码 " + exitCode + "）");
+        supervisor.schedule(() -> {
+            if (activeTranscoders.get(streamKey) != transcoder) {
+                return;
+            }
+            if (transcoder.restart()) {
+                publishStatus(transcoder);
+            } else {
+                // 重启本身失败时按一次崩溃处理，继续退避
+                onUnexpectedExit(transcoder, -1, 0);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+    
+    private void removeTranscoder(String streamKey, TranscoderService transcoder) {
+        if (activeTranscoders.remove(streamKey, transcoder)) {
+            restartTrackers.remove(streamKey);
+            statusSnapshots.remove(streamKey);
+            transcoder.stop();
+            releaseCpu(transcoder);
+        }
+    }
+    
+    private void releaseCpu(TranscoderService transcoder) {
+        if (cpuAllocator != null) {
+            cpuAllocator.release(transcoder.getCpuAllocation());
+            transcoder.setCpuAllocation(null);
+        }
+    }
+    
     /**
      * 停止转码服务
      */
     public boolean stopTranscoding(String streamKey) {
+        // 下次推流可能换了轨道布局
+        trackLayouts.remove(streamKey);
         TranscoderService transcoder = activeTranscoders.remove(streamKey);
         if (transcoder != null) {
+            restartTrackers.remove(streamKey);
+            statusSnapshots.remove(streamKey);
             transcoder.stop();
+            releaseCpu(transcoder);
             logger.info("转码服务已停止: " + streamKey);
             return true;
         } else {
@@ -110,41 +461,105 @@ public class TranscoderManager {
         }
         
         activeTranscoders.clear();
+        supervisor.shutdownNow();
+        if (outputWatcher != null) {
+            outputWatcher.close();
+        }
+        if (vodPackager != null) {
+            vodPackager.shutdown();
+            vodTranscoder.shutdown();
+        }
         logger.info("所有转码服务已停止");
     }
     
     /**
      * 清理无效的转码服务
+     * 崩溃由进程退出事件处理，这里只兜底回收既未运行也不在等待重启的实例
      */
     public void cleanupInactiveTranscoders() {
-        activeTranscoders.entrySet().removeIf(entry -> {
-            String streamKey = entry.getKey();
-            TranscoderService transcoder = entry.getValue();
-            
-            if (!transcoder.isRunning()) {
+        activeTranscoders.forEach((streamKey, transcoder) -> {
+            if (!transcoder.isRunning() && transcoder.getState() != TranscoderService.State.RESTARTING) {
                 logger.info("清理无效转码服务: " + streamKey);
-                transcoder.stop();
-                return true;
+                removeTranscoder(streamKey, transcoder);
             }
-            return false;
         });
     }
     
     /**
-     * 获取转码状态信息
+     * 获取因崩溃循环而放弃的次数
      */
-    public TranscoderStatus getTranscoderStatus(String streamKey) {
+    public long getCrashLoopCount() {
+        return crashLoops.get();
+    }
+    
+    /**
+     * 记录分段上传耗时（仅统计视频分段）
+     */
+    public void recordSegmentUpload(String streamKey, String fileName, double seconds) {
         TranscoderService transcoder = activeTranscoders.get(streamKey);
-        if (transcoder == null) {
-            return new TranscoderStatus(streamKey, false, null, null);
+        if (transcoder != null && fileName.startsWith("seg_0_")) {
+            transcoder.getMetrics().recordSegmentUpload(seconds);
         }
-        
-        return new TranscoderStatus(
+    }
+    
+    /**
+     * 获取所有活跃转码的运行指标
+     */
+    public List<TranscoderMetrics> getAllMetrics() {
+        List<TranscoderMetrics> metrics = new ArrayList<>();
+        for (TranscoderService transcoder : activeTranscoders.values()) {
+            metrics.add(transcoder.getMetrics());
+        }
+        return metrics;
+    }
+    
+    /**
+     * 当前转码速度（相对实时的倍数），未在转码时为0
+     */
+    public double getSpeed(String streamKey) {
+        TranscoderService transcoder = activeTranscoders.get(streamKey);
+        return transcoder != null ? transcoder.getMetrics().getSpeed() : 0;
+    }
+    
+    /**
+     * 获取转码状态信息（最近一次状态变化时的快照）
+     */
+    public TranscoderStatus getTranscoderStatus(String streamKey) {
+        TranscoderStatus status = statusSnapshots.get(streamKey);
+        if (status == null) {
+            return new TranscoderStatus(streamKey, false, null, null, null, null, 0, 0);
+        }
+        return status;
+    }
+    
+    /**
+     * 获取所有转码的状态快照
+     */
+    public Collection<TranscoderStatus> getAllTranscoderStatus() {
+        return new ArrayList<>(statusSnapshots.values());
+    }
+    
+    /**
+     * 生成并发布状态快照
+     */
+    private void publishStatus(TranscoderService transcoder) {
+        String streamKey = transcoder.getStreamKey();
+        TranscoderService.State state = transcoder.getState();
+        TranscoderStatus status = new TranscoderStatus(
             streamKey,
-            transcoder.isRunning(),
+            state == TranscoderService.State.RUNNING,
             transcoder.getPlaylistUrl(),
-            transcoder.getOutputDir()
+            transcoder.getManifestUrl(),
+            transcoder.getOutputDir(),
+            state.name(),
+            transcoder.getMetrics().getRestarts(),
+            transcoder.getMetrics().getDowntimeMillis()
         );
+        statusSnapshots.put(streamKey, status);
+        // 与并发的停止竞争时，不保留已移除实例的快照
+        if (activeTranscoders.get(streamKey) != transcoder) {
+            statusSnapshots.remove(streamKey, status);
+        }
     }
     
     /**
@@ -154,24 +569,45 @@ public class TranscoderManager {
         private final String streamKey;
         private final boolean isRunning;
         private final String playlistUrl;
+        private final String manifestUrl;
         private final String outputDir;
+        private final String state;
+        private final long restartCount;
+        private final long downtimeMillis;
         
-        public TranscoderStatus(String streamKey, boolean isRunning, String playlistUrl, String outputDir) {
+        public TranscoderStatus(String streamKey, boolean isRunning, String playlistUrl, String manifestUrl, String outputDir,
+                                String state, long restartCount, long downtimeMillis) {
             this.streamKey = streamKey;
             this.isRunning = isRunning;
             this.playlistUrl = playlistUrl;
+            this.manifestUrl = manifestUrl;
             this.outputDir = outputDir;
+            this.state = state;
+            this.restartCount = restartCount;
+            this.downtimeMillis = downtimeMillis;
         }
         
         public String getStreamKey() { return streamKey; }
         public boolean isRunning() { return isRunning; }
         public String getPlaylistUrl() { return playlistUrl; }
+        public String getManifestUrl() { return manifestUrl; }
         public String getOutputDir() { return outputDir; }
+        public String getState() { return state; }
+        public long getRestartCount() { return restartCount; }
+        public long getDowntimeMillis() { return downtimeMillis; }
         
         @Override
         public String toString() {
-            return String.format("TranscoderStatus{streamKey='%s', isRunning=%s, playlistUrl='%s', outputDir='%s'}", 
-                streamKey, isRunning, playlistUrl, outputDir);
+            return String.format("TranscoderStatus{streamKey='%s', isRunning=%s, playlistUrl='%s', manifestUrl='%s', outputDir='%s', state=%s, restartCount=%d, downtimeMillis=%d}", 
+                streamKey, isRunning, playlistUrl, manifestUrl, outputDir, state, restartCount, downtimeMillis);
         }
     }
+    
+    /**
+     * 单路转码的重启记录
+     */
+    private static class RestartTracker {
+        private final Deque<Long> crashTimes = new ArrayDeque<>();
+        private int consecutiveFailures;
+    }
 }
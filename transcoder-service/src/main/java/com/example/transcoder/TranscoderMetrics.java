@@ -0,0 +1,383 @@
+package com.example.transcoder;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToDoubleFunction;
+import java.util.logging.Logger;
+
+/**
+ * 单路转码的运行指标
+ * 由FFmpeg -progress输出和分段写入事件更新，以Prometheus文本格式导出
+ */
+public class TranscoderMetrics {
+    private static final Logger logger = Logger.getLogger(TranscoderMetrics.class.getName());
+
+    // 速度持续低于实时（1.0x，留出输入抖动余量）超过该时长视为转码跟不上
+    private static final long LAG_ALERT_AFTER_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final double REALTIME_SPEED = 0.97;
+    // 瞬时速度的指数平滑系数
+    private static final double SPEED_SMOOTHING = 0.3;
+
+    private final String streamKey;
+
+    private volatile long frames;
+    private volatile double fps;
+    private volatile double speed;
+    private volatile double averageSpeed;
+    private volatile double bitrateKbps;
+    private volatile long totalSizeBytes;
+    private volatile long outTimeMicros;
+    private volatile long droppedFrames;
+    private volatile long duplicatedFrames;
+    private volatile long lastProgressNanos;
+
+    private final AtomicLong segmentsWritten = new AtomicLong();
+    private volatile double lastSegmentIntervalSeconds;
+    private volatile double lastSegmentUploadSeconds;
+    private long lastSegmentOpenedNanos;
+
+    private final AtomicLong restarts = new AtomicLong();
+    private final AtomicLong downtimeMillis = new AtomicLong();
+    private final AtomicLong switchRestarts = new AtomicLong();
+    private final AtomicLong switchGapMillis = new AtomicLong();
+
+    private volatile int encodingLevel;
+    private volatile int maxrateKbps = ContentComplexity.MEDIUM.getMaxrateKbps();
+    private volatile double lastVideoBitrateKbps;
+    private final AtomicLong videoBytes = new AtomicLong();
+    private final AtomicLong staticLadderBytes = new AtomicLong();
+    private final AtomicLong complexityChanges = new AtomicLong();
+    private final AtomicLong downshifts = new AtomicLong();
+    private final AtomicLong upshifts = new AtomicLong();
+
+    private volatile boolean lagging;
+    private long slowSinceNanos = -1;
+    private final AtomicLong lagEvents = new AtomicLong();
+
+    private final AtomicLong outputFailures = new AtomicLong();
+
+    private volatile int cpuAllotted;
+    private volatile double cpuCores;
+    private volatile double cpuSecondsTotal;
+    private volatile long rssBytes;
+    private long cpuPid = -1;
+    private double lastCpuSeconds;
+    private long lastCpuSampleNanos;
+
+    public TranscoderMetrics(String streamKey) {
+        this.streamKey = streamKey;
+    }
+
+    /**
+     * 记录一组FFmpeg进度数据（以progress=continue/end结束的一个块）
+     */
+    public synchronized void recordProgress(Map<String, String> progress) {
+        long now = System.nanoTime();
+        long previousOutTime = outTimeMicros;
+
+        frames = parseLong(progress.get("frame"), frames);
+        fps = parseDouble(progress.get("fps"), fps);
+        totalSizeBytes = parseLong(progress.get("total_size"), totalSizeBytes);
+        outTimeMicros = parseLong(progress.get("out_time_us"), outTimeMicros);
+        droppedFrames = parseLong(progress.get("drop_frames"), droppedFrames);
+        duplicatedFrames = parseLong(progress.get("dup_frames"), duplicatedFrames);
+        bitrateKbps = parseDouble(stripSuffix(progress.get("bitrate"), "kbits/s"), bitrateKbps);
+        // FFmpeg的speed是自启动以来的平均值，长时间运行后对变慢不敏感
+        averageSpeed = parseDouble(stripSuffix(progress.get("speed"), "x"), averageSpeed);
+
+        if (lastProgressNanos > 0 && now > lastProgressNanos && outTimeMicros >= previousOutTime) {
+            double instant = (outTimeMicros - previousOutTime) * 1000.0 / (now - lastProgressNanos);
+            speed = speed == 0 ? instant : speed + SPEED_SMOOTHING * (instant - speed);
+            updateLag(now);
+        }
+        lastProgressNanos = now;
+    }
+
+    /**
+     * 记录FFmpeg开始写入新分段（两次之间的间隔即单个分段的实际产出耗时）
+     */
+    public synchronized void recordSegmentOpened() {
+        long now = System.nanoTime();
+        if (lastSegmentOpenedNanos > 0) {
+            lastSegmentIntervalSeconds = (now - lastSegmentOpenedNanos) / 1e9;
+        }
+        lastSegmentOpenedNanos = now;
+        segmentsWritten.incrementAndGet();
+    }
+
+    /**
+     * 记录分段通过HTTP PUT上传的耗时
+     */
+    public void recordSegmentUpload(double seconds) {
+        lastSegmentUploadSeconds = seconds;
+    }
+
+    /**
+     * 记录一次自动重启及其中断时长
+     * 新进程的输出时间从0开始，速度统计随之重新开始
+     */
+    public synchronized void recordRestart(long downtime) {
+        restarts.incrementAndGet();
+        downtimeMillis.addAndGet(downtime);
+        resetProgress();
+    }
+
+    /**
+     * 记录一次为切换编码档位或码率上限而重启FFmpeg，及旧进程停止到新进程启动的间隔
+     * 每次都在播放列表中留下一个不连续点
+     */
+    public void recordSwitchRestart(long gapMillis) {
+        switchRestarts.incrementAndGet();
+        switchGapMillis.addAndGet(gapMillis);
+    }
+
+    /**
+     * 记录一次FFmpeg进程CPU时间采样，换成新进程时重新建立基线
+     */
+    public synchronized void recordCpuSample(long pid, double cpuSeconds) {
+        long now = System.nanoTime();
+        if (pid != cpuPid) {
+            cpuPid = pid;
+            cpuSecondsTotal += cpuSeconds;
+        } else {
+            double delta = Math.max(0, cpuSeconds - lastCpuSeconds);
+            double elapsed = (now - lastCpuSampleNanos) / 1e9;
+            cpuSecondsTotal += delta;
+            if (elapsed > 0) {
+                cpuCores = delta / elapsed;
+            }
+        }
+        lastCpuSeconds = cpuSeconds;
+        lastCpuSampleNanos = now;
+    }
+
+    /**
+     * 记录FFmpeg进程的常驻内存
+     */
+    public void recordRss(long bytes) {
+        rssBytes = bytes;
+    }
+
+    /**
+     * 记录分配给该路转码的核心数，0表示未绑定
+     */
+    public void recordCpuAllotted(int cores) {
+        cpuAllotted = cores;
+    }
+
+    /**
+     * 记录一个附加输出（转推/录制）失败
+     */
+    public void recordOutputFailure() {
+        outputFailures.incrementAndGet();
+    }
+
+    /**
+     * 记录一次编码档位调整决策
+     */
+    public void recordProfileDecision(EncodingProfile from, EncodingProfile to) {
+        if (to.getLevel() > from.getLevel()) {
+            downshifts.incrementAndGet();
+        } else {
+            upshifts.incrementAndGet();
+        }
+    }
+
+    /**
+     * 记录新档位已生效（FFmpeg已按新参数重启）
+     */
+    public synchronized void recordProfileApplied(EncodingProfile profile) {
+        encodingLevel = profile.getLevel();
+        resetProgress();
+    }
+
+    /**
+     * 记录一个完成的视频分段及同样时长在固定码率阶梯下的字节数
+     */
+    public void recordVideoSegment(double seconds, long bytes, long staticBytes) {
+        videoBytes.addAndGet(bytes);
+        staticLadderBytes.addAndGet(staticBytes);
+        if (seconds > 0) {
+            lastVideoBitrateKbps = bytes * 8 / 1000.0 / seconds;
+        }
+    }
+
+    /**
+     * 记录一次码率上限调整决策
+     */
+    public void recordComplexityDecision() {
+        complexityChanges.incrementAndGet();
+    }
+
+    /**
+     * 记录新的码率上限已生效
+     */
+    public void recordComplexityApplied(ContentComplexity complexity) {
+        maxrateKbps = complexity.getMaxrateKbps();
+    }
+
+    private void resetProgress() {
+        lastProgressNanos = 0;
+        outTimeMicros = 0;
+        speed = 0;
+        slowSinceNanos = -1;
+        lagging = false;
+    }
+
+    private void updateLag(long now) {
+        if (speed >= REALTIME_SPEED) {
+            slowSinceNanos = -1;
+            if (lagging) {
+                lagging = false;
+                logger.info(String.format(Locale.ROOT, "转码已恢复实时: %s (speed=%.2fx)", streamKey, speed));
+            }
+            return;
+        }
+
+        if (slowSinceNanos < 0) {
+            slowSinceNanos = now;
+        } else if (!lagging && now - slowSinceNanos >= LAG_ALERT_AFTER_NANOS) {
+            lagging = true;
+            lagEvents.incrementAndGet();
+            logger.warning(String.format(Locale.ROOT, "转码速度持续低于实时: %s (speed=%.2fx, fps=%.1f)",
+                streamKey, speed, fps));
+        }
+    }
+
+    public String getStreamKey() { return streamKey; }
+    public long getFrames() { return frames; }
+    public double getFps() { return fps; }
+    public double getSpeed() { return speed; }
+    public double getAverageSpeed() { return averageSpeed; }
+    public double getBitrateKbps() { return bitrateKbps; }
+    public long getTotalSizeBytes() { return totalSizeBytes; }
+    public long getOutTimeMicros() { return outTimeMicros; }
+    public long getDroppedFrames() { return droppedFrames; }
+    public long getDuplicatedFrames() { return duplicatedFrames; }
+    public long getSegmentsWritten() { return segmentsWritten.get(); }
+    public double getLastSegmentIntervalSeconds() { return lastSegmentIntervalSeconds; }
+    public double getLastSegmentUploadSeconds() { return lastSegmentUploadSeconds; }
+    public boolean isLagging() { return lagging; }
+    public long getLagEvents() { return lagEvents.get(); }
+    public long getOutputFailures() { return outputFailures.get(); }
+    public int getCpuAllotted() { return cpuAllotted; }
+    public double getCpuCores() { return cpuCores; }
+    public double getCpuSecondsTotal() { return cpuSecondsTotal; }
+    public long getRssBytes() { return rssBytes; }
+    public long getRestarts() { return restarts.get(); }
+    public long getSwitchRestarts() { return switchRestarts.get(); }
+    public long getSwitchGapMillis() { return switchGapMillis.get(); }
+    public long getDowntimeMillis() { return downtimeMillis.get(); }
+    public int getEncodingLevel() { return encodingLevel; }
+    public long getDownshifts() { return downshifts.get(); }
+    public long getUpshifts() { return upshifts.get(); }
+    public int getMaxrateKbps() { return maxrateKbps; }
+    public double getLastVideoBitrateKbps() { return lastVideoBitrateKbps; }
+    public long getVideoBytes() { return videoBytes.get(); }
+    public long getStaticLadderBytes() { return staticLadderBytes.get(); }
+    public long getComplexityChanges() { return complexityChanges.get(); }
+
+    /**
+     * 相对固定码率阶梯节省的字节数（复杂内容提高上限后可能为负）
+     */
+    public long getBandwidthSavedBytes() {
+        return staticLadderBytes.get() - videoBytes.get();
+    }
+
+    /**
+     * 距离上次收到进度数据的秒数
+     */
+    public double getSecondsSinceProgress() {
+        return lastProgressNanos == 0 ? -1 : (System.nanoTime() - lastProgressNanos) / 1e9;
+    }
+
+    /**
+     * 以Prometheus文本格式（0.0.4）输出所有流的指标
+     */
+    public static void writePrometheus(StringBuilder out, Iterable<TranscoderMetrics> all) {
+        family(out, all, "transcoder_fps", "gauge", "Encoded frames per second", TranscoderMetrics::getFps);
+        family(out, all, "transcoder_speed", "gauge", "Smoothed encoding speed relative to realtime", TranscoderMetrics::getSpeed);
+        family(out, all, "transcoder_average_speed", "gauge", "Encoding speed averaged since FFmpeg start", TranscoderMetrics::getAverageSpeed);
+        family(out, all, "transcoder_output_bitrate_kbps", "gauge", "Output bitrate in kbit/s", TranscoderMetrics::getBitrateKbps);
+        family(out, all, "transcoder_frames_total", "counter", "Encoded frames", m -> m.getFrames());
+        family(out, all, "transcoder_output_bytes_total", "counter", "Bytes written by the muxer", m -> m.getTotalSizeBytes());
+        family(out, all, "transcoder_dropped_frames_total", "counter", "Frames dropped by FFmpeg", m -> m.getDroppedFrames());
+        family(out, all, "transcoder_duplicated_frames_total", "counter", "Frames duplicated by FFmpeg", m -> m.getDuplicatedFrames());
+        family(out, all, "transcoder_segments_total", "counter", "Segments started by the muxer", m -> m.getSegmentsWritten());
+        family(out, all, "transcoder_segment_interval_seconds", "gauge", "Wall time between the last two segments", TranscoderMetrics::getLastSegmentIntervalSeconds);
+        family(out, all, "transcoder_segment_upload_seconds", "gauge", "Duration of the last segment HTTP upload", TranscoderMetrics::getLastSegmentUploadSeconds);
+        family(out, all, "transcoder_realtime_lagging", "gauge", "1 while speed has stayed below 1.0x", m -> m.isLagging() ? 1 : 0);
+        family(out, all, "transcoder_realtime_lag_events_total", "counter", "Times a stream fell below realtime", m -> m.getLagEvents());
+        family(out, all, "transcoder_restarts_total", "counter", "Automatic FFmpeg restarts", m -> m.getRestarts());
+        family(out, all, "transcoder_switch_restarts_total", "counter", "FFmpeg restarts to apply a new encoding profile or maxrate class, each a playlist discontinuity", m -> m.getSwitchRestarts());
+        family(out, all, "transcoder_switch_gap_seconds_total", "counter", "Time between stopping and relaunching FFmpeg for profile or maxrate switches", m -> m.getSwitchGapMillis() / 1000.0);
+        family(out, all, "transcoder_encoding_level", "gauge", "Active encoding profile, 0 is full quality", m -> m.getEncodingLevel());
+        family(out, all, "transcoder_profile_downshifts_total", "counter", "Decisions to move to a cheaper encoding profile", m -> m.getDownshifts());
+        family(out, all, "transcoder_profile_upshifts_total", "counter", "Decisions to move back to a better encoding profile", m -> m.getUpshifts());
+        family(out, all, "transcoder_video_maxrate_kbps", "gauge", "Capped CRF maxrate of the video rendition", m -> m.getMaxrateKbps());
+        family(out, all, "transcoder_video_segment_bitrate_kbps", "gauge", "Actual bitrate of the last video segment", TranscoderMetrics::getLastVideoBitrateKbps);
+        family(out, all, "transcoder_video_bytes_total", "counter", "Bytes of completed video segments", m -> m.getVideoBytes());
+        family(out, all, "transcoder_static_ladder_bytes_total", "counter", "Bytes the same segments would take at the static 1000k ladder", m -> m.getStaticLadderBytes());
+        family(out, all, "transcoder_bandwidth_saved_bytes", "gauge", "Static ladder bytes minus actual video bytes", m -> m.getBandwidthSavedBytes());
+        family(out, all, "transcoder_bitrate_class_changes_total", "counter", "Decisions to change the video maxrate class", m -> m.getComplexityChanges());
+        family(out, all, "transcoder_cpu_cores", "gauge", "CPU cores used by the FFmpeg process over the last sample", TranscoderMetrics::getCpuCores);
+        family(out, all, "transcoder_cpu_seconds_total", "counter", "CPU time consumed by FFmpeg processes of the stream", TranscoderMetrics::getCpuSecondsTotal);
+        family(out, all, "transcoder_rss_bytes", "gauge", "Resident memory of the FFmpeg process", m -> m.getRssBytes());
+        family(out, all, "transcoder_cpu_allotted_cores", "gauge", "Cores the stream is pinned to, 0 when not pinned", m -> m.getCpuAllotted());
+        family(out, all, "transcoder_output_failures_total", "counter", "Restream or recording output processes that exited with an error", m -> m.getOutputFailures());
+        family(out, all, "transcoder_downtime_seconds_total", "counter", "Time between FFmpeg crashes and successful restarts", m -> m.getDowntimeMillis() / 1000.0);
+    }
+
+    private static void family(StringBuilder out, Iterable<TranscoderMetrics> all, String name, String type,
+                               String help, ToDoubleFunction<TranscoderMetrics> value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        for (TranscoderMetrics metrics : all) {
+            sample(out, name, metrics.streamKey, value.applyAsDouble(metrics));
+        }
+    }
+
+    static void sample(StringBuilder out, String name, String streamKey, double value) {
+        out.append(name);
+        if (streamKey != null) {
+            out.append("{stream=\"").append(escapeLabel(streamKey)).append("\"}");
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            out.append((long) value);
+        } else {
+            out.append(String.format(Locale.ROOT, "%.4f", value));
+        }
+        out.append('\n');
+    }
+
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String stripSuffix(String value, String suffix) {
+        if (value == null) return null;
+        value = value.trim();
+        return value.endsWith(suffix) ? value.substring(0, value.length() - suffix.length()) : value;
+    }
+
+    private static long parseLong(String value, long fallback) {
+        if (value == null) return fallback;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return fallback; // FFmpeg在统计不可用时输出N/A
+        }
+    }
+
+    private static double parseDouble(String value, double fallback) {
+        if (value == null) return fallback;
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+}
@@ -1,11 +1,23 @@
 package com.example.transcoder;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
 import java.util.logging.Level;
+import java.util.regex.Pattern;
 
 /**
  * FFmpeg转码服务
@@ -17,23 +29,98 @@ public class TranscoderService {
     private final String inputUrl;
     private final String outputDir;
     private final String streamKey;
+    private final SegmentStore segmentStore;
+    private final String ingestBaseUrl;
     private final AtomicBoolean isRunning = new AtomicBoolean(false);
-    private Process ffmpegProcess;
-    private ExecutorService executorService;
+    private final AtomicBoolean stopRequested = new AtomicBoolean(false);
+    private final TranscoderMetrics metrics;
+    private volatile Process ffmpegProcess;
+    private volatile State state = State.STOPPED;
+    private volatile ExitListener exitListener;
+    private volatile long startedAtMillis;
+    private volatile long downSinceMillis;
+    private volatile int lastExitCode;
+    private volatile EncodingProfile profile = EncodingProfile.FULL;
+    private volatile boolean hasAudio = true;
+    // 调用方已知的轨道布局，为null时启动前探测一次
+    private volatile Boolean knownHasAudio;
+    private volatile ContentComplexity complexity = ContentComplexity.MEDIUM;
+    private final AtomicReference<EncodingProfile> pendingProfile = new AtomicReference<>();
+    private final AtomicReference<ContentComplexity> pendingComplexity = new AtomicReference<>();
+    private final ComplexityEstimator complexityEstimator = new ComplexityEstimator();
+    // 分段统计在接收线程上进行，不能与持有实例锁等待旧进程退出的档位切换互相等待
+    private final Object accountingLock = new Object();
+    private long lastAccountedSequence = -1;
+    private volatile Process retiringProcess;
+    private volatile ThumbnailCache thumbnailCache;
+    private volatile OutputDirectoryWatcher outputWatcher;
+    private volatile SegmentIndex segmentIndex;
+    private volatile WatchKey outputWatchKey;
+    private final AtomicBoolean outputUpdatePending = new AtomicBoolean(false);
+    private volatile VodPackager vodPackager;
+    private final List<StreamOutput> outputs = new CopyOnWriteArrayList<>();
+    private volatile CpuAllocator.Allocation cpuAllocation;
+    private volatile VodArchive vodArchive;
+    private final Object outputLock = new Object();
+    private final Map<String, Long> imageModified = new HashMap<>();
+    private int initGeneration;
+    private ScheduledExecutorService executorService;
+    private DashManifestWriter manifestWriter;
     
     // HLS配置参数
     private static final int SEGMENT_DURATION = 6; // 分段时长（秒）
     private static final int PLAYLIST_SIZE = 5;    // 播放列表保留分段数
     private static final String VIDEO_CODEC = "libx264";
     private static final String AUDIO_CODEC = "aac";
-    private static final String VIDEO_BITRATE = "1000k";
-    private static final String AUDIO_BITRATE = "128k";
+    private static final int AUDIO_BITRATE_KBPS = 128;
+    private static final String AUDIO_BITRATE = AUDIO_BITRATE_KBPS + "k";
+    // 原固定码率阶梯，用于统计按内容选择码率节省的带宽
+    private static final int STATIC_VIDEO_BITRATE_KBPS = 1000;
+    
+    // CMAF输出配置：HLS与DASH共用同一组fMP4分段
+    // 固定profile/level，使清单中的codecs属性与实际码流一致
+    private static final String VIDEO_PROFILE = "high";
+    private static final String VIDEO_LEVEL = "4.0";
+    private static final String VIDEO_CODEC_TAG = "avc1.640028";
+    private static final String AUDIO_CODEC_TAG = "mp4a.40.2";
+    static final String MASTER_PLAYLIST = "playlist.m3u8";
+    static final String VIDEO_PLAYLIST = "stream_0.m3u8";
+    private static final String AUDIO_PLAYLIST = "stream_1.m3u8";
+    private static final long MANIFEST_UPDATE_INTERVAL_MS = 1000;
+    private static final long PROCESS_STOP_TIMEOUT_SECONDS = 5;
+    private static final long PROBE_TIMEOUT_SECONDS = 10;
+    private static final DateTimeFormatter SESSION_ID_FORMAT =
+        DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneOffset.UTC);
+    
+    // 缩略图与滚动预览图配置：与分段同步抽帧，预览图覆盖最近一分钟
+    private static final int THUMBNAIL_INTERVAL = SEGMENT_DURATION;
+    private static final int THUMBNAIL_WIDTH = 320;
+    private static final int THUMBNAIL_QUALITY = 5;
+    private static final int SPRITE_TILE_WIDTH = 160;
+    private static final int SPRITE_COLUMNS = 5;
+    private static final int SPRITE_ROWS = 2;
+    
+    // FFmpeg日志中分段开始写入的提示，用于统计分段产出间隔
+    private static final Pattern SEGMENT_OPENED = Pattern.compile("Opening '[^']*seg_0_\\d+\\.m4s' for writing");
     
     public TranscoderService(String streamKey, String inputUrl, String outputDir) {
+        this(streamKey, inputUrl, outputDir, null, null);
+    }
+    
+    /**
+     * @param segmentStore  内存分段存储，为null时FFmpeg直接写磁盘
+     * @param ingestBaseUrl 分段接收服务的基础URL，FFmpeg通过HTTP PUT输出到该地址
+     */
+    public TranscoderService(String streamKey, String inputUrl, String outputDir,
+                             SegmentStore segmentStore, String ingestBaseUrl) {
         this.streamKey = streamKey;
         this.inputUrl = inputUrl;
         this.outputDir = outputDir;
-        this.executorService = Executors.newSingleThreadExecutor();
+        this.segmentStore = segmentStore;
+        this.ingestBaseUrl = segmentStore != null ? ingestBaseUrl : null;
+        this.metrics = new TranscoderMetrics(streamKey);
+        // 两个输出读取线程、清单更新与档位切换各占一个
+        this.executorService = Executors.newScheduledThreadPool(4);
     }
     
     /**
@@ -50,23 +137,33 @@ public class TranscoderService {
             Path outputPath = Paths.get(outputDir);
             Files.createDirectories(outputPath);
             
-            // 构建FFmpeg命令
-            String[] command = buildFFmpegCommand();
+            // 只推视频的流没有音频轨可映射，音频表示也随之省略；重启沿用本次的结果，不再连接输入
+            hasAudio = knownHasAudio != null ? knownHasAudio : probeHasAudio();
+            List<DashManifestWriter.Representation> representations = new ArrayList<>();
+            representations.add(DashManifestWriter.Representation.video(VIDEO_PLAYLIST, VIDEO_CODEC_TAG,
+                complexity.getMaxrateKbps() * 1000L));
+            if (hasAudio) {
+                representations.add(DashManifestWriter.Representation.audio(AUDIO_PLAYLIST, AUDIO_CODEC_TAG,
+                    AUDIO_BITRATE_KBPS * 1000L));
+            }
+            manifestWriter = new DashManifestWriter(outputPath, SEGMENT_DURATION, PLAYLIST_SIZE, representations);
             
-            logger.info("启动转码服务: " + streamKey);
+            logger.info("启动转码服务: " + streamKey + (hasAudio ? "" : "（无音频轨）"));
             logger.info("输入URL: " + inputUrl);
-            logger.info("输出目录: " + outputDir);
-            logger.info("FFmpeg命令: " + String.join(" ", command));
+            logger.info("输出目录: " + (isHttpIngest() ? ingestBaseUrl + streamKey : outputDir));
             
-            // 启动FFmpeg进程
-            ProcessBuilder processBuilder = new ProcessBuilder(command);
-            processBuilder.redirectErrorStream(true);
-            ffmpegProcess = processBuilder.start();
+            if (vodPackager != null) {
+                vodArchive = new VodArchive(vodPackager.archiveDirFor(streamKey,
+                    SESSION_ID_FORMAT.format(Instant.now())));
+            }
             
-            isRunning.set(true);
+            // 跟随媒体播放列表更新DASH清单并载入预览图；HTTP输出模式下由分段接收服务的写入事件驱动，
+            // 磁盘输出模式下由目录监听事件驱动，没有监听器时退回定时轮询
+            if (!isHttpIngest()) {
+                watchOutputDirectory(outputPath);
+            }
             
-            // 异步监控进程输出
-            executorService.submit(this::monitorProcess);
+            launchProcess(false);
             
             return true;
             
@@ -77,73 +174,725 @@ public class TranscoderService {
     }
     
     /**
-     * 停止转码服务
+     * 探测输入流是否带音频轨，参数与VodTranscoder.probeHasAudio相同，另加超时
+     * 探测失败或超时时按有音频处理，与不做探测时的行为一致
+     * 探测会单独连接一次输入，只在start()中、且调用方没有给出轨道布局时进行
+     */
+    private boolean probeHasAudio() {
+        List<String> command = List.of(
+            "ffprobe", "-v", "error",
+            "-select_streams", "a",
+            "-show_entries", "stream=index",
+            "-of", "csv=p=0",
+            inputUrl);
+        try {
+            Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+            if (!process.waitFor(PROBE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                logger.warning("探测音频轨超时，按有音频处理: " + streamKey);
+                return true;
+            }
+            if (process.exitValue() != 0) {
+                logger.warning("探测音频轨失败（退出码 " + process.exitValue() + "），按有音频处理: " + streamKey);
+                return true;
+            }
+            // 输出只有几行，进程结束后一次读完
+            return !new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8).isBlank();
+        } catch (IOException e) {
+            logger.warning("探测音频轨失败，按有音频处理: " + streamKey + " - " + e.getMessage());
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        }
+    }
+    
+    /**
+     * FFmpeg意外退出后重新启动
+     * 接着上一个分段序号继续输出，并在播放列表中标记不连续点，播放器无需重新加载
+     */
+    public synchronized boolean restart() {
+        if (stopRequested.get() || isRunning()) {
+            return false;
+        }
+        
+        try {
+            launchProcess(true);
+            long downtime = System.currentTimeMillis() - downSinceMillis;
+            metrics.recordRestart(downtime);
+            logger.info("转码服务已重启: " + streamKey + "，中断 " + downtime + "ms");
+            return true;
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "重启转码服务失败: " + streamKey, e);
+            return false;
+        }
+    }
+    
+    /**
+     * 请求切换编码档位，在下一个分段边界生效
+     */
+    public boolean requestProfile(EncodingProfile target) {
+        if (state != State.RUNNING || target == profile) {
+            return false;
+        }
+        pendingProfile.set(target);
+        return true;
+    }
+    
+    /**
+     * 请求切换码率上限等级，在下一个分段边界生效
+     */
+    public boolean requestComplexity(ContentComplexity target) {
+        if (state != State.RUNNING || target == complexity) {
+            return false;
+        }
+        pendingComplexity.set(target);
+        return true;
+    }
+    
+    /**
+     * 添加附加输出：单独的读取进程立即从HLS输出流复制，不重启编码
+     */
+    public StreamOutput addOutput(StreamOutput.Type type, String target) {
+        StreamOutput output = new StreamOutput(type, target);
+        outputs.add(output);
+        output.start(outputLocation(MASTER_PLAYLIST), executorService, metrics::recordOutputFailure);
+        if (stopRequested.get()) {
+            // 与并发的stop()竞争时，stop()可能已错过这个输出
+            output.stop();
+        }
+        return output;
+    }
+    
+    /**
+     * 移除附加输出，停止其读取进程
+     */
+    public boolean removeOutput(String outputId) {
+        for (StreamOutput output : outputs) {
+            if (output.getId().equals(outputId) && outputs.remove(output)) {
+                output.stop();
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * 以新的编码参数重启FFmpeg（参数为null表示不变）
+     * 旧进程正常退出后写完最后一个分段，新进程接续分段序号并使用新的初始化分段
+     */
+    private synchronized void switchEncoder(Process current, EncodingProfile targetProfile,
+                                            ContentComplexity targetComplexity) {
+        if (stopRequested.get() || current != ffmpegProcess || !current.isAlive()) {
+            return;
+        }
+        
+        EncodingProfile nextProfile = targetProfile != null ? targetProfile : profile;
+        ContentComplexity nextComplexity = targetComplexity != null ? targetComplexity : complexity;
+        String change = profile + "/" + complexity + " -> " + nextProfile + "/" + nextComplexity;
+        logger.info("切换编码参数: " + streamKey + " " + change);
+        long switchStarted = System.currentTimeMillis();
+        state = State.RESTARTING;
+        retiringProcess = current;
+        current.destroy();
+        try {
+            if (!current.waitFor(PROCESS_STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                current.destroyForcibly();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            current.destroyForcibly();
+        }
+        if (stopRequested.get()) {
+            return;
+        }
+        
+        if (nextComplexity != complexity) {
+            complexityEstimator.applied(System.currentTimeMillis());
+            manifestWriter.setBandwidth(VIDEO_PLAYLIST, nextComplexity.getMaxrateKbps() * 1000L);
+        }
+        profile = nextProfile;
+        complexity = nextComplexity;
+        initGeneration++;
+        try {
+            launchProcess(true);
+            metrics.recordProfileApplied(nextProfile);
+            metrics.recordComplexityApplied(nextComplexity);
+            metrics.recordSwitchRestart(System.currentTimeMillis() - switchStarted);
+            logger.info("编码参数已切换: " + streamKey + " " + change + "，中断 "
+                + (System.currentTimeMillis() - switchStarted) + "ms");
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "切换编码参数后启动FFmpeg失败: " + streamKey, e);
+            notifyUnexpectedExit(-1);
+            return;
+        }
+        
+        // 切换有冷却时间，两代之前的初始化分段已不在播放列表窗口内；录制归档时仍被VOD播放列表引用
+        if (initGeneration >= 2 && !isArchiving()) {
+            deleteOutputFile(initFileName(initGeneration - 2).replace("%v", "0"));
+            deleteOutputFile(initFileName(initGeneration - 2).replace("%v", "1"));
+        }
+    }
+    
+    private void deleteOutputFile(String fileName) {
+        if (isHttpIngest()) {
+            segmentStore.delete(streamKey, fileName);
+            return;
+        }
+        try {
+            Files.deleteIfExists(Paths.get(outputDir, fileName));
+        } catch (IOException e) {
+            logger.warning("删除文件失败: " + fileName + " - " + e.getMessage());
+        }
+    }
+    
+    /**
+     * 启动FFmpeg进程并注册退出回调
+     */
+    private synchronized void launchProcess(boolean resume) throws IOException {
+        String[] command = buildFFmpegCommand(resume ? nextSequenceNumber() : -1);
+        logger.info("FFmpeg命令: " + String.join(" ", command));
+        
+        // 启动FFmpeg进程：stdout为-progress进度数据，stderr为日志
+        Process process = new ProcessBuilder(command).start();
+        ffmpegProcess = process;
+        if (stopRequested.get()) {
+            // 与并发的stop()竞争时，stop()可能已错过这个新进程
+            process.destroyForcibly();
+            throw new IOException("转码服务已停止: " + streamKey);
+        }
+        startedAtMillis = System.currentTimeMillis();
+        state = State.RUNNING;
+        isRunning.set(true);
+        
+        // 异步监控进程输出
+        executorService.submit(() -> monitorProcess(process));
+        executorService.submit(() -> monitorProgress(process));
+        
+        // 进程退出事件驱动监管，无需等待定期清理
+        process.onExit().thenAccept(this::handleExit);
+    }
+    
+    /**
+     * 处理FFmpeg进程退出
+     */
+    private void handleExit(Process process) {
+        if (process != ffmpegProcess || process == retiringProcess || stopRequested.get()) {
+            return;
+        }
+        
+        lastExitCode = process.exitValue();
+        logger.warning("FFmpeg进程意外结束: " + streamKey + "，退出码 " + lastExitCode
+            + "，运行 " + (System.currentTimeMillis() - startedAtMillis) + "ms");
+        notifyUnexpectedExit(lastExitCode);
+    }
+    
+    private void notifyUnexpectedExit(int exitCode) {
+        isRunning.set(false);
+        downSinceMillis = System.currentTimeMillis();
+        long uptime = downSinceMillis - startedAtMillis;
+        
+        ExitListener listener = exitListener;
+        if (listener != null) {
+            listener.onUnexpectedExit(this, exitCode, uptime);
+        }
+    }
+    
+    /**
+     * 读取当前媒体播放列表中的最后一个分段序号，返回下一个序号；无法读取时返回-1
+     */
+    private long nextSequenceNumber() {
+        try {
+            MediaPlaylist playlist;
+            if (isHttpIngest()) {
+                SegmentStore.Entry entry = segmentStore.get(streamKey, VIDEO_PLAYLIST);
+                if (entry == null) {
+                    return -1;
+                }
+                playlist = parsePlaylist(entry);
+            } else {
+                Path path = Paths.get(outputDir, VIDEO_PLAYLIST);
+                if (!Files.exists(path)) {
+                    return -1;
+                }
+                playlist = MediaPlaylist.read(path);
+            }
+            List<MediaPlaylist.Segment> segments = playlist.getSegments();
+            return segments.isEmpty() ? playlist.getMediaSequence() : segments.get(segments.size() - 1).getSequence() + 1;
+        } catch (Exception e) {
+            logger.log(Level.FINE, "读取分段序号失败: " + streamKey, e);
+            return -1;
+        }
+    }
+    
+    /**
+     * 停止转码服务并回收进程、线程与输出文件
      */
     public void stop() {
-        if (!isRunning.get()) {
+        if (!stopRequested.compareAndSet(false, true)) {
             return;
         }
         
         logger.info("停止转码服务: " + streamKey);
         isRunning.set(false);
+        if (state != State.FAILED) {
+            state = State.STOPPED;
+        }
+        
+        outputs.forEach(StreamOutput::stop);
         
-        if (ffmpegProcess != null && ffmpegProcess.isAlive()) {
-            ffmpegProcess.destroy();
+        Process process = ffmpegProcess;
+        if (process != null && process.isAlive()) {
+            process.destroy();
             try {
                 // 等待进程结束，最多等待5秒
-                if (!ffmpegProcess.waitFor(5, TimeUnit.SECONDS)) {
-                    ffmpegProcess.destroyForcibly();
+                if (!process.waitFor(PROCESS_STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
                 }
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
-                ffmpegProcess.destroyForcibly();
+                process.destroyForcibly();
             }
         }
         
         if (executorService != null) {
-            executorService.shutdown();
+            executorService.shutdownNow();
         }
         
+        archiveRecording();
+        
         // 清理HLS文件
+        if (segmentStore != null) {
+            segmentStore.removeStream(streamKey);
+        }
+        if (thumbnailCache != null) {
+            thumbnailCache.removeStream(streamKey);
+        }
+        OutputDirectoryWatcher watcher = outputWatcher;
+        if (watcher != null) {
+            watcher.unregister(outputWatchKey);
+        }
         cleanupHLSFiles();
     }
     
+    /**
+     * 建立输出目录索引并开始监听，须在FFmpeg启动前完成以免漏掉事件
+     */
+    private void watchOutputDirectory(Path outputPath) throws IOException {
+        // 录制归档时保留整场直播的分段
+        SegmentIndex index = new SegmentIndex(outputPath, isArchiving() ? -1 : PLAYLIST_SIZE);
+        segmentIndex = index;
+        OutputDirectoryWatcher watcher = outputWatcher;
+        if (watcher != null) {
+            outputWatchKey = watcher.register(outputPath, new OutputDirectoryWatcher.Listener() {
+                @Override
+                public void onEvent(String fileName, boolean deleted) {
+                    index.onEvent(fileName, deleted);
+                    if (!deleted && (VIDEO_PLAYLIST.equals(fileName) || AUDIO_PLAYLIST.equals(fileName)
+                            || ThumbnailCache.isImage(fileName))) {
+                        scheduleOutputUpdate();
+                    }
+                }
+                
+                @Override
+                public void onOverflow() {
+                    index.scan();
+                    scheduleOutputUpdate();
+                }
+            });
+        } else {
+            executorService.scheduleWithFixedDelay(this::pollOutputFiles,
+                MANIFEST_UPDATE_INTERVAL_MS, MANIFEST_UPDATE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+        index.scan();
+    }
+    
+    /**
+     * 合并同一批目录事件触发的更新，同一时间最多排队一次
+     */
+    private void scheduleOutputUpdate() {
+        if (!isRunning.get() || !outputUpdatePending.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executorService.execute(() -> {
+                outputUpdatePending.set(false);
+                pollOutputFiles();
+            });
+        } catch (RejectedExecutionException e) {
+            // 已停止
+        }
+    }
+    
     /**
      * 构建FFmpeg命令
+     * 输出CMAF（fMP4）分段，视频与音频各一个媒体播放列表，由主播放列表引用
      */
-    private String[] buildFFmpegCommand() {
-        String playlistPath = Paths.get(outputDir, "playlist.m3u8").toString();
-        String segmentPattern = Paths.get(outputDir, "segment_%03d.ts").toString();
+    private String[] buildFFmpegCommand(long startNumber) {
+        String variantPlaylistPath = outputLocation("stream_%v.m3u8");
         
-        return new String[] {
+        CpuAllocator.Allocation allocation = cpuAllocation;
+        List<String> command = new ArrayList<>(allocation != null ? allocation.commandPrefix() : List.of());
+        command.addAll(List.of(
             "ffmpeg",
+            "-nostats",                              // 关闭stderr上的统计行
+            "-progress", "pipe:1"                    // 结构化进度输出到stdout
+        ));
+        if (allocation != null) {
+            command.addAll(List.of("-filter_complex_threads", String.valueOf(allocation.getThreads())));
+        }
+        command.addAll(List.of(
             "-i", inputUrl,                          // 输入RTMP流
+            "-filter_complex", buildFilterGraph(),   // 编码与预览图共用一次解码
+            "-map", "[vout]"                         // 视频轨
+        ));
+        if (hasAudio) {
+            command.addAll(List.of("-map", "0:a:0")); // 音频轨
+        }
+        command.addAll(List.of(
             "-c:v", VIDEO_CODEC,                     // 视频编码器
-            "-c:a", AUDIO_CODEC,                     // 音频编码器
-            "-b:v", VIDEO_BITRATE,                   // 视频码率
-            "-b:a", AUDIO_BITRATE,                   // 音频码率
-            "-f", "hls",                             // 输出格式HLS
-            "-hls_time", String.valueOf(SEGMENT_DURATION),  // 分段时长
-            "-hls_list_size", String.valueOf(PLAYLIST_SIZE), // 播放列表大小
-            "-hls_flags", "delete_segments",         // 自动删除旧分段
-            "-hls_segment_filename", segmentPattern, // 分段文件名模式
-            "-y",                                    // 覆盖输出文件
-            playlistPath                             // 播放列表文件
-        };
+            "-profile:v", VIDEO_PROFILE,             // 视频profile
+            "-level:v", VIDEO_LEVEL                  // 视频level
+        ));
+        command.addAll(profile.toArguments());       // 编码档位：预设
+        command.addAll(complexity.toArguments());    // 码率控制：capped CRF
+        if (allocation != null) {
+            command.addAll(List.of("-threads", String.valueOf(allocation.getThreads()))); // 编码线程数按槽位分到的配额
+        }
+        if (hasAudio) {
+            command.addAll(List.of(
+                "-c:a", AUDIO_CODEC,                 // 音频编码器
+                "-b:a", AUDIO_BITRATE                // 音频码率
+            ));
+        }
+        command.addAll(List.of(
+            "-force_key_frames", "expr:gte(t,n_forced*" + SEGMENT_DURATION + ")", // 关键帧与分段边界对齐
+            "-sc_threshold", "0"                     // 禁用场景切换插入关键帧
+        ));
+        
+        command.addAll(List.of("-f", "hls"));        // 输出格式HLS
+        hlsOptions(startNumber).forEach((key, value) -> command.addAll(List.of("-" + key, value)));
+        command.add("-y");                           // 覆盖输出文件
+        command.add(variantPlaylistPath);            // 媒体播放列表
+        
+        // 缩略图与预览图：每个间隔覆盖同名文件，HTTP输出模式下POST到分段接收服务
+        addImageOutput(command, "[thumb]", ThumbnailCache.THUMBNAIL);
+        addImageOutput(command, "[sprite]", ThumbnailCache.SPRITE);
+        return command.toArray(new String[0]);
+    }
+    
+    /**
+     * HLS muxer选项（不带“-”前缀）
+     */
+    private Map<String, String> hlsOptions(long startNumber) {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("hls_time", String.valueOf(SEGMENT_DURATION));       // 分段时长
+        options.put("hls_list_size", String.valueOf(PLAYLIST_SIZE));     // 播放列表大小
+        options.put("hls_segment_type", "fmp4");                         // CMAF分段
+        options.put("hls_fmp4_init_filename", initFileName(initGeneration)); // 初始化分段
+        options.put("hls_flags", hlsFlags(startNumber >= 0));            // 自动删除旧分段（录制归档时保留）
+        options.put("hls_segment_filename", outputLocation("seg_%v_%05d.m4s")); // 分段文件名模式
+        options.put("master_pl_name", MASTER_PLAYLIST);                  // 主播放列表
+        options.put("var_stream_map", hasAudio
+            ? "v:0,agroup:audio a:0,agroup:audio"                        // 音视频分离为独立轨道（DASH需要）
+            : "v:0");                                                    // 无音频时只有视频轨，文件名不变
+        if (startNumber >= 0) {
+            options.put("start_number", String.valueOf(startNumber));    // 接续分段序号
+        }
+        if (isHttpIngest()) {
+            options.put("method", "PUT");                                // 通过HTTP PUT/DELETE输出到分段接收服务
+            options.put("http_persistent", "1");                         // 复用HTTP连接
+            options.put("ignore_io_errors", "1");                        // 单次上传失败不终止转码
+        }
+        return options;
     }
     
     /**
-     * 监控FFmpeg进程
+     * 滤镜图：解码后的视频一路（按档位缩放）送编码器，
+     * 另一路按缩略图间隔抽帧，生成最新缩略图和最近若干帧拼成的滚动预览图
      */
-    private void monitorProcess() {
+    private String buildFilterGraph() {
+        String scale = profile.scaleFilter();
+        int tiles = SPRITE_COLUMNS * SPRITE_ROWS;
+        return "[0:v:0]split=2[main][preview];"
+            + "[main]" + (scale != null ? scale : "null") + "[vout];"
+            + "[preview]fps=1/" + THUMBNAIL_INTERVAL + ",scale=" + THUMBNAIL_WIDTH + ":-2,split=2[thumb][tiles];"
+            + "[tiles]scale=" + SPRITE_TILE_WIDTH + ":-2,tile=" + SPRITE_COLUMNS + "x" + SPRITE_ROWS
+            + ":overlap=" + (tiles - 1) + ":init_padding=" + (tiles - 1) + "[sprite]";
+    }
+    
+    private void addImageOutput(List<String> command, String label, String fileName) {
+        command.addAll(List.of(
+            "-map", label,
+            "-c:v", "mjpeg",
+            "-q:v", String.valueOf(THUMBNAIL_QUALITY),
+            "-f", "image2",
+            "-update", "1"                           // 始终覆盖同一个文件
+        ));
+        if (!isHttpIngest()) {
+            command.addAll(List.of("-atomic_writing", "1")); // 读取方不会看到写了一半的图片
+        }
+        command.add(outputLocation(fileName));
+    }
+    
+    /**
+     * 初始化分段文件名
+     * 每次切换档位使用新文件名，播放器不会用缓存的旧SPS/PPS解码新分段
+     */
+    private static String initFileName(int generation) {
+        return generation == 0 ? "init_%v.mp4" : "init_%v_" + generation + ".mp4";
+    }
+    
+    /**
+     * HLS muxer标志；重启时追加到现有播放列表并插入不连续标记
+     */
+    private String hlsFlags(boolean resume) {
+        String flags = (isArchiving() ? "" : "delete_segments+") + "independent_segments+program_date_time";
+        return resume ? flags + "+append_list+discont_start" : flags;
+    }
+    
+    /**
+     * 输出文件位置：本地目录或分段接收服务URL
+     */
+    private String outputLocation(String fileName) {
+        if (isHttpIngest()) {
+            return ingestBaseUrl + streamKey + "/" + fileName;
+        }
+        return Paths.get(outputDir, fileName).toString();
+    }
+    
+    private boolean isHttpIngest() {
+        return ingestBaseUrl != null;
+    }
+    
+    /**
+     * 分段存储写入回调：媒体播放列表更新后重新生成DASH清单并放入存储
+     */
+    public void onFileStored(String fileName) {
+        if (!isRunning.get() || !mediaPlaylists().contains(fileName)) {
+            return;
+        }
+        try {
+            List<MediaPlaylist> playlists = storedPlaylists();
+            if (playlists == null) {
+                return;
+            }
+            if (VIDEO_PLAYLIST.equals(fileName)) {
+                accountVideoSegments(playlists.get(0));
+            }
+            recordArchive(playlists);
+            String manifest = manifestWriter.render(playlists);
+            segmentStore.put(streamKey, DashManifestWriter.MANIFEST_NAME, manifest.getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            logger.log(Level.FINE, "更新DASH清单失败: " + streamKey, e);
+        }
+    }
+    
+    /**
+     * 统计新完成的视频分段：实际码率、相对固定码率阶梯节省的字节数，并据此估计内容复杂度
+     */
+    private void accountVideoSegments(MediaPlaylist playlist) {
+        synchronized (accountingLock) {
+            accountSegments(playlist.getSegments());
+        }
+    }
+    
+    private void accountSegments(List<MediaPlaylist.Segment> segments) {
+        if (!segments.isEmpty() && segments.get(segments.size() - 1).getSequence() < lastAccountedSequence) {
+            lastAccountedSequence = -1; // 未能接续序号的重启从头编号
+        }
+        
+        for (MediaPlaylist.Segment segment : segments) {
+            if (segment.getSequence() <= lastAccountedSequence) {
+                continue;
+            }
+            lastAccountedSequence = segment.getSequence();
+            long bytes = segmentSize(segment.getUri());
+            if (bytes <= 0) {
+                continue;
+            }
+            
+            double seconds = segment.getDuration();
+            metrics.recordVideoSegment(seconds, bytes, Math.round(seconds * STATIC_VIDEO_BITRATE_KBPS * 125));
+            ContentComplexity suggested = complexityEstimator.observe(seconds, bytes, complexity,
+                System.currentTimeMillis());
+            if (suggested != null && requestComplexity(suggested)) {
+                metrics.recordComplexityDecision();
+                logger.info(String.format(Locale.ROOT, "码率上限调整: %s %s -> %s（最近平均视频码率 %.0fkbps）",
+                    streamKey, complexity, suggested, complexityEstimator.getWindowBitrateKbps()));
+            }
+        }
+    }
+    
+    private long segmentSize(String fileName) {
+        if (isHttpIngest()) {
+            SegmentStore.Entry entry = segmentStore.get(streamKey, fileName);
+            return entry != null ? entry.getData().length : -1;
+        }
+        SegmentIndex index = segmentIndex;
+        SegmentIndex.Entry entry = index != null ? index.get(fileName) : null;
+        if (entry != null && entry.getSize() > 0) {
+            return entry.getSize();
+        }
+        try {
+            return Files.size(Paths.get(outputDir, fileName));
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+    
+    /**
+     * 媒体播放列表名称，视频在前；与DASH清单的表示顺序一致
+     */
+    private List<String> mediaPlaylists() {
+        return hasAudio ? List.of(VIDEO_PLAYLIST, AUDIO_PLAYLIST) : List.of(VIDEO_PLAYLIST);
+    }
+    
+    /**
+     * 分段存储中的各媒体播放列表，尚未全部写出时返回null
+     */
+    private List<MediaPlaylist> storedPlaylists() {
+        List<MediaPlaylist> playlists = new ArrayList<>();
+        for (String name : mediaPlaylists()) {
+            SegmentStore.Entry entry = segmentStore.get(streamKey, name);
+            if (entry == null) {
+                return null;
+            }
+            playlists.add(parsePlaylist(entry));
+        }
+        return playlists;
+    }
+    
+    /**
+     * 从输出目录读取各媒体播放列表
+     */
+    private List<MediaPlaylist> readPlaylists() throws IOException {
+        List<MediaPlaylist> playlists = new ArrayList<>();
+        for (String name : mediaPlaylists()) {
+            playlists.add(MediaPlaylist.read(Paths.get(outputDir, name)));
+        }
+        return playlists;
+    }
+    
+    private void recordArchive(List<MediaPlaylist> playlists) {
+        VodArchive archive = vodArchive;
+        if (archive != null) {
+            List<String> names = mediaPlaylists();
+            for (int i = 0; i < names.size(); i++) {
+                archive.record(names.get(i), playlists.get(i));
+            }
+        }
+    }
+    
+    private boolean isArchiving() {
+        return vodPackager != null;
+    }
+    
+    /**
+     * 直播结束后归档录制：补记FFmpeg退出前写出的最后一批分段，移入归档目录并排队打包MP4
+     */
+    private void archiveRecording() {
+        VodArchive archive = vodArchive;
+        if (archive == null) {
+            return;
+        }
+        try {
+            if (isHttpIngest()) {
+                // 归档从写穿目录移动文件，先等排队中的写入落盘
+                segmentStore.awaitWriteThrough(PROCESS_STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                List<MediaPlaylist> playlists = storedPlaylists();
+                if (playlists != null) {
+                    recordArchive(playlists);
+                }
+            } else if (mediaPlaylists().stream().allMatch(name -> Files.exists(Paths.get(outputDir, name)))) {
+                recordArchive(readPlaylists());
+            }
+            
+            int archived = archive.finish(Paths.get(outputDir), MASTER_PLAYLIST);
+            if (archived > 0) {
+                logger.info("录制已归档: " + streamKey + "，" + archived + " 个分段 -> " + archive.getArchiveDir());
+                vodPackager.submit(archive.getArchiveDir(), MASTER_PLAYLIST);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, "归档录制失败: " + streamKey, e);
+        }
+    }
+    
+    private static MediaPlaylist parsePlaylist(SegmentStore.Entry entry) {
+        return MediaPlaylist.parse(new String(entry.getData(), StandardCharsets.UTF_8).lines().toList());
+    }
+    
+    /**
+     * 更新DASH清单并载入预览图
+     */
+    private void pollOutputFiles() {
+        if (!isRunning.get()) {
+            return;
+        }
+        synchronized (outputLock) {
+            updateDashManifest();
+            loadPreviewImages();
+        }
+    }
+    
+    private void updateDashManifest() {
+        try {
+            if (manifestWriter.update()) {
+                List<MediaPlaylist> playlists = readPlaylists();
+                SegmentIndex index = segmentIndex;
+                if (index != null) {
+                    playlists.forEach(index::applyPlaylist);
+                }
+                accountVideoSegments(playlists.get(0));
+                recordArchive(playlists);
+            }
+        } catch (Exception e) {
+            logger.log(Level.FINE, "更新DASH清单失败: " + streamKey, e);
+        }
+    }
+    
+    /**
+     * 把FFmpeg写到磁盘的缩略图与预览图载入缓存（文件有变化时）
+     */
+    private void loadPreviewImages() {
+        ThumbnailCache cache = thumbnailCache;
+        if (cache == null) {
+            return;
+        }
+        for (String fileName : new String[] {ThumbnailCache.THUMBNAIL, ThumbnailCache.SPRITE}) {
+            Path path = Paths.get(outputDir, fileName);
+            try {
+                long modified = Files.getLastModifiedTime(path).toMillis();
+                if (!Long.valueOf(modified).equals(imageModified.get(fileName))) {
+                    cache.put(streamKey, fileName, Files.readAllBytes(path));
+                    imageModified.put(fileName, modified);
+                }
+            } catch (NoSuchFileException e) {
+                // 第一帧预览图尚未生成
+            } catch (IOException e) {
+                logger.log(Level.FINE, "读取预览图失败: " + path, e);
+            }
+        }
+    }
+    
+    /**
+     * 监控FFmpeg进程日志（stderr）
+     */
+    private void monitorProcess(Process process) {
         try (BufferedReader reader = new BufferedReader(
-                new InputStreamReader(ffmpegProcess.getInputStream()))) {
+                new InputStreamReader(process.getErrorStream()))) {
             
             String line;
             while ((line = reader.readLine()) != null && isRunning.get()) {
-                // 记录FFmpeg输出（可以用于调试）
-                if (line.contains("frame=") || line.contains("time=")) {
+                if (SEGMENT_OPENED.matcher(line).find()) {
+                    metrics.recordSegmentOpened();
                     logger.fine("FFmpeg输出: " + line);
+                    // 上一个分段刚写完，在分段边界切换编码参数
+                    EncodingProfile nextProfile = pendingProfile.getAndSet(null);
+                    ContentComplexity nextComplexity = pendingComplexity.getAndSet(null);
+                    if (nextProfile != null || nextComplexity != null) {
+                        executorService.execute(() -> switchEncoder(process, nextProfile, nextComplexity));
+                    }
                 } else if (line.contains("error") || line.contains("Error")) {
                     logger.warning("FFmpeg错误: " + line);
                 }
@@ -153,38 +902,50 @@ public class TranscoderService {
             if (isRunning.get()) {
                 logger.log(Level.WARNING, "读取FFmpeg输出时出错: " + streamKey, e);
             }
-        } finally {
+        }
+    }
+    
+    /**
+     * 解析FFmpeg -progress输出（stdout）
+     * 每个进度块由若干key=value行组成，以progress=continue或progress=end结束
+     */
+    private void monitorProgress(Process process) {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream()))) {
+            
+            Map<String, String> block = new HashMap<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int eq = line.indexOf('=');
+                if (eq <= 0) {
+                    continue;
+                }
+                String key = line.substring(0, eq).trim();
+                String value = line.substring(eq + 1).trim();
+                if ("progress".equals(key)) {
+                    metrics.recordProgress(block);
+                    block.clear();
+                } else {
+                    block.put(key, value);
+                }
+            }
+            
+        } catch (IOException e) {
             if (isRunning.get()) {
-                logger.warning("FFmpeg进程意外结束: " + streamKey);
-                isRunning.set(false);
+                logger.log(Level.FINE, "读取FFmpeg进度时出错: " + streamKey, e);
             }
         }
     }
     
     /**
      * 清理HLS文件
+     * 磁盘输出模式按索引逐个删除，HTTP输出模式下写穿的文件已随分段存储一起删除
      */
     private void cleanupHLSFiles() {
-        try {
-            Path outputPath = Paths.get(outputDir);
-            if (Files.exists(outputPath)) {
-                Files.walk(outputPath)
-                    .filter(Files::isRegularFile)
-                    .filter(path -> {
-                        String fileName = path.getFileName().toString();
-                        return fileName.endsWith(".m3u8") || fileName.endsWith(".ts");
-                    })
-                    .forEach(path -> {
-                        try {
-                            Files.delete(path);
-                            logger.info("删除HLS文件: " + path);
-                        } catch (IOException e) {
-                            logger.warning("删除文件失败: " + path + " - " + e.getMessage());
-                        }
-                    });
-            }
-        } catch (IOException e) {
-            logger.log(Level.WARNING, "清理HLS文件时出错: " + streamKey, e);
+        SegmentIndex index = segmentIndex;
+        if (index != null) {
+            index.deleteAll();
+            logger.info("已清理输出文件: " + streamKey);
         }
     }
     
@@ -199,7 +960,14 @@ public class TranscoderService {
      * 获取HLS播放列表URL
      */
     public String getPlaylistUrl() {
-        return "/hls/" + streamKey + "/playlist.m3u8";
+        return "/hls/" + streamKey + "/" + MASTER_PLAYLIST;
+    }
+    
+    /**
+     * 获取DASH清单URL
+     */
+    public String getManifestUrl() {
+        return "/hls/" + streamKey + "/" + DashManifestWriter.MANIFEST_NAME;
     }
     
     /**
@@ -209,10 +977,162 @@ public class TranscoderService {
         return outputDir;
     }
     
+    /**
+     * 设置缩略图缓存（本地输出模式下由本服务载入预览图，停止时清理）
+     */
+    public void setThumbnailCache(ThumbnailCache thumbnailCache) {
+        this.thumbnailCache = thumbnailCache;
+    }
+    
+    /**
+     * 设置输出目录监听器，磁盘输出模式下用它代替定时轮询，须在start()之前设置
+     */
+    public void setOutputWatcher(OutputDirectoryWatcher outputWatcher) {
+        this.outputWatcher = outputWatcher;
+    }
+    
+    /**
+     * 设置VOD打包器：保留整场直播的分段，停止时归档并打包成MP4，须在start()之前设置
+     */
+    public void setVodPackager(VodPackager vodPackager) {
+        this.vodPackager = vodPackager;
+    }
+    
+    /**
+     * 设置CPU槽位，下次启动FFmpeg时生效
+     */
+    public void setCpuAllocation(CpuAllocator.Allocation cpuAllocation) {
+        this.cpuAllocation = cpuAllocation;
+        metrics.recordCpuAllotted(cpuAllocation != null ? cpuAllocation.getThreads() : 0);
+    }
+    
+    public CpuAllocator.Allocation getCpuAllocation() {
+        return cpuAllocation;
+    }
+    
+    /**
+     * 从/proc采样当前FFmpeg进程的CPU占用与常驻内存
+     */
+    public void sampleProcess() {
+        Process process = ffmpegProcess;
+        if (process == null || !process.isAlive()) {
+            return;
+        }
+        double cpuSeconds = CpuAllocator.processCpuSeconds(process.pid());
+        if (cpuSeconds >= 0) {
+            metrics.recordCpuSample(process.pid(), cpuSeconds);
+        }
+        long rssBytes = CpuAllocator.processRssBytes(process.pid());
+        if (rssBytes >= 0) {
+            metrics.recordRss(rssBytes);
+        }
+    }
+    
+    /**
+     * 设置启动时的编码档位，只在启动前调用
+     */
+    /**
+     * 设置已知的轨道布局，启动时不再探测输入；须在start()之前调用
+     */
+    public void setKnownHasAudio(Boolean knownHasAudio) {
+        this.knownHasAudio = knownHasAudio;
+    }
+    
+    /**
+     * 本次推流是否带音频轨，启动后有效
+     */
+    public boolean hasAudio() {
+        return hasAudio;
+    }
+    
+    public void setInitialProfile(EncodingProfile initialProfile) {
+        if (state == State.STOPPED) {
+            profile = initialProfile;
+            metrics.recordProfileApplied(initialProfile);
+        }
+    }
+    
+    /**
+     * 获取附加输出
+     */
+    public List<StreamOutput> getOutputs() {
+        return List.copyOf(outputs);
+    }
+    
+    /**
+     * 获取输出目录索引，HTTP输出模式下为null
+     */
+    public SegmentIndex getSegmentIndex() {
+        return segmentIndex;
+    }
+    
+    /**
+     * 设置进程意外退出监听器
+     */
+    public void setExitListener(ExitListener exitListener) {
+        this.exitListener = exitListener;
+    }
+    
+    void setState(State state) {
+        this.state = state;
+    }
+    
+    /**
+     * 获取监管状态
+     */
+    public State getState() {
+        return state;
+    }
+    
+    /**
+     * 获取最近一次退出码
+     */
+    public int getLastExitCode() {
+        return lastExitCode;
+    }
+    
+    /**
+     * 获取当前编码档位
+     */
+    public EncodingProfile getProfile() {
+        return profile;
+    }
+    
+    /**
+     * 获取当前内容复杂度等级（码率上限）
+     */
+    public ContentComplexity getComplexity() {
+        return complexity;
+    }
+    
+    /**
+     * 获取运行指标
+     */
+    public TranscoderMetrics getMetrics() {
+        return metrics;
+    }
+    
     /**
      * 获取流密钥
      */
     public String getStreamKey() {
         return streamKey;
     }
+    
+    /**
+     * 转码服务监管状态
+     */
+    public enum State {
+        RUNNING,     // FFmpeg运行中
+        RESTARTING,  // 意外退出等待退避后重启，或正在切换编码档位
+        STOPPED,     // 已正常停止
+        FAILED       // 崩溃循环，已放弃重启
+    }
+    
+    /**
+     * FFmpeg进程意外退出监听器
+     */
+    public interface ExitListener {
+        void onUnexpectedExit(TranscoderService transcoder, int exitCode, long uptimeMillis);
+    }
 }
@@ -0,0 +1,129 @@
+package com.example.transcoder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 直播录制归档
+ * 记录整场直播在各媒体播放列表中出现过的全部分段（直播播放列表只保留滑动窗口），
+ * 停止时把分段移入归档目录并写出VOD播放列表，不做任何重新编码
+ */
+public class VodArchive {
+    private static final Logger logger = Logger.getLogger(VodArchive.class.getName());
+
+    private final Path archiveDir;
+    // 播放列表名 -> 按序记录的分段
+    private final Map<String, List<MediaPlaylist.Segment>> tracks = new LinkedHashMap<>();
+    private final Map<String, Set<String>> recordedUris = new LinkedHashMap<>();
+
+    public VodArchive(Path archiveDir) {
+        this.archiveDir = archiveDir;
+    }
+
+    /**
+     * 记录媒体播放列表中新出现的分段
+     */
+    public synchronized void record(String playlistName, MediaPlaylist playlist) {
+        List<MediaPlaylist.Segment> segments = tracks.computeIfAbsent(playlistName, name -> new ArrayList<>());
+        Set<String> uris = recordedUris.computeIfAbsent(playlistName, name -> new HashSet<>());
+        for (MediaPlaylist.Segment segment : playlist.getSegments()) {
+            if (uris.add(segment.getUri())) {
+                segments.add(segment);
+            }
+        }
+    }
+
+    /**
+     * 把已记录的分段、初始化分段与主播放列表从直播输出目录移入归档目录，并写出VOD媒体播放列表
+     * 同一文件系统内只是重命名，不复制数据
+     *
+     * @return 归档的分段数，没有可归档内容时返回0
+     */
+    public synchronized int finish(Path sourceDir, String masterPlaylist) throws IOException {
+        if (tracks.values().stream().allMatch(List::isEmpty)) {
+            return 0;
+        }
+        Files.createDirectories(archiveDir);
+
+        int archived = 0;
+        Set<String> initUris = new HashSet<>();
+        for (Map.Entry<String, List<MediaPlaylist.Segment>> track : tracks.entrySet()) {
+            List<MediaPlaylist.Segment> available = new ArrayList<>();
+            for (MediaPlaylist.Segment segment : track.getValue()) {
+                if (move(sourceDir, segment.getUri())) {
+                    available.add(segment);
+                    if (segment.getInitUri() != null && initUris.add(segment.getInitUri())) {
+                        move(sourceDir, segment.getInitUri());
+                    }
+                }
+            }
+            Files.writeString(archiveDir.resolve(track.getKey()), render(available), StandardCharsets.UTF_8);
+            archived += available.size();
+        }
+        move(sourceDir, masterPlaylist);
+        return archived;
+    }
+
+    public Path getArchiveDir() {
+        return archiveDir;
+    }
+
+    private boolean move(Path sourceDir, String fileName) {
+        try {
+            Files.move(sourceDir.resolve(fileName), archiveDir.resolve(fileName), StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (NoSuchFileException e) {
+            logger.fine("归档时文件已不存在: " + fileName);
+            return false;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "归档文件失败: " + fileName, e);
+            return false;
+        }
+    }
+
+    /**
+     * 生成VOD媒体播放列表：完整分段列表、初始化分段变化处重新声明EXT-X-MAP，并以EXT-X-ENDLIST结束
+     */
+    static String render(List<MediaPlaylist.Segment> segments) {
+        double maxDuration = segments.stream().mapToDouble(MediaPlaylist.Segment::getDuration).max().orElse(0);
+        StringBuilder sb = new StringBuilder();
+        sb.append("#EXTM3U\n");
+        sb.append("#EXT-X-VERSION:7\n");
+        sb.append("#EXT-X-PLAYLIST-TYPE:VOD\n");
+        sb.append("#EXT-X-TARGETDURATION:").append((int) Math.ceil(maxDuration)).append('\n');
+        sb.append("#EXT-X-MEDIA-SEQUENCE:").append(segments.isEmpty() ? 0 : segments.get(0).getSequence()).append('\n');
+        sb.append("#EXT-X-INDEPENDENT-SEGMENTS\n");
+
+        String currentInit = null;
+        long previousSequence = -1;
+        for (MediaPlaylist.Segment segment : segments) {
+            boolean initChanged = segment.getInitUri() != null && !segment.getInitUri().equals(currentInit);
+            boolean gap = previousSequence >= 0 && segment.getSequence() != previousSequence + 1;
+            if (previousSequence >= 0 && (segment.isDiscontinuity() || initChanged || gap)) {
+                sb.append("#EXT-X-DISCONTINUITY\n");
+            }
+            if (initChanged) {
+                sb.append("#EXT-X-MAP:URI=\"").append(segment.getInitUri()).append("\"\n");
+                currentInit = segment.getInitUri();
+            }
+            sb.append(String.format(Locale.ROOT, "#EXTINF:%.6f,\n", segment.getDuration()));
+            sb.append(segment.getUri()).append('\n');
+            previousSequence = segment.getSequence();
+        }
+        sb.append("#EXT-X-ENDLIST\n");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.transcoder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * VOD打包
+ * 直播结束后把归档的分段无损拼接（-c copy）成可拖动的MP4。
+ * 任务在单个后台线程上排队执行，FFmpeg以最低CPU与I/O优先级运行，不与直播转码争抢资源
+ */
+public class VodPackager {
+    private static final Logger logger = Logger.getLogger(VodPackager.class.getName());
+
+    public static final String RECORDING_NAME = "recording.mp4";
+    private static final String PACKAGE_LOG = "package.log"; // 失败时保留FFmpeg输出
+    private static final long PACKAGE_TIMEOUT_MINUTES = 60;
+
+    private final Path vodDir;
+    private final List<String> priorityPrefix;
+    private final ExecutorService executor;
+    private final AtomicInteger pendingJobs = new AtomicInteger();
+    private final AtomicLong completedJobs = new AtomicLong();
+    private final AtomicLong failedJobs = new AtomicLong();
+
+    public VodPackager(Path vodDir) {
+        this.vodDir = vodDir;
+        this.priorityPrefix = lowPriorityPrefix();
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "vod-packager");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * 某路流某次直播的归档目录
+     */
+    public Path archiveDirFor(String streamKey, String sessionId) {
+        return vodDir.resolve(streamKey).resolve(sessionId);
+    }
+
+    /**
+     * 排队打包归档目录中的VOD播放列表
+     */
+    public void submit(Path archiveDir, String masterPlaylist) {
+        pendingJobs.incrementAndGet();
+        executor.execute(() -> {
+            try {
+                packageRecording(archiveDir, masterPlaylist);
+            } finally {
+                pendingJobs.decrementAndGet();
+            }
+        });
+    }
+
+    private void packageRecording(Path archiveDir, String masterPlaylist) {
+        Path output = archiveDir.resolve(RECORDING_NAME);
+        Path temp = archiveDir.resolve(RECORDING_NAME + ".tmp");
+        List<String> command = new ArrayList<>(priorityPrefix);
+        command.addAll(List.of(
+            "ffmpeg", "-y",
+            "-nostats",
+            "-loglevel", "error",
+            "-i", archiveDir.resolve(masterPlaylist).toString(),
+            "-map", "0",
+            "-c", "copy",                            // 只重新封装，不重新编码
+            "-movflags", "+faststart",               // moov前置，渐进下载即可拖动
+            "-f", "mp4",
+            temp.toString()
+        ));
+
+        long started = System.currentTimeMillis();
+        Process process = null;
+        try {
+            process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(archiveDir.resolve(PACKAGE_LOG).toFile())
+                .start();
+            if (!process.waitFor(PACKAGE_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                process.destroyForcibly();
+                throw new IOException("打包超时");
+            }
+            if (process.exitValue() != 0) {
+                throw new IOException("FFmpeg退出码 " + process.exitValue());
+            }
+            Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            deleteQuietly(archiveDir.resolve(PACKAGE_LOG));
+            completedJobs.incrementAndGet();
+            logger.info("VOD打包完成: " + output + "，耗时 " + (System.currentTimeMillis() - started) + "ms");
+        } catch (IOException e) {
+            failedJobs.incrementAndGet();
+            logger.log(Level.WARNING, "VOD打包失败: " + archiveDir + "，VOD播放列表仍可直接播放", e);
+            deleteQuietly(temp);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroyForcibly();
+            failedJobs.incrementAndGet();
+            deleteQuietly(temp);
+        }
+    }
+
+    /**
+     * 停止打包，放弃未完成的任务；归档目录中的VOD播放列表不受影响，MP4可以之后重新生成
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public Path getVodDir() { return vodDir; }
+    public int getPendingJobs() { return pendingJobs.get(); }
+    public long getCompletedJobs() { return completedJobs.get(); }
+    public long getFailedJobs() { return failedJobs.get(); }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.log(Level.FINE, "删除临时文件失败: " + path, e);
+        }
+    }
+
+    /**
+     * nice -n 19 降低CPU优先级，ionice -c 3 只在磁盘空闲时读写；系统中没有对应命令时跳过
+     */
+    static List<String> lowPriorityPrefix() {
+        List<String> prefix = new ArrayList<>();
+        if (onPath("nice")) {
+            prefix.addAll(List.of("nice", "-n", "19"));
+        }
+        if (onPath("ionice")) {
+            prefix.addAll(List.of("ionice", "-c", "3"));
+        }
+        return prefix;
+    }
+
+    static boolean onPath(String command) {
+        String path = System.getenv("PATH");
+        if (path == null) {
+            return false;
+        }
+        for (String dir : path.split(File.pathSeparator)) {
+            if (Files.isExecutable(Paths.get(dir, command))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.transcoder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * 录制转码基准测试
+ * 对同一个源文件分别用N个核心跑分块并行转码（N个单线程编码进程）和单进程转码（-threads N），
+ * 输出墙钟时间随核心数的变化
+ *
+ * 用法: java -cp classes com.example.transcoder.VodTranscodeBenchmark [源文件] [--max-cores N]
+ *       [--height H] [--chunk-seconds S] [--duration 秒]
+ * 不指定源文件时先用lavfi生成一段1080p测试视频
+ */
+public class VodTranscodeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Path source = null;
+        int maxCores = Runtime.getRuntime().availableProcessors();
+        int height = 720;
+        int chunkSeconds = VodTranscoder.DEFAULT_CHUNK_SECONDS;
+        int generatedSeconds = 120;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--max-cores":
+                    maxCores = Integer.parseInt(args[++i]);
+                    break;
+                case "--height":
+                    height = Integer.parseInt(args[++i]);
+                    break;
+                case "--chunk-seconds":
+                    chunkSeconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--duration":
+                    generatedSeconds = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    source = Paths.get(args[i]);
+            }
+        }
+
+        Path workDir = Files.createTempDirectory("vod-benchmark");
+        try {
+            if (source == null) {
+                source = generateSource(workDir, generatedSeconds);
+            }
+            double duration = VodTranscoder.probeDuration(source);
+            VodTranscoder.Rendition rendition = VodTranscoder.Rendition.forHeight(height);
+            System.out.printf(Locale.ROOT, "源文件: %s（%.1fs），输出 %dp，preset %s，分块 %ds%n",
+                source, duration, height, rendition.getPreset(), chunkSeconds);
+            System.out.printf(Locale.ROOT, "%-6s %-14s %-10s %-10s %-10s %-14s %-10s%n",
+                "cores", "chunked(s)", "speed", "speedup", "chunks", "single(s)", "speedup");
+
+            double chunkedBaseline = 0;
+            double singleBaseline = 0;
+            for (int cores : coreCounts(maxCores)) {
+                Path outputDir = Files.createDirectories(workDir.resolve("out-" + cores));
+
+                VodTranscoder transcoder = new VodTranscoder(cores, 1, chunkSeconds, false);
+                VodTranscoder.Result result;
+                try {
+                    result = transcoder.transcode(source, outputDir, List.of(rendition));
+                } finally {
+                    transcoder.shutdown();
+                }
+                double chunked = result.getElapsedMillis() / 1000.0;
+
+                double single = singleProcess(source, outputDir.resolve("single.mp4"), rendition, cores);
+
+                if (chunkedBaseline == 0) {
+                    chunkedBaseline = chunked;
+                    singleBaseline = single;
+                }
+                System.out.printf(Locale.ROOT, "%-6d %-14.1f %-10s %-10s %-10d %-14.1f %-10s%n",
+                    cores, chunked, String.format(Locale.ROOT, "%.2fx", duration / chunked),
+                    String.format(Locale.ROOT, "%.2fx", chunkedBaseline / chunked), result.getChunkCount(),
+                    single, String.format(Locale.ROOT, "%.2fx", singleBaseline / single));
+            }
+        } finally {
+            try (Stream<Path> paths = Files.walk(workDir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * 1, 2, 4, ... 直到maxCores（maxCores本身总会被测到）
+     */
+    private static List<Integer> coreCounts(int maxCores) {
+        List<Integer> counts = new ArrayList<>();
+        for (int cores = 1; cores < maxCores; cores *= 2) {
+            counts.add(cores);
+        }
+        counts.add(maxCores);
+        return counts;
+    }
+
+    /**
+     * 对照组：整个文件一个FFmpeg进程，编码器使用相同核心数的线程
+     */
+    private static double singleProcess(Path source, Path output, VodTranscoder.Rendition rendition, int threads)
+            throws IOException, InterruptedException {
+        long started = System.currentTimeMillis();
+        run(List.of(
+            "ffmpeg", "-y", "-nostdin", "-nostats", "-loglevel", "error",
+            "-i", source.toString(),
+            "-map", "0:v:0", "-map", "0:a:0?",
+            "-vf", "scale=-2:" + rendition.getHeight(),
+            "-c:v", "libx264", "-profile:v", "high", "-preset", rendition.getPreset(),
+            "-crf", String.valueOf(ContentComplexity.CRF),
+            "-maxrate", rendition.getMaxrateKbps() + "k", "-bufsize", (rendition.getMaxrateKbps() * 2) + "k",
+            "-threads", String.valueOf(threads),
+            "-c:a", "aac", "-b:a", "128k",
+            output.toString()));
+        return (System.currentTimeMillis() - started) / 1000.0;
+    }
+
+    /**
+     * 生成带音频的1080p30测试源，每2秒一个关键帧（与直播输出相当）
+     */
+    static Path generateSource(Path workDir, int seconds) throws IOException, InterruptedException {
+        Path source = workDir.resolve("source.mp4");
+        System.out.println("生成 " + seconds + "s 测试源...");
+        run(List.of(
+            "ffmpeg", "-y", "-nostdin", "-nostats", "-loglevel", "error",
+            "-f", "lavfi", "-i", "testsrc2=size=1920x1080:rate=30:duration=" + seconds,
+            "-f", "lavfi", "-i", "sine=frequency=440:sample_rate=48000:duration=" + seconds,
+            "-c:v", "libx264", "-preset", "ultrafast", "-g", "60",
+            "-c:a", "aac", "-b:a", "128k",
+            "-shortest",
+            source.toString()));
+        return source;
+    }
+
+    private static void run(List<String> command) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command).inheritIO().start();
+        int exitCode = process.waitFor();
+        if (exitCode != 0) {
+            throw new IOException("FFmpeg退出码 " + exitCode + ": " + String.join(" ", command));
+        }
+    }
+}
@@ -0,0 +1,471 @@
+package com.example.transcoder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * VOD分块并行转码
+ * 单个FFmpeg进程转一整个录制文件只能用上部分核心，耗时与录制时长相当。
+ * 这里在关键帧处把源文件切成若干块，在有界工作线程池上并行编码各块的视频，
+ * 音频单独转一次，最后用concat无损拼接（-c copy）并封装成MP4
+ */
+public class VodTranscoder {
+    private static final Logger logger = Logger.getLogger(VodTranscoder.class.getName());
+
+    public static final int DEFAULT_CHUNK_SECONDS = 30;
+    private static final String VIDEO_CODEC = "libx264";
+    private static final String VIDEO_PROFILE = "high";
+    private static final String AUDIO_BITRATE = "128k";
+
+    private final int workers;
+    private final int threadsPerEncode;
+    private final int chunkSeconds;
+    private final ExecutorService pool;
+    private final List<String> priorityPrefix;
+
+    /**
+     * @param workers          同时运行的编码进程数
+     * @param threadsPerEncode 每个编码进程的线程数
+     * @param chunkSeconds     目标分块时长，实际切分点取其后的第一个关键帧
+     * @param lowPriority      是否以nice/ionice最低优先级运行，与直播转码共用节点时应开启
+     */
+    public VodTranscoder(int workers, int threadsPerEncode, int chunkSeconds, boolean lowPriority) {
+        this.workers = Math.max(1, workers);
+        this.threadsPerEncode = Math.max(1, threadsPerEncode);
+        this.chunkSeconds = Math.max(1, chunkSeconds);
+        this.priorityPrefix = lowPriority ? VodPackager.lowPriorityPrefix() : List.of();
+        this.pool = Executors.newFixedThreadPool(this.workers, runnable -> {
+            Thread thread = new Thread(runnable, "vod-transcoder");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * 把源文件转成指定的各档输出，每档一个MP4，写到outputDir
+     */
+    public Result transcode(Path source, Path outputDir, List<Rendition> renditions)
+            throws IOException, InterruptedException {
+        long started = System.currentTimeMillis();
+        double duration = probeDuration(source);
+        List<double[]> chunks = planChunks(probeKeyframes(source), duration, chunkSeconds);
+        boolean hasAudio = probeHasAudio(source);
+        Path workDir = Files.createDirectories(outputDir.resolve(".chunks-" + UUID.randomUUID()));
+        logger.info(String.format(Locale.ROOT, "VOD转码: %s，时长 %.1fs，%d 块 x %d 档，%d 路并行",
+            source, duration, chunks.size(), renditions.size(), workers));
+
+        Batch batch = new Batch();
+        try {
+            // 各档各块的视频与整段音频同时排队，块按时间顺序提交，先完成的档先拼接
+            List<Future<Path>> audio = new ArrayList<>();
+            if (hasAudio) {
+                audio.add(batch.submit(() -> encodeAudio(source, workDir)));
+            }
+            List<List<Future<Path>>> videoChunks = new ArrayList<>();
+            for (Rendition rendition : renditions) {
+                List<Future<Path>> futures = new ArrayList<>();
+                for (int i = 0; i < chunks.size(); i++) {
+                    double[] chunk = chunks.get(i);
+                    Path output = workDir.resolve(String.format(Locale.ROOT, "chunk_%d_%05d.mp4", rendition.getHeight(), i));
+                    futures.add(batch.submit(() -> encodeChunk(source, chunk[0], chunk[1], rendition, output)));
+                }
+                videoChunks.add(futures);
+            }
+
+            Path audioFile = hasAudio ? batch.await(audio).get(0) : null;
+            List<Path> outputs = new ArrayList<>();
+            for (int r = 0; r < renditions.size(); r++) {
+                Rendition rendition = renditions.get(r);
+                Path output = outputDir.resolve(rendition.fileName());
+                concat(batch.await(videoChunks.get(r)), audioFile, workDir.resolve("concat_" + rendition.getHeight() + ".txt"), output);
+                outputs.add(output);
+            }
+
+            long elapsed = System.currentTimeMillis() - started;
+            logger.info(String.format(Locale.ROOT, "VOD转码完成: %s，耗时 %.1fs（%.2fx 实时）",
+                source, elapsed / 1000.0, duration * 1000 / Math.max(1, elapsed)));
+            return new Result(outputs, chunks.size(), duration, elapsed);
+        } finally {
+            // 任一任务失败或被中断时，音频和各档的其余任务都要停下，否则仍在写工作目录
+            batch.abort();
+            deleteRecursively(workDir);
+        }
+    }
+
+    /**
+     * 一次转码提交的全部任务
+     * 任一任务失败即取消全部任务，不等轮到它所在的档；abort()取消尚未开始的任务、
+     * 中断运行中的任务（FFmpeg随之被终止），并等运行中的任务真正退出，之后才能删除它们写入的工作目录
+     */
+    private final class Batch {
+        private final List<Future<Path>> futures = new ArrayList<>();
+        private int running;
+        private boolean aborted;
+        private Exception failure;
+
+        synchronized Future<Path> submit(Callable<Path> task) {
+            Future<Path> future = pool.submit(() -> {
+                synchronized (this) {
+                    if (aborted) {
+                        throw new CancellationException();
+                    }
+                    running++;
+                }
+                try {
+                    return task.call();
+                } catch (Exception e) {
+                    fail(e);
+                    throw e;
+                } finally {
+                    synchronized (this) {
+                        running--;
+                        notifyAll();
+                    }
+                }
+            });
+            futures.add(future);
+            return future;
+        }
+
+        /**
+         * 等待一组任务，本批任一任务失败时抛出最先发生的失败
+         */
+        List<Path> await(List<Future<Path>> group) throws IOException, InterruptedException {
+            List<Path> results = new ArrayList<>();
+            try {
+                for (Future<Path> future : group) {
+                    results.add(future.get());
+                }
+                return results;
+            } catch (ExecutionException | CancellationException e) {
+                Throwable cause;
+                synchronized (this) {
+                    cause = failure != null ? failure : e instanceof ExecutionException ? e.getCause() : e;
+                }
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            }
+        }
+
+        private void fail(Exception e) {
+            List<Future<Path>> others;
+            synchronized (this) {
+                if (aborted) {
+                    return;
+                }
+                failure = e;
+                aborted = true;
+                others = List.copyOf(futures);
+            }
+            others.forEach(future -> future.cancel(true));
+        }
+
+        void abort() {
+            List<Future<Path>> all;
+            synchronized (this) {
+                aborted = true;
+                all = List.copyOf(futures);
+            }
+            all.forEach(future -> future.cancel(true));
+            boolean interrupted = false;
+            synchronized (this) {
+                while (running > 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private Path encodeChunk(Path source, double start, double end, Rendition rendition, Path output)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(List.of(
+            "ffmpeg", "-y", "-nostdin",
+            "-nostats", "-loglevel", "error",
+            "-ss", seconds(start),                   // 输入端定位到关键帧，无需解码之前的内容
+            "-i", source.toString(),
+            "-t", seconds(end - start),
+            "-map", "0:v:0",
+            "-an",
+            "-vf", "scale=-2:" + rendition.getHeight(),
+            "-c:v", VIDEO_CODEC,
+            "-profile:v", VIDEO_PROFILE,
+            "-preset", rendition.getPreset(),
+            "-crf", String.valueOf(ContentComplexity.CRF),
+            "-maxrate", rendition.getMaxrateKbps() + "k",
+            "-bufsize", (rendition.getMaxrateKbps() * 2) + "k",
+            "-threads", String.valueOf(threadsPerEncode),
+            "-f", "mp4",
+            output.toString()
+        ));
+        run(command, output.resolveSibling(output.getFileName() + ".log"));
+        return output;
+    }
+
+    private Path encodeAudio(Path source, Path workDir) throws IOException, InterruptedException {
+        Path output = workDir.resolve("audio.m4a");
+        run(List.of(
+            "ffmpeg", "-y", "-nostdin",
+            "-nostats", "-loglevel", "error",
+            "-i", source.toString(),
+            "-map", "0:a:0",
+            "-vn",
+            "-c:a", "aac",
+            "-b:a", AUDIO_BITRATE,
+            "-f", "mp4",
+            output.toString()
+        ), workDir.resolve("audio.log"));
+        return output;
+    }
+
+    /**
+     * 用concat分离器按顺序拼接各块，只重新封装
+     */
+    private void concat(List<Path> chunks, Path audio, Path listFile, Path output)
+            throws IOException, InterruptedException {
+        StringBuilder list = new StringBuilder();
+        for (Path chunk : chunks) {
+            list.append("file '").append(chunk.toAbsolutePath().toString().replace("'", "'\\''")).append("'\n");
+        }
+        Files.writeString(listFile, list, StandardCharsets.UTF_8);
+
+        Path temp = output.resolveSibling(output.getFileName() + ".tmp");
+        List<String> command = new ArrayList<>(List.of(
+            "ffmpeg", "-y", "-nostdin",
+            "-nostats", "-loglevel", "error",
+            "-f", "concat", "-safe", "0",
+            "-i", listFile.toString()
+        ));
+        if (audio != null) {
+            command.addAll(List.of("-i", audio.toString(), "-map", "0:v:0", "-map", "1:a:0"));
+        }
+        command.addAll(List.of(
+            "-c", "copy",
+            "-movflags", "+faststart",
+            "-f", "mp4",
+            temp.toString()
+        ));
+        run(command, listFile.resolveSibling(listFile.getFileName() + ".log"));
+        Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void run(List<String> ffmpegCommand, Path log) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(priorityPrefix);
+        command.addAll(ffmpegCommand);
+        Process process = new ProcessBuilder(command)
+            .redirectErrorStream(true)
+            .redirectOutput(log.toFile())
+            .start();
+        try {
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                throw new IOException("FFmpeg退出码 " + exitCode + ": " + lastLine(log));
+            }
+        } catch (InterruptedException e) {
+            // 等进程真正退出，之后工作目录才能安全删除；SIGKILL后很快结束
+            process.destroyForcibly().onExit().join();
+            throw e;
+        }
+    }
+
+    /**
+     * 规划分块：从上一个切分点起满chunkSeconds后的第一个关键帧处切开
+     * 切分点都在关键帧上，各块可以独立解码，输入端定位不会丢帧或重复
+     */
+    static List<double[]> planChunks(List<Double> keyframes, double duration, int chunkSeconds) {
+        List<double[]> chunks = new ArrayList<>();
+        double start = 0;
+        for (double keyframe : keyframes) {
+            if (keyframe - start >= chunkSeconds && duration - keyframe > 0) {
+                chunks.add(new double[] {start, keyframe});
+                start = keyframe;
+            }
+        }
+        chunks.add(new double[] {start, duration});
+        return chunks;
+    }
+
+    /**
+     * 读取视频轨全部关键帧的时间（秒），只解析包头，不解码
+     */
+    static List<Double> probeKeyframes(Path source) throws IOException, InterruptedException {
+        List<Double> keyframes = new ArrayList<>();
+        for (String line : probe(List.of(
+                "ffprobe", "-v", "error",
+                "-select_streams", "v:0",
+                "-show_entries", "packet=pts_time,flags",
+                "-of", "csv=p=0",
+                source.toString()))) {
+            String[] fields = line.split(",");
+            if (fields.length >= 2 && fields[1].contains("K") && !"N/A".equals(fields[0])) {
+                keyframes.add(Double.parseDouble(fields[0]));
+            }
+        }
+        keyframes.sort(Comparator.naturalOrder());
+        return keyframes;
+    }
+
+    static double probeDuration(Path source) throws IOException, InterruptedException {
+        List<String> lines = probe(List.of(
+            "ffprobe", "-v", "error",
+            "-show_entries", "format=duration",
+            "-of", "csv=p=0",
+            source.toString()));
+        try {
+            return Double.parseDouble(lines.get(0).trim());
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            throw new IOException("无法读取时长: " + source);
+        }
+    }
+
+    static boolean probeHasAudio(Path source) throws IOException, InterruptedException {
+        return !probe(List.of(
+            "ffprobe", "-v", "error",
+            "-select_streams", "a",
+            "-show_entries", "stream=index",
+            "-of", "csv=p=0",
+            source.toString())).isEmpty();
+    }
+
+    private static List<String> probe(List<String> command) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) {
+                    lines.add(line.trim());
+                }
+            }
+        }
+        if (process.waitFor() != 0) {
+            throw new IOException("ffprobe失败: " + command.get(command.size() - 1));
+        }
+        return lines;
+    }
+
+    private static String seconds(double value) {
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+
+    private static String lastLine(Path log) {
+        try {
+            List<String> lines = Files.readAllLines(log);
+            return lines.isEmpty() ? "" : lines.get(lines.size() - 1);
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    private static void deleteRecursively(Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    logger.log(Level.FINE, "删除临时文件失败: " + path, e);
+                }
+            });
+        } catch (IOException e) {
+            logger.log(Level.FINE, "清理分块目录失败: " + dir, e);
+        }
+    }
+
+    /**
+     * 停止转码，中断运行中的编码进程
+     */
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    public int getWorkers() { return workers; }
+    public int getThreadsPerEncode() { return threadsPerEncode; }
+
+    /**
+     * 输出档位
+     */
+    public static class Rendition {
+        private final int height;
+        private final int maxrateKbps;
+        private final String preset;
+
+        public Rendition(int height, int maxrateKbps, String preset) {
+            this.height = height;
+            this.maxrateKbps = maxrateKbps;
+            this.preset = preset;
+        }
+
+        /**
+         * 按高度取常用码率上限；VOD不受实时约束，使用比直播更慢、压缩率更高的预设
+         */
+        public static Rendition forHeight(int height) {
+            int maxrateKbps;
+            if (height >= 1080) {
+                maxrateKbps = 5000;
+            } else if (height >= 720) {
+                maxrateKbps = 2800;
+            } else if (height >= 480) {
+                maxrateKbps = 1400;
+            } else {
+                maxrateKbps = 800;
+            }
+            return new Rendition(height, maxrateKbps, "slow");
+        }
+
+        String fileName() {
+            return "recording_" + height + "p.mp4";
+        }
+
+        public int getHeight() { return height; }
+        public int getMaxrateKbps() { return maxrateKbps; }
+        public String getPreset() { return preset; }
+    }
+
+    /**
+     * 转码结果
+     */
+    public static class Result {
+        private final List<Path> outputs;
+        private final int chunkCount;
+        private final double durationSeconds;
+        private final long elapsedMillis;
+
+        Result(List<Path> outputs, int chunkCount, double durationSeconds, long elapsedMillis) {
+            this.outputs = outputs;
+            this.chunkCount = chunkCount;
+            this.durationSeconds = durationSeconds;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public List<Path> getOutputs() { return outputs; }
+        public int getChunkCount() { return chunkCount; }
+        public double getDurationSeconds() { return durationSeconds; }
+        public long getElapsedMillis() { return elapsedMillis; }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.transcoder;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 附加输出不再经tee复用，目标作为FFmpeg的独立参数传入，不需要转义；
+ * 这里确认含tee特殊字符（| [ ] :）的目标原样出现在命令中
+ */
+class StreamOutputTest {
+
+    private static final String INPUT = "http://127.0.0.1:8081/hls/live:key/master.m3u8";
+
+    @Test
+    void rtmpTargetIsPassedVerbatim() {
+        String target = "rtmp://push.example.com:1935/live/key?sign=a|b&name=[main]:1";
+        StreamOutput output = new StreamOutput(StreamOutput.Type.RTMP, target);
+
+        List<String> command = output.buildCommand(INPUT, "20261019-080000");
+
+        assertEquals(INPUT, command.get(command.indexOf("-i") + 1));
+        assertEquals(List.of("-f", "flv", target), command.subList(command.size() - 3, command.size()));
+        assertEquals(target, output.getLocation());
+    }
+
+    @Test
+    void recordingPathIsPassedVerbatim() {
+        String target = "/data/rec|ords/[live]:a";
+        StreamOutput output = new StreamOutput(StreamOutput.Type.RECORDING, target);
+
+        List<String> command = output.buildCommand(INPUT, "20261019-080000");
+
+        String file = command.get(command.size() - 1);
+        assertEquals(Path.of(target, output.getId() + "-20261019-080000.mp4").toString(), file);
+        assertEquals(file, output.getLocation());
+        assertEquals("mp4", command.get(command.indexOf("-f") + 1));
+    }
+
+    @Test
+    void copiesStreamsWithOptionalAudio() {
+        List<String> command = new StreamOutput(StreamOutput.Type.RTMP, "rtmp://a/b").buildCommand(INPUT, "x");
+
+        assertTrue(String.join(" ", command).contains("-map 0:v -map 0:a? -c copy"));
+        assertEquals("-1", command.get(command.indexOf("-live_start_index") + 1));
+    }
+
+    @Test
+    void eachLaunchRecordsToANewFile() {
+        StreamOutput output = new StreamOutput(StreamOutput.Type.RECORDING, "/data/rec");
+
+        List<String> first = output.buildCommand(INPUT, "20261019-080000");
+        List<String> second = output.buildCommand(INPUT, "20261019-080500");
+
+        assertNotEquals(first.get(first.size() - 1), second.get(second.size() - 1));
+    }
+}
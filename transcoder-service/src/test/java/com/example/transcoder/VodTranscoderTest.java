@@ -0,0 +1,55 @@
+package com.example.transcoder;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VodTranscoderTest {
+
+    private static void assertChunks(List<double[]> chunks, double duration, double[]... expected) {
+        assertEquals(expected.length, chunks.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], chunks.get(i), 1e-9, "块 " + i);
+        }
+        // 各块首尾相接、覆盖整个时长，且没有空块
+        assertEquals(0, chunks.get(0)[0], 1e-9);
+        assertEquals(duration, chunks.get(chunks.size() - 1)[1], 1e-9);
+        for (int i = 0; i < chunks.size(); i++) {
+            assertTrue(chunks.get(i)[1] > chunks.get(i)[0], "块 " + i + " 为空");
+            if (i > 0) {
+                assertEquals(chunks.get(i - 1)[1], chunks.get(i)[0], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    void keyframeAtZeroDoesNotOpenAnEmptyChunk() {
+        List<double[]> chunks = VodTranscoder.planChunks(List.of(0.0, 2.0, 4.0, 6.0, 8.0, 10.0), 11, 4);
+
+        assertChunks(chunks, 11, new double[] {0, 4}, new double[] {4, 8}, new double[] {8, 11});
+    }
+
+    @Test
+    void noKeyframesIsOneChunk() {
+        assertChunks(VodTranscoder.planChunks(List.of(), 30, 4), 30, new double[] {0, 30});
+    }
+
+    @Test
+    void finalKeyframeAtDurationDoesNotOpenAnEmptyChunk() {
+        List<double[]> chunks = VodTranscoder.planChunks(List.of(0.0, 5.0, 10.0), 10, 5);
+
+        assertChunks(chunks, 10, new double[] {0, 5}, new double[] {5, 10});
+    }
+
+    @Test
+    void cutsAtTheFirstKeyframeAfterChunkSeconds() {
+        // 关键帧间隔不规则：不满4秒不切，满4秒后在下一个关键帧处切
+        List<double[]> chunks = VodTranscoder.planChunks(List.of(0.0, 1.0, 2.5, 3.9, 6.5, 7.0, 12.0), 13, 4);
+
+        assertChunks(chunks, 13, new double[] {0, 6.5}, new double[] {6.5, 12}, new double[] {12, 13});
+    }
+}
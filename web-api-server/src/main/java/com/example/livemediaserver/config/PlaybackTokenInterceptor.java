@@ -0,0 +1,109 @@
+package com.example.livemediaserver.config;
+
+import com.example.livemediaserver.service.PlaybackTokenService;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseCookie;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.util.UriUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Requires a valid playback token on the handlers marked {@link RequiresPlaybackToken} when
+ * {@code livemediaserver.playback.tokens.enabled} is set.
+ *
+ * The check is bound to the handler Spring MVC selected, not to the request URI, so whatever
+ * spelling of a path reaches a media handler (percent-escapes, path parameters) is checked
+ * against the decoded stream id that handler serves. Path parameters are rejected outright on
+ * media requests; no player sends them.
+ *
+ * Players resolve segment URIs against the playlist URL and drop its query string, so the token
+ * given as {@code ?token=} on the playlist is handed back as a cookie scoped to the stream's path;
+ * the following playlist reloads and segment requests carry it without the playlists having to
+ * be rewritten per viewer.
+ */
+@Component
+public class PlaybackTokenInterceptor implements HandlerInterceptor {
+
+    public static final String COOKIE_NAME = "playback_token";
+
+    @Autowired
+    private PlaybackTokenService tokenService;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws IOException {
+        if (!tokenService.isEnabled() || !(handler instanceof HandlerMethod method)
+                || !method.hasMethodAnnotation(RequiresPlaybackToken.class)) {
+            return true;
+        }
+        if (request.getRequestURI().indexOf(';') >= 0) {
+            reject(response, HttpServletResponse.SC_BAD_REQUEST, "Path parameters are not allowed");
+            return false;
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, String> variables =
+                (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        String streamId = variables != null ? variables.get("streamId") : null;
+        if (streamId == null) {
+            reject(response, HttpServletResponse.SC_FORBIDDEN, "Invalid or expired playback token");
+            return false;
+        }
+
+        String token = request.getParameter("token");
+        boolean fromQuery = token != null;
+        if (!fromQuery) {
+            token = cookie(request);
+        }
+        if (token == null) {
+            reject(response, HttpServletResponse.SC_UNAUTHORIZED, "Playback token required");
+            return false;
+        }
+        if (!tokenService.verify(token, streamId)) {
+            reject(response, HttpServletResponse.SC_FORBIDDEN, "Invalid or expired playback token");
+            return false;
+        }
+
+        if (fromQuery && !token.equals(cookie(request))) {
+            long remaining = tokenService.expiresOf(token) - System.currentTimeMillis() / 1000;
+            response.addHeader(HttpHeaders.SET_COOKIE, ResponseCookie.from(COOKIE_NAME, token)
+                    .path(request.getContextPath() + "/streams/"
+                            + UriUtils.encodePathSegment(streamId, StandardCharsets.UTF_8) + "/")
+                    .maxAge(Duration.ofSeconds(Math.max(0, remaining)))
+                    .httpOnly(true)
+                    .sameSite("Lax")
+                    .build().toString());
+        }
+        request.setAttribute(PlaybackTokenService.TOKEN_ATTRIBUTE, token);
+        return true;
+    }
+
+    private static String cookie(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies != null) {
+            for (Cookie cookie : cookies) {
+                if (COOKIE_NAME.equals(cookie.getName())) {
+                    return cookie.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void reject(HttpServletResponse response, int status, String message) throws IOException {
+        response.setStatus(status);
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.getWriter().write("{\"success\":false,\"message\":\"" + message + "\"}");
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.livemediaserver.config;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a handler serving a stream's playlists or segments; when playback tokens are enabled it
+ * is only invoked for requests carrying a valid token for the {@code streamId} path variable
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RequiresPlaybackToken {
+}
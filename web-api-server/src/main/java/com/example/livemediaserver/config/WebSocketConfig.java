@@ -0,0 +1,48 @@
+package com.example.livemediaserver.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
+import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
+import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+
+/**
+ * STOMP over WebSocket at /api/ws for dashboards.
+ *
+ * Topics:
+ * - /topic/streams: lifecycle events (started, stopped, updated) of all streams
+ * - /topic/streams/{streamId}: lifecycle events of one stream
+ * - /topic/streams/{streamId}/stats: periodic stats deltas of one stream
+ *
+ * Each session has a bounded send buffer and send time; a session that falls behind by more
+ * than either is closed instead of holding messages (and memory) for everyone else.
+ */
+@Configuration
+@EnableWebSocketMessageBroker
+public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
+
+    @Value("${livemediaserver.websocket.send-time-limit-ms:10000}")
+    private int sendTimeLimitMillis;
+
+    @Value("${livemediaserver.websocket.send-buffer-kb:512}")
+    private int sendBufferKilobytes;
+
+    @Override
+    public void registerStompEndpoints(StompEndpointRegistry registry) {
+        registry.addEndpoint("/ws").setAllowedOriginPatterns("*");
+    }
+
+    @Override
+    public void configureMessageBroker(MessageBrokerRegistry registry) {
+        registry.enableSimpleBroker("/topic");
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setSendTimeLimit(sendTimeLimitMillis)
+                .setSendBufferSizeLimit(sendBufferKilobytes * 1024)
+                .setMessageSizeLimit(64 * 1024); // clients only send SUBSCRIBE frames
+    }
+}
@@ -1,11 +1,26 @@
 package com.example.livemediaserver.controller;
 
+import com.example.livemediaserver.config.RequiresPlaybackToken;
+import com.example.livemediaserver.model.MediaFile;
 import com.example.livemediaserver.model.Stream;
+import com.example.livemediaserver.model.StreamEvent;
+import com.example.livemediaserver.model.StreamEventResult;
+import com.example.livemediaserver.model.StreamStatus;
+import com.example.livemediaserver.service.PlaybackTokenService;
+import com.example.livemediaserver.service.PlaylistCache;
+import com.example.livemediaserver.service.StatsHistory;
 import com.example.livemediaserver.service.StreamService;
+import com.example.livemediaserver.service.TranscoderClient;
+import com.example.livemediaserver.service.ViewerTracker;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
 
@@ -23,9 +38,27 @@ import java.util.Optional;
 @CrossOrigin(origins = "*") // Allow CORS for frontend integration
 public class StreamController {
 
+    private static final int MAX_EVENT_BATCH = 5000;
+    private static final int MAX_PAGE_SIZE = 200;
+
     @Autowired
     private StreamService streamService;
 
+    @Autowired
+    private TranscoderClient transcoderClient;
+
+    @Autowired
+    private StatsHistory statsHistory;
+
+    @Autowired
+    private PlaybackTokenService playbackTokens;
+
+    @Autowired
+    private MediaFileResponder mediaFileResponder;
+
+    @Autowired
+    private ViewerTracker viewerTracker;
+
     /**
      * Get all active streams
      */
@@ -35,6 +68,58 @@ public class StreamController {
         return ResponseEntity.ok(streams);
     }
 
+    /**
+     * List streams page by page, newest first, as lightweight summaries
+     *
+     * @param status comma-separated statuses, active streams by default
+     * @param after  nextCursor of the previous page
+     */
+    @GetMapping("/page")
+    public ResponseEntity<Object> listStreams(
+            @RequestParam(defaultValue = "LIVE,OFFLINE") List<StreamStatus> status,
+            @RequestParam(defaultValue = "50") int limit,
+            @RequestParam(required = false) String after) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().body(java.util.Map.of(
+                "success", false,
+                "message", "limit must be between 1 and " + MAX_PAGE_SIZE
+            ));
+        }
+        try {
+            return ResponseEntity.ok(streamService.listStreams(status, limit, after));
+        } catch (IllegalArgumentException e) {
+            return invalidCursor();
+        }
+    }
+
+    /**
+     * Search streams by name (case-insensitive substring), newest first
+     */
+    @GetMapping("/search")
+    public ResponseEntity<Object> searchStreams(
+            @RequestParam String q,
+            @RequestParam(defaultValue = "50") int limit,
+            @RequestParam(required = false) String after) {
+        if (q.isBlank() || limit < 1 || limit > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().body(java.util.Map.of(
+                "success", false,
+                "message", "q is required and limit must be between 1 and " + MAX_PAGE_SIZE
+            ));
+        }
+        try {
+            return ResponseEntity.ok(streamService.searchStreams(q, limit, after));
+        } catch (IllegalArgumentException e) {
+            return invalidCursor();
+        }
+    }
+
+    private static ResponseEntity<Object> invalidCursor() {
+        return ResponseEntity.badRequest().body(java.util.Map.of(
+            "success", false,
+            "message", "Invalid cursor"
+        ));
+    }
+
     /**
      * Get specific stream by ID
      */
@@ -56,13 +141,68 @@ public class StreamController {
     }
 
     /**
-     * Start transcoding for a stream
+     * Recent stats of a live stream as time series
+     *
+     * @param resolution 1s (last 5 minutes), 10s (last hour) or 1m (last 6 hours)
+     */
+    @GetMapping("/{streamId}/stats/history")
+    public ResponseEntity<Object> getStatsHistory(
+            @PathVariable String streamId,
+            @RequestParam(defaultValue = "10s") String resolution) {
+        try {
+            return statsHistory.getHistory(streamId, resolution)
+                    .<ResponseEntity<Object>>map(ResponseEntity::ok)
+                    .orElse(ResponseEntity.notFound().build());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(java.util.Map.of(
+                "success", false,
+                "message", e.getMessage()
+            ));
+        }
+    }
+
+    /**
+     * Issue a signed playback token for a stream and the playlist URL carrying it. Only for the
+     * authenticated front end deciding who may watch: requires the issuer key as Bearer credential.
+     */
+    @PostMapping("/{streamId}/playback-token")
+    public ResponseEntity<Object> issuePlaybackToken(
+            @PathVariable String streamId,
+            @RequestHeader(value = "Authorization", required = false) String authorization) {
+        if (!playbackTokens.isEnabled()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(java.util.Map.of(
+                "success", false,
+                "message", "Playback tokens are not enabled"
+            ));
+        }
+        if (!playbackTokens.isIssuer(authorization)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(java.util.Map.of(
+                "success", false,
+                "message", "Issuer key required"
+            ));
+        }
+        Optional<Stream> stream = streamService.getStreamById(streamId);
+        if (stream.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        long expires = System.currentTimeMillis() / 1000 + playbackTokens.getTtlSeconds();
+        String token = playbackTokens.issue(streamId, expires);
+        return ResponseEntity.ok(java.util.Map.of(
+            "streamId", streamId,
+            "token", token,
+            "expiresAt", expires,
+            "hlsUrl", stream.get().getHlsUrl() + "?token=" + token
+        ));
+    }
+
+    /**
+     * Start transcoding for a stream; the transcoder is called in the background
      */
     @PostMapping("/{streamId}/transcode")
     public ResponseEntity<String> startTranscoding(@PathVariable String streamId) {
         boolean success = streamService.startTranscoding(streamId);
         if (success) {
-            return ResponseEntity.ok("Transcoding started for stream: " + streamId);
+            return ResponseEntity.accepted().body("Transcoding requested for stream: " + streamId);
         } else {
             return ResponseEntity.badRequest().body("Failed to start transcoding for stream: " + streamId);
         }
@@ -82,29 +222,193 @@ public class StreamController {
     }
 
     /**
-     * Serve HLS playlist (.m3u8 file)
+     * Serve HLS playlist (.m3u8 file): master playlist.m3u8 or per-track media playlists
      */
-    @GetMapping("/{streamId}/playlist.m3u8")
-    public ResponseEntity<String> getHlsPlaylist(@PathVariable String streamId) {
-        Optional<String> playlist = streamService.getHlsPlaylist(streamId);
-        return playlist.map(content -> ResponseEntity.ok()
-                          .header("Content-Type", "application/vnd.apple.mpegurl")
-                          .body(content))
-                      .orElse(ResponseEntity.notFound().build());
+    @GetMapping("/{streamId}/{playlistName}.m3u8")
+    @RequiresPlaybackToken
+    public ResponseEntity<byte[]> getHlsPlaylist(
+            @PathVariable String streamId,
+            @PathVariable String playlistName,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch,
+            @RequestHeader(value = "Accept-Encoding", required = false) String acceptEncoding,
+            HttpServletRequest request) {
+        return playlistResponse(streamId, streamService.getHlsPlaylist(streamId, playlistName),
+                "application/vnd.apple.mpegurl", ifNoneMatch, acceptEncoding, request);
+    }
+
+    /**
+     * Serve DASH manifest (.mpd file) referencing the same CMAF segments as HLS
+     */
+    @GetMapping("/{streamId}/manifest.mpd")
+    @RequiresPlaybackToken
+    public ResponseEntity<byte[]> getDashManifest(
+            @PathVariable String streamId,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch,
+            @RequestHeader(value = "Accept-Encoding", required = false) String acceptEncoding,
+            HttpServletRequest request) {
+        return playlistResponse(streamId, streamService.getDashManifest(streamId),
+                "application/dash+xml", ifNoneMatch, acceptEncoding, request);
+    }
+
+    /**
+     * Write a cached playlist: 304 when the client holds this version, otherwise the
+     * precompressed variant when the client accepts gzip
+     */
+    private ResponseEntity<byte[]> playlistResponse(String streamId, Optional<PlaylistCache.Playlist> cached,
+                                                    String contentType, String ifNoneMatch, String acceptEncoding,
+                                                    HttpServletRequest request) {
+        if (cached.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        viewerTracker.record(streamId, request);
+        PlaylistCache.Playlist playlist = cached.get();
+        boolean gzip = playlist.getGzip() != null && acceptsGzip(acceptEncoding);
+        // Either validator names the same version of the text
+        boolean notModified = ifNoneMatch != null && (ifNoneMatch.contains(playlist.getEtag())
+                || (playlist.getGzipEtag() != null && ifNoneMatch.contains(playlist.getGzipEtag())));
+        ResponseEntity.BodyBuilder response = ResponseEntity
+                .status(notModified ? HttpStatus.NOT_MODIFIED : HttpStatus.OK)
+                .header("Cache-Control", "public, max-age=" + playlist.getMaxAgeSeconds())
+                .header("Vary", "Accept-Encoding")
+                .eTag(gzip ? playlist.getGzipEtag() : playlist.getEtag());
+        if (notModified) {
+            return response.build();
+        }
+        if (gzip) {
+            response.header("Content-Encoding", "gzip");
+        }
+        return response.header("Content-Type", contentType)
+                .body(gzip ? playlist.getGzip() : playlist.getBody());
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip")) {
+                return parts.length < 2 || !parts[1].replace(" ", "").matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
     }
 
     /**
      * Serve HLS segments (.ts files)
      */
     @GetMapping("/{streamId}/{segmentName}.ts")
-    public ResponseEntity<byte[]> getHlsSegment(
+    @RequiresPlaybackToken
+    public void getHlsSegment(
+            @PathVariable String streamId,
+            @PathVariable String segmentName,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        writeMediaFile(streamId, streamService.getHlsSegment(streamId, segmentName), "video/mp2t", request, response);
+    }
+
+    /**
+     * Serve CMAF media segments (.m4s files)
+     */
+    @GetMapping("/{streamId}/{segmentName}.m4s")
+    @RequiresPlaybackToken
+    public void getCmafSegment(
+            @PathVariable String streamId,
+            @PathVariable String segmentName,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        writeMediaFile(streamId, streamService.getCmafFile(streamId, segmentName + ".m4s"), "video/iso.segment",
+                request, response);
+    }
+
+    /**
+     * Serve CMAF initialization segments (.mp4 files)
+     */
+    @GetMapping("/{streamId}/{initName}.mp4")
+    @RequiresPlaybackToken
+    public void getCmafInitSegment(
+            @PathVariable String streamId,
+            @PathVariable String initName,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        writeMediaFile(streamId, streamService.getCmafFile(streamId, initName + ".mp4"), "video/mp4", request, response);
+    }
+
+    /**
+     * Stream a media file from disk (sendfile when available), honouring Range and If-None-Match
+     */
+    private void writeMediaFile(String streamId, Optional<MediaFile> file, String contentType,
+                                HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (file.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        viewerTracker.record(streamId, request);
+        mediaFileResponder.write(file.get(), contentType, request, response);
+    }
+
+    /**
+     * Serve the latest live thumbnail, generated by the transcoder from its own decode
+     */
+    @GetMapping("/{streamId}/thumbnail.jpg")
+    public ResponseEntity<byte[]> getThumbnail(
+            @PathVariable String streamId,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+        return previewImage(streamId, false, ifNoneMatch);
+    }
+
+    /**
+     * Serve the rolling preview sprite (last minute of thumbnails in a grid)
+     */
+    @GetMapping("/{streamId}/sprite.jpg")
+    public ResponseEntity<byte[]> getPreviewSprite(
             @PathVariable String streamId,
-            @PathVariable String segmentName) {
-        Optional<byte[]> segment = streamService.getHlsSegment(streamId, segmentName);
-        return segment.map(content -> ResponseEntity.ok()
-                         .header("Content-Type", "video/mp2t")
-                         .body(content))
-                     .orElse(ResponseEntity.notFound().build());
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+        return previewImage(streamId, true, ifNoneMatch);
+    }
+
+    private ResponseEntity<byte[]> previewImage(String streamId, boolean sprite, String ifNoneMatch) {
+        return transcoderClient.getPreviewImage(streamId, sprite, ifNoneMatch)
+                .map(image -> {
+                    ResponseEntity.BodyBuilder response = ResponseEntity
+                            .status(image.isNotModified() ? HttpStatus.NOT_MODIFIED : HttpStatus.OK)
+                            .header("Cache-Control", image.getCacheControl() != null
+                                    ? image.getCacheControl() : "public, max-age=5");
+                    if (image.getEtag() != null) {
+                        response.eTag(image.getEtag());
+                    }
+                    if (image.isNotModified()) {
+                        return response.<byte[]>build();
+                    }
+                    return response.contentType(MediaType.IMAGE_JPEG).body(image.getData());
+                })
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Handle an ordered batch of stream events from the RTMP server.
+     * Events carry per-stream sequence numbers, so a batch that timed out can be resent as is.
+     * All changes are committed in one transaction before the per-event results are returned.
+     */
+    @PostMapping("/events")
+    public ResponseEntity<Object> handleStreamEvents(@RequestBody List<StreamEvent> events) {
+        if (events.size() > MAX_EVENT_BATCH) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(java.util.Map.of(
+                "success", false,
+                "message", "At most " + MAX_EVENT_BATCH + " events per batch"
+            ));
+        }
+        try {
+            List<StreamEventResult> results = streamService.applyEvents(events);
+            return ResponseEntity.ok(results);
+        } catch (Exception e) {
+            System.err.println("❌ Failed to apply batch of " + events.size() + " stream events: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(java.util.Map.of(
+                "success", false,
+                "message", "Batch not persisted yet, it is retried in the background and can be resent safely: "
+                        + e.getMessage()
+            ));
+        }
     }
 
     /**
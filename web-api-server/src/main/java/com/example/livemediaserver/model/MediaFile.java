@@ -0,0 +1,55 @@
+package com.example.livemediaserver.model;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * A media file on disk (segment or initialization segment) resolved for delivery.
+ * Holds metadata and, when the segment cache has it, the content in a read-only buffer;
+ * otherwise the content is streamed from the file when the response is written.
+ */
+public class MediaFile {
+
+    private final Path path;
+    private final long size;
+    private final long lastModified;
+    private final ByteBuffer content;
+
+    public MediaFile(Path path, long size, long lastModified) {
+        this(path, size, lastModified, null);
+    }
+
+    public MediaFile(Path path, long size, long lastModified, ByteBuffer content) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.content = content;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Cached content, or null when the file is streamed from disk
+     */
+    public ByteBuffer getContent() {
+        return content;
+    }
+
+    /**
+     * Strong validator: segments are written once under a new name, so size and
+     * modification time identify the content
+     */
+    public String getEtag() {
+        return "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+    }
+}
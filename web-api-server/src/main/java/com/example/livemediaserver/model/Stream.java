@@ -7,7 +7,11 @@ import java.time.LocalDateTime;
  * Entity representing a live stream
  */
 @Entity
-@Table(name = "streams")
+@Table(name = "streams", indexes = {
+        // Keyset pagination of listings by status, newest first
+        @Index(name = "idx_streams_status_created", columnList = "status, created_at, id"),
+        @Index(name = "idx_streams_started_at", columnList = "started_at")
+})
 public class Stream {
     
     @Id
@@ -21,6 +25,9 @@ public class Stream {
     
     @Column(name = "hls_url")
     private String hlsUrl;
+
+    @Column(name = "thumbnail_url")
+    private String thumbnailUrl;
     
     @Enumerated(EnumType.STRING)
     private StreamStatus status;
@@ -46,6 +53,10 @@ public class Stream {
     @Column(name = "transcoding_enabled")
     private Boolean transcodingEnabled = false;
 
+    // Sequence number of the last control-plane event applied, for idempotent redelivery
+    @Column(name = "last_event_sequence")
+    private Long lastEventSequence;
+
     // Constructors
     public Stream() {
         this.createdAt = LocalDateTime.now();
@@ -58,6 +69,14 @@ public class Stream {
         this.name = name;
     }
 
+    /**
+     * Copy of another stream's state, detached from the persistence context
+     */
+    public Stream(Stream other) {
+        this.id = other.id;
+        copyStateFrom(other);
+    }
+
     // Getters and Setters
     public String getId() {
         return id;
@@ -91,6 +110,14 @@ public class Stream {
         this.hlsUrl = hlsUrl;
     }
 
+    public String getThumbnailUrl() {
+        return thumbnailUrl;
+    }
+
+    public void setThumbnailUrl(String thumbnailUrl) {
+        this.thumbnailUrl = thumbnailUrl;
+    }
+
     public StreamStatus getStatus() {
         return status;
     }
@@ -155,6 +182,14 @@ public class Stream {
         this.transcodingEnabled = transcodingEnabled;
     }
 
+    public Long getLastEventSequence() {
+        return lastEventSequence;
+    }
+
+    public void setLastEventSequence(Long lastEventSequence) {
+        this.lastEventSequence = lastEventSequence;
+    }
+
     // Utility methods
     public void start() {
         this.status = StreamStatus.LIVE;
@@ -170,6 +205,25 @@ public class Stream {
         return this.status == StreamStatus.LIVE;
     }
 
+    /**
+     * Take over every column except the id
+     */
+    public void copyStateFrom(Stream other) {
+        this.name = other.name;
+        this.rtmpUrl = other.rtmpUrl;
+        this.hlsUrl = other.hlsUrl;
+        this.thumbnailUrl = other.thumbnailUrl;
+        this.status = other.status;
+        this.createdAt = other.createdAt;
+        this.startedAt = other.startedAt;
+        this.endedAt = other.endedAt;
+        this.viewerCount = other.viewerCount;
+        this.bitrate = other.bitrate;
+        this.resolution = other.resolution;
+        this.transcodingEnabled = other.transcodingEnabled;
+        this.lastEventSequence = other.lastEventSequence;
+    }
+
     @Override
     public String toString() {
         return "Stream{" +
@@ -0,0 +1,81 @@
+package com.example.livemediaserver.model;
+
+/**
+ * A control-plane event from the RTMP server, delivered in batches to /streams/events.
+ *
+ * The sequence number increases with every event the RTMP server emits for a stream key; an
+ * event whose sequence is not above the last one applied to the stream is a redelivery and is
+ * skipped, so a batch can be retried as a whole after a timeout.
+ */
+public class StreamEvent {
+
+    public enum Type {
+        START,
+        STOP,
+        UPDATE
+    }
+
+    private Type type;
+    private String streamKey;
+    private Long sequence;
+    private String clientIp;
+    private Long bitrate;
+    private String resolution;
+    private String timestamp;
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public String getStreamKey() {
+        return streamKey;
+    }
+
+    public void setStreamKey(String streamKey) {
+        this.streamKey = streamKey;
+    }
+
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(Long sequence) {
+        this.sequence = sequence;
+    }
+
+    public String getClientIp() {
+        return clientIp;
+    }
+
+    public void setClientIp(String clientIp) {
+        this.clientIp = clientIp;
+    }
+
+    public Long getBitrate() {
+        return bitrate;
+    }
+
+    public void setBitrate(Long bitrate) {
+        this.bitrate = bitrate;
+    }
+
+    public String getResolution() {
+        return resolution;
+    }
+
+    public void setResolution(String resolution) {
+        this.resolution = resolution;
+    }
+
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(String timestamp) {
+        this.timestamp = timestamp;
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.livemediaserver.model;
+
+/**
+ * Outcome of one event of a batch, in the order the events were sent
+ */
+public class StreamEventResult {
+
+    public enum Outcome {
+        /** Applied to the stream */
+        APPLIED,
+        /** Already applied earlier (sequence not above the stream's last one); nothing changed */
+        DUPLICATE,
+        /** Stop or update for a stream that does not exist */
+        NOT_FOUND,
+        /** Missing type, stream key or sequence */
+        REJECTED
+    }
+
+    private final String streamKey;
+    private final Long sequence;
+    private final Outcome outcome;
+    private final String message;
+
+    public StreamEventResult(StreamEvent event, Outcome outcome, String message) {
+        this.streamKey = event.getStreamKey();
+        this.sequence = event.getSequence();
+        this.outcome = outcome;
+        this.message = message;
+    }
+
+    public String getStreamKey() {
+        return streamKey;
+    }
+
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.livemediaserver.model;
+
+import java.util.List;
+
+/**
+ * One page of a keyset-paginated listing; pass nextCursor as "after" to get the next page
+ */
+public class StreamPage {
+
+    private final List<StreamSummary> items;
+    private final String nextCursor;
+
+    public StreamPage(List<StreamSummary> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<StreamSummary> getItems() {
+        return items;
+    }
+
+    /**
+     * Cursor of the last item, null on the last page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.livemediaserver.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Lightweight view of a stream for listings and search results, selected directly by the
+ * query instead of loading entities
+ */
+public class StreamSummary {
+
+    private final String id;
+    private final String name;
+    private final StreamStatus status;
+    private final LocalDateTime createdAt;
+    private final LocalDateTime startedAt;
+    private final Integer viewerCount;
+    private final String hlsUrl;
+    private final String thumbnailUrl;
+
+    public StreamSummary(String id, String name, StreamStatus status, LocalDateTime createdAt,
+                         LocalDateTime startedAt, Integer viewerCount, String hlsUrl, String thumbnailUrl) {
+        this.id = id;
+        this.name = name;
+        this.status = status;
+        this.createdAt = createdAt;
+        this.startedAt = startedAt;
+        this.viewerCount = viewerCount;
+        this.hlsUrl = hlsUrl;
+        this.thumbnailUrl = thumbnailUrl;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public StreamStatus getStatus() {
+        return status;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public LocalDateTime getStartedAt() {
+        return startedAt;
+    }
+
+    public Integer getViewerCount() {
+        return viewerCount;
+    }
+
+    public String getHlsUrl() {
+        return hlsUrl;
+    }
+
+    public String getThumbnailUrl() {
+        return thumbnailUrl;
+    }
+}
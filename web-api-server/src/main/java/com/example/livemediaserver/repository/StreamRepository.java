@@ -2,11 +2,14 @@ package com.example.livemediaserver.repository;
 
 import com.example.livemediaserver.model.Stream;
 import com.example.livemediaserver.model.StreamStatus;
+import com.example.livemediaserver.model.StreamSummary;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -36,11 +39,6 @@ public interface StreamRepository extends JpaRepository<Stream, String> {
      */
     List<Stream> findByCreatedAtAfter(LocalDateTime date);
 
-    /**
-     * Find streams by name containing (case insensitive)
-     */
-    List<Stream> findByNameContainingIgnoreCase(String name);
-
     /**
      * Count streams by status
      */
@@ -51,4 +49,40 @@ public interface StreamRepository extends JpaRepository<Stream, String> {
      */
     @Query("SELECT s FROM Stream s WHERE s.status = 'LIVE' AND s.startedAt < :cutoffTime")
     List<Stream> findLongRunningStreams(LocalDateTime cutoffTime);
+
+    /**
+     * First page of streams with the given statuses, newest first
+     */
+    @Query("SELECT new com.example.livemediaserver.model.StreamSummary(s.id, s.name, s.status, s.createdAt, "
+            + "s.startedAt, s.viewerCount, s.hlsUrl, s.thumbnailUrl) FROM Stream s "
+            + "WHERE s.status IN :statuses ORDER BY s.createdAt DESC, s.id DESC")
+    List<StreamSummary> findSummaries(Collection<StreamStatus> statuses, Pageable page);
+
+    /**
+     * Next page after the (createdAt, id) of the last stream returned; seeks in the
+     * status/created_at index instead of skipping rows like an offset would
+     */
+    @Query("SELECT new com.example.livemediaserver.model.StreamSummary(s.id, s.name, s.status, s.createdAt, "
+            + "s.startedAt, s.viewerCount, s.hlsUrl, s.thumbnailUrl) FROM Stream s "
+            + "WHERE s.status IN :statuses AND (s.createdAt < :createdAt OR (s.createdAt = :createdAt AND s.id < :id)) "
+            + "ORDER BY s.createdAt DESC, s.id DESC")
+    List<StreamSummary> findSummariesAfter(Collection<StreamStatus> statuses, LocalDateTime createdAt, String id,
+                                           Pageable page);
+
+    /**
+     * Summaries of the given streams, in no particular order
+     */
+    @Query("SELECT new com.example.livemediaserver.model.StreamSummary(s.id, s.name, s.status, s.createdAt, "
+            + "s.startedAt, s.viewerCount, s.hlsUrl, s.thumbnailUrl) FROM Stream s WHERE s.id IN :ids")
+    List<StreamSummary> findSummariesByIdIn(Collection<String> ids);
+
+    /**
+     * Ids and names of all streams in creation order, for the name search index
+     */
+    List<NameView> findAllByOrderByCreatedAtAscIdAsc();
+
+    interface NameView {
+        String getId();
+        String getName();
+    }
 }
@@ -0,0 +1,95 @@
+package com.example.livemediaserver.service;
+
+import java.io.IOException;
+
+/**
+ * Consecutive-failure circuit breaker.
+ *
+ * After {@code failureThreshold} failures in a row the circuit opens and calls fail fast for
+ * {@code openMillis}; then a single probe call is let through, and its outcome closes the
+ * circuit or opens it again.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+    private boolean probeInFlight;
+
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Whether a call may go ahead; every permitted call must report its outcome
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probeInFlight) {
+                return false;
+            }
+            probeInFlight = true;
+            return true;
+        }
+        return state == State.CLOSED;
+    }
+
+    public synchronized void recordSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+        probeInFlight = false;
+    }
+
+    public synchronized void recordFailure() {
+        if (state == State.HALF_OPEN || ++failures >= failureThreshold) {
+            System.err.println("⚡ Circuit " + name + " opened for " + openMillis + " ms");
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            failures = 0;
+            probeInFlight = false;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Milliseconds until an open circuit lets a probe through, 0 when it is not open
+     */
+    public synchronized long getRetryDelayMillis() {
+        return state == State.OPEN ? Math.max(0, openedAt + openMillis - System.currentTimeMillis()) : 0;
+    }
+
+    /**
+     * A call refused without being attempted because the circuit is open
+     */
+    public static class OpenException extends IOException {
+        private final long retryDelayMillis;
+
+        public OpenException(String name, long retryDelayMillis) {
+            super("circuit " + name + " open");
+            this.retryDelayMillis = retryDelayMillis;
+        }
+
+        public long getRetryDelayMillis() {
+            return retryDelayMillis;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.livemediaserver.service;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Signed, expiring playback tokens scoped to one stream.
+ *
+ * A token is {@code <kid>.<expires>.<signature>}: the id of the signing key, the expiry in epoch
+ * seconds and the base64url HMAC-SHA256 of key id, stream id and expiry. Verifying one needs
+ * nothing but the keys, so protecting segment requests costs no database lookup; signatures are
+ * compared in constant time. Tokens are signed with the active key and accepted with any
+ * configured key, so a key is rotated by adding the new one, making it active and removing the
+ * old one once the tokens it signed have expired. Recently verified tokens are remembered in a
+ * small fixed-size table, so the segment requests of a session skip the HMAC.
+ *
+ * Tokens are meant to be issued by an authenticated front end, either by signing them itself
+ * with a shared key or by calling the issuing endpoint with the issuer key; this service does
+ * not know who may watch what.
+ */
+@Service
+public class PlaybackTokenService {
+
+    /**
+     * Request attribute holding the verified token, identifying the playback session
+     */
+    public static final String TOKEN_ATTRIBUTE = PlaybackTokenService.class.getName() + ".token";
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    @Value("${livemediaserver.playback.tokens.enabled:false}")
+    private boolean enabled;
+
+    // kid:secret pairs, comma-separated
+    @Value("${livemediaserver.playback.tokens.keys:}")
+    private String keySpec;
+
+    @Value("${livemediaserver.playback.tokens.active-key:}")
+    private String activeKey;
+
+    @Value("${livemediaserver.playback.tokens.ttl-seconds:3600}")
+    private long ttlSeconds;
+
+    @Value("${livemediaserver.playback.tokens.cache-size:4096}")
+    private int cacheSize;
+
+    // Bearer credential of the front end allowed to request tokens; empty disables issuing over HTTP
+    @Value("${livemediaserver.playback.tokens.issuer-key:}")
+    private String issuerKey;
+
+    private final Map<String, ThreadLocal<Mac>> keys = new LinkedHashMap<>();
+    private AtomicReferenceArray<Verified> verified;
+
+    @PostConstruct
+    public void start() {
+        for (String entry : keySpec.split(",")) {
+            int separator = entry.indexOf(':');
+            if (separator > 0) {
+                String kid = entry.substring(0, separator).trim();
+                byte[] secret = entry.substring(separator + 1).trim().getBytes(StandardCharsets.UTF_8);
+                keys.put(kid, ThreadLocal.withInitial(() -> newMac(secret)));
+            }
+        }
+        if (activeKey.isBlank() && !keys.isEmpty()) {
+            activeKey = keys.keySet().iterator().next();
+        }
+        if (enabled && !keys.containsKey(activeKey)) {
+            throw new IllegalStateException("Playback tokens are enabled but the active signing key is not configured");
+        }
+        // Power of two, so a slot is picked with a mask
+        verified = new AtomicReferenceArray<>(Integer.highestOneBit(Math.max(1, cacheSize - 1)) << 1);
+        if (enabled) {
+            System.out.println("🔐 Playback tokens required, signing key " + activeKey + ", " + keys.size() + " keys accepted");
+        }
+    }
+
+    /**
+     * Whether playback requests must carry a token
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    /**
+     * Whether an Authorization header carries the issuer key; always false when none is configured
+     */
+    public boolean isIssuer(String authorization) {
+        return !issuerKey.isEmpty() && authorization != null && authorization.startsWith("Bearer ")
+                && constantTimeEquals(issuerKey, authorization.substring("Bearer ".length()));
+    }
+
+    /**
+     * Sign a token for a stream with the active key
+     *
+     * @param expires expiry in epoch seconds
+     */
+    public String issue(String streamId, long expires) {
+        return activeKey + "." + expires + "." + sign(activeKey, streamId, expires);
+    }
+
+    /**
+     * Check that a token was signed for this stream with a configured key and has not expired
+     */
+    public boolean verify(String token, String streamId) {
+        long now = System.currentTimeMillis() / 1000;
+        int hash = token.hashCode() * 0x9E3779B9;
+        int slot = (hash ^ (hash >>> 16)) & (verified.length() - 1);
+        Verified cached = verified.get(slot);
+        if (cached != null && cached.expires > now && cached.streamId.equals(streamId)
+                && constantTimeEquals(cached.token, token)) {
+            return true;
+        }
+
+        int first = token.indexOf('.');
+        int second = token.indexOf('.', first + 1);
+        if (first <= 0 || second <= first + 1) {
+            return false;
+        }
+        String kid = token.substring(0, first);
+        long expires;
+        try {
+            expires = Long.parseLong(token, first + 1, second, 10);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (expires <= now || !keys.containsKey(kid)
+                || !constantTimeEquals(sign(kid, streamId, expires), token.substring(second + 1))) {
+            return false;
+        }
+        verified.set(slot, new Verified(token, streamId, expires));
+        return true;
+    }
+
+    /**
+     * Expiry of a token in epoch seconds; only meaningful for a verified token
+     */
+    public long expiresOf(String token) {
+        int first = token.indexOf('.');
+        return Long.parseLong(token, first + 1, token.indexOf('.', first + 1), 10);
+    }
+
+    private String sign(String kid, String streamId, long expires) {
+        Mac mac = keys.get(kid).get();
+        byte[] signature = mac.doFinal((kid + "." + streamId + "." + expires).getBytes(StandardCharsets.UTF_8));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+    }
+
+    /**
+     * Compares without returning early, so the time taken reveals nothing of where they differ
+     */
+    private static boolean constantTimeEquals(String expected, String actual) {
+        int difference = expected.length() ^ actual.length();
+        for (int i = 0; i < expected.length(); i++) {
+            difference |= expected.charAt(i) ^ (i < actual.length() ? actual.charAt(i) : 0);
+        }
+        return difference == 0;
+    }
+
+    private static Mac newMac(byte[] secret) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(new SecretKeySpec(secret, ALGORITHM));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e); // required of every JRE
+        }
+    }
+
+    private static class Verified {
+        final String token;
+        final String streamId;
+        final long expires;
+
+        Verified(String token, String streamId, long expires) {
+            this.token = token;
+            this.streamId = streamId;
+            this.expires = expires;
+        }
+    }
+}
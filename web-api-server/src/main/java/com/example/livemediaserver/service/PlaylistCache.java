@@ -0,0 +1,217 @@
+package com.example.livemediaserver.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encoded playlists and manifests, ready to be written as they are.
+ *
+ * Every viewer polls the live playlists once per segment, so each version is encoded once:
+ * UTF-8 bytes, a gzip variant, a strong ETag and the Cache-Control max-age are built on the
+ * first request after the file changed and shared by all following requests. An entry stays
+ * valid for as long as the segment index holds the same text it was built from, and is dropped
+ * when the index reports the file changed or deleted. Playlists read from the transcoder's segment
+ * store are kept apart, together with the store's ETag of the version they were built from.
+ */
+@Service
+public class PlaylistCache {
+
+    private static final Pattern TARGET_DURATION = Pattern.compile("#EXT-X-TARGETDURATION:(\\d+)");
+    private static final Pattern MINIMUM_UPDATE_PERIOD = Pattern.compile("minimumUpdatePeriod=\"PT([0-9.]+)S\"");
+    // Finished playlists (EXT-X-ENDLIST, static MPD) no longer change
+    private static final long FINISHED_MAX_AGE_SECONDS = 86400;
+    // Below this size gzip saves less than the Content-Encoding header costs
+    private static final int MIN_COMPRESS_BYTES = 256;
+
+    @Autowired
+    private SegmentIndexService segmentIndex;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${livemediaserver.media.hls-segment-duration:6}")
+    private long segmentDuration;
+
+    private final ConcurrentMap<String, Playlist> entries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Playlist> stored = new ConcurrentHashMap<>();
+    private final AtomicLong encodes = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        segmentIndex.addListener(this::invalidate);
+
+        Gauge.builder("livemediaserver.playlist.cache.entries", this, cache -> cache.entries.size() + cache.stored.size())
+                .description("Playlists and manifests held encoded").register(meterRegistry);
+        FunctionCounter.builder("livemediaserver.playlist.cache.encodes", encodes, AtomicLong::get)
+                .description("Playlist versions encoded and compressed").register(meterRegistry);
+    }
+
+    /**
+     * Return the encoded form of a playlist's current text, encoding it when it changed
+     */
+    public Playlist get(String streamId, String fileName, String text) {
+        String key = streamId + "/" + fileName;
+        Playlist playlist = entries.get(key);
+        // The index replaces the text on every write, so the same instance means the same version
+        if (playlist != null && playlist.source == text) {
+            return playlist;
+        }
+        playlist = encode(fileName, text);
+        if (segmentIndex.isActive()) {
+            // Without the index every request reads a new copy and nothing would be reused
+            entries.put(key, playlist);
+        }
+        return playlist;
+    }
+
+    /**
+     * The encoded copy of the last version read from the segment store, or null
+     */
+    public Playlist getStored(String streamId, String fileName) {
+        return stored.get(streamId + "/" + fileName);
+    }
+
+    /**
+     * Encode a version read from the segment store and keep it until the store reports a newer one
+     */
+    public Playlist putStored(String streamId, String fileName, String text, String storeEtag) {
+        Playlist playlist = encode(fileName, text);
+        playlist.storeEtag = storeEtag;
+        if (storeEtag != null) {
+            stored.put(streamId + "/" + fileName, playlist);
+        }
+        return playlist;
+    }
+
+    /**
+     * Drop the encoded copy of a playlist that changed or was deleted
+     */
+    public void invalidate(String streamId, String fileName) {
+        if (fileName.endsWith(".m3u8") || fileName.endsWith(".mpd")) {
+            entries.remove(streamId + "/" + fileName);
+            stored.remove(streamId + "/" + fileName);
+        }
+    }
+
+    private Playlist encode(String fileName, String text) {
+        encodes.incrementAndGet();
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        CRC32C crc = new CRC32C();
+        crc.update(body);
+        String tag = Integer.toHexString(body.length) + "-" + Long.toHexString(crc.getValue());
+
+        byte[] gzip = null;
+        if (body.length >= MIN_COMPRESS_BYTES) {
+            byte[] compressed = gzip(body);
+            gzip = compressed.length < body.length ? compressed : null;
+        }
+        return new Playlist(text, body, gzip, "\"" + tag + "\"", gzip != null ? "\"" + tag + "-gz\"" : null,
+                maxAge(fileName, text));
+    }
+
+    /**
+     * Half the reload interval, so a cache in front of the server never holds a playlist for
+     * longer than the player waits before reloading it
+     */
+    private long maxAge(String fileName, String text) {
+        if (fileName.endsWith(".mpd")) {
+            if (!text.contains("type=\"dynamic\"")) {
+                return FINISHED_MAX_AGE_SECONDS;
+            }
+            Matcher period = MINIMUM_UPDATE_PERIOD.matcher(text);
+            double updatePeriod = period.find() ? Double.parseDouble(period.group(1)) : segmentDuration;
+            return Math.max(1, (long) (updatePeriod / 2));
+        }
+        if (text.contains("#EXT-X-ENDLIST")) {
+            return FINISHED_MAX_AGE_SECONDS;
+        }
+        Matcher target = TARGET_DURATION.matcher(text);
+        // Master playlists carry no target duration; they change only with the rendition ladder
+        return target.find() ? Math.max(1, Long.parseLong(target.group(1)) / 2) : Math.max(1, segmentDuration);
+    }
+
+    private static byte[] gzip(byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(body);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // not thrown by in-memory streams
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * One version of a playlist or manifest, encoded for delivery
+     */
+    public static class Playlist {
+        private final String source;
+        private final byte[] body;
+        private final byte[] gzip;
+        private final String etag;
+        private final String gzipEtag;
+        private final long maxAgeSeconds;
+        // ETag the segment store gave this version, when it was read from there
+        private String storeEtag;
+
+        Playlist(String source, byte[] body, byte[] gzip, String etag, String gzipEtag, long maxAgeSeconds) {
+            this.source = source;
+            this.body = body;
+            this.gzip = gzip;
+            this.etag = etag;
+            this.gzipEtag = gzipEtag;
+            this.maxAgeSeconds = maxAgeSeconds;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        /**
+         * Gzip-compressed body, or null when compressing does not pay off
+         */
+        public byte[] getGzip() {
+            return gzip;
+        }
+
+        /**
+         * Strong validator of the uncompressed body: length and CRC-32C of the content
+         */
+        public String getEtag() {
+            return etag;
+        }
+
+        /**
+         * Validator of the gzip variant; a different encoding is a different representation
+         */
+        public String getGzipEtag() {
+            return gzipEtag;
+        }
+
+        public long getMaxAgeSeconds() {
+            return maxAgeSeconds;
+        }
+
+        /**
+         * The segment store's validator of the version this was built from, or null when read from disk
+         */
+        public String getStoreEtag() {
+            return storeEtag;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.livemediaserver.service;
+
+import com.example.livemediaserver.model.MediaFile;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bounded cache of hot media segments, held in direct buffers outside the Java heap.
+ *
+ * Viewers of a live stream all fetch the same few newest segments, so those are kept in memory
+ * and served without touching the filesystem. Eviction is newest-first plus frequency: only the
+ * oldest entries are eviction candidates, and among them the least requested one goes first,
+ * so the live edge always stays cached while a popular older segment (e.g. a replay) survives
+ * longer than one nobody asks for. Concurrent misses on the same file share a single disk read.
+ * Entries are dropped as soon as the segment index reports the file changed or deleted.
+ */
+@Service
+public class SegmentCache {
+
+    // Oldest entries considered per eviction; the least requested among them is evicted
+    private static final int EVICTION_CANDIDATES = 8;
+    // Files larger than this share of the cache are streamed from disk instead
+    private static final int MAX_ENTRY_FRACTION = 8;
+
+    @Autowired
+    private SegmentIndexService segmentIndex;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${livemediaserver.media.segment-cache-mb:256}")
+    private long maxMegabytes;
+
+    private final ConcurrentMap<Path, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Path, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private long maxBytes;
+    private Counter evictions;
+    private Counter coalesced;
+
+    @PostConstruct
+    public void start() {
+        maxBytes = maxMegabytes * 1024 * 1024;
+        segmentIndex.addListener(this::invalidate);
+
+        Gauge.builder("livemediaserver.segment.cache.bytes", totalBytes, AtomicLong::get)
+                .description("Bytes of segments held in direct memory").baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("livemediaserver.segment.cache.entries", entries, ConcurrentMap::size)
+                .description("Segments held in the cache").register(meterRegistry);
+        Gauge.builder("livemediaserver.segment.cache.hit.ratio", this, SegmentCache::getHitRatio)
+                .description("Share of segment requests served from memory").register(meterRegistry);
+        FunctionCounter.builder("livemediaserver.segment.cache.hits", hits, AtomicLong::get)
+                .description("Segment requests served from memory").register(meterRegistry);
+        FunctionCounter.builder("livemediaserver.segment.cache.misses", misses, AtomicLong::get)
+                .description("Segment requests that read the file from disk").register(meterRegistry);
+        evictions = Counter.builder("livemediaserver.segment.cache.evictions")
+                .description("Segments evicted to stay within the size limit").register(meterRegistry);
+        coalesced = Counter.builder("livemediaserver.segment.cache.coalesced")
+                .description("Misses that waited for a read already in progress").register(meterRegistry);
+    }
+
+    /**
+     * Return the file with its content attached when it is cached or small enough to cache.
+     * Falls back to the file as given (streamed from disk) when caching is disabled or the read fails.
+     */
+    public MediaFile get(MediaFile file) {
+        if (maxBytes <= 0 || file.getSize() > maxBytes / MAX_ENTRY_FRACTION) {
+            return file;
+        }
+        Path path = file.getPath();
+        Entry entry = entries.get(path);
+        if (entry != null && entry.etag.equals(file.getEtag())) {
+            entry.requests.incrementAndGet();
+            hits.incrementAndGet();
+            return entry.toMediaFile();
+        }
+
+        CompletableFuture<Entry> mine = new CompletableFuture<>();
+        CompletableFuture<Entry> inFlight = loading.putIfAbsent(path, mine);
+        if (inFlight != null) {
+            coalesced.increment();
+            hits.incrementAndGet();
+            Entry loaded = inFlight.join();
+            return loaded != null ? loaded.toMediaFile() : file;
+        }
+
+        misses.incrementAndGet();
+        Entry loaded = null;
+        try {
+            loaded = load(file);
+            put(loaded);
+            return loaded.toMediaFile();
+        } catch (IOException e) {
+            // Deleted or unreadable; the responder reports it
+            return file;
+        } finally {
+            mine.complete(loaded);
+            loading.remove(path, mine);
+        }
+    }
+
+    /**
+     * Drop the cached copy of a file that changed or was deleted
+     */
+    public synchronized void invalidate(String streamId, String fileName) {
+        entries.values().removeIf(entry -> {
+            Path parent = entry.path.getParent();
+            if (entry.path.getFileName().toString().equals(fileName)
+                    && parent != null && parent.getFileName().toString().equals(streamId)) {
+                totalBytes.addAndGet(-entry.size);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    public double getHitRatio() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    private Entry load(MediaFile file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.getPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // read until full
+            }
+            buffer.flip();
+            MediaFile loaded = new MediaFile(file.getPath(), buffer.remaining(), file.getLastModified());
+            return new Entry(file.getPath(), loaded.getEtag(), file.getLastModified(), buffer.asReadOnlyBuffer());
+        }
+    }
+
+    private synchronized void put(Entry entry) {
+        Entry previous = entries.put(entry.path, entry);
+        if (previous != null) {
+            totalBytes.addAndGet(-previous.size);
+        }
+        totalBytes.addAndGet(entry.size);
+
+        while (totalBytes.get() > maxBytes && !entries.isEmpty()) {
+            List<Entry> oldest = new ArrayList<>(entries.values());
+            oldest.sort(Comparator.comparingLong(candidate -> candidate.lastModified));
+            Entry victim = oldest.subList(0, Math.min(EVICTION_CANDIDATES, oldest.size())).stream()
+                    .filter(candidate -> candidate != entry)
+                    .min(Comparator.comparingInt(candidate -> candidate.requests.get()))
+                    .orElse(entry);
+            if (entries.remove(victim.path, victim)) {
+                totalBytes.addAndGet(-victim.size);
+                evictions.increment();
+            }
+        }
+    }
+
+    private static class Entry {
+        final Path path;
+        final String etag;
+        final long lastModified;
+        final long size;
+        final ByteBuffer content;
+        final AtomicInteger requests = new AtomicInteger(1);
+
+        Entry(Path path, String etag, long lastModified, ByteBuffer content) {
+            this.path = path;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.size = content.remaining();
+            this.content = content;
+        }
+
+        MediaFile toMediaFile() {
+            // Each request gets its own position and limit over the shared memory
+            return new MediaFile(path, size, lastModified, content.duplicate());
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package com.example.livemediaserver.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * In-memory index of the media files the transcoder writes under the storage path.
+ *
+ * One WatchService (inotify on Linux) follows the storage root and every stream directory,
+ * so playlist and segment lookups are answered from memory instead of probing the filesystem
+ * on each request. Playlists and manifests are small and change once per segment, so their
+ * text is kept in the index; segments are indexed by sequence number with size, duration and
+ * creation time. The directories are only listed on startup and when the event queue overflows.
+ */
+@Service
+public class SegmentIndexService {
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("seg_(\\d+)_(\\d+)\\.m4s");
+
+    @Value("${livemediaserver.media.storage-path:../media-data}")
+    private String mediaStoragePath;
+
+    @Value("${livemediaserver.media.watch-enabled:true}")
+    private boolean watchEnabled;
+
+    private final ConcurrentMap<String, StreamFiles> streams = new ConcurrentHashMap<>();
+    private final ConcurrentMap<WatchKey, String> watchedStreams = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private Path root;
+    private WatchKey rootKey;
+    private WatchService watchService;
+    private volatile boolean active;
+
+    @PostConstruct
+    public void start() {
+        if (!watchEnabled) {
+            return;
+        }
+        try {
+            root = Paths.get(mediaStoragePath).toAbsolutePath().normalize();
+            Files.createDirectories(root);
+            watchService = FileSystems.getDefault().newWatchService();
+            rootKey = root.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+            rescanRoot();
+
+            Thread thread = new Thread(this::run, "segment-index-watcher");
+            thread.setDaemon(true);
+            thread.start();
+            active = true;
+            System.out.println("👀 Watching media storage: " + root);
+        } catch (IOException e) {
+            System.err.println("❌ Failed to watch media storage, falling back to direct file access: " + e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        active = false;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+
+    /**
+     * Whether lookups are served from the index. When false, callers read the filesystem directly.
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Look up a file of a stream. An empty result means the file does not exist.
+     */
+    public Optional<IndexedFile> lookup(String streamId, String fileName) {
+        StreamFiles files = streams.get(streamId);
+        return files != null ? Optional.ofNullable(files.byName.get(fileName)) : Optional.empty();
+    }
+
+    /**
+     * Segments of one track (the %v in seg_%v_%05d.m4s) currently on disk, ordered by sequence number
+     */
+    public List<IndexedFile> getSegments(String streamId, int variant) {
+        StreamFiles files = streams.get(streamId);
+        ConcurrentSkipListMap<Long, IndexedFile> segments = files != null ? files.variants.get(variant) : null;
+        return segments != null ? new ArrayList<>(segments.values()) : List.of();
+    }
+
+    /**
+     * Register a callback for file changes, e.g. to invalidate cached responses
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    private void run() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            for (WatchEvent<?> event : key.pollEvents()) {
+                try {
+                    handleEvent(key, event);
+                } catch (RuntimeException e) {
+                    System.err.println("❌ Failed to index " + event.context() + ": " + e.getMessage());
+                }
+            }
+            if (!key.reset()) {
+                String streamId = watchedStreams.remove(key);
+                // The directory may already have been recreated and registered under a new key
+                if (streamId != null && !watchedStreams.containsValue(streamId)) {
+                    streams.remove(streamId);
+                }
+            }
+        }
+    }
+
+    private void handleEvent(WatchKey key, WatchEvent<?> event) {
+        boolean overflow = event.kind() == StandardWatchEventKinds.OVERFLOW;
+        boolean deleted = event.kind() == StandardWatchEventKinds.ENTRY_DELETE;
+
+        if (key == rootKey) {
+            if (overflow) {
+                rescanRoot();
+            } else if (deleted) {
+                streams.remove(((Path) event.context()).toString());
+            } else {
+                watchStream(root.resolve((Path) event.context()));
+            }
+            return;
+        }
+
+        String streamId = watchedStreams.get(key);
+        StreamFiles files = streamId != null ? streams.get(streamId) : null;
+        if (files == null) {
+            return;
+        }
+        if (overflow) {
+            files.rescan();
+            return;
+        }
+        String fileName = ((Path) event.context()).toString();
+        if (deleted) {
+            files.remove(fileName);
+        } else {
+            files.update(fileName);
+        }
+        for (Listener listener : listeners) {
+            listener.onFileChanged(streamId, fileName);
+        }
+    }
+
+    private void rescanRoot() {
+        try (Stream<Path> dirs = Files.list(root)) {
+            dirs.filter(Files::isDirectory).forEach(this::watchStream);
+        } catch (IOException e) {
+            System.err.println("❌ Failed to list media storage: " + e.getMessage());
+        }
+    }
+
+    private void watchStream(Path dir) {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        String streamId = dir.getFileName().toString();
+        try {
+            WatchKey key = dir.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            watchedStreams.put(key, streamId);
+            // Register first, then list, so files written in between are not missed
+            streams.computeIfAbsent(streamId, id -> new StreamFiles(dir)).rescan();
+        } catch (IOException e) {
+            System.err.println("❌ Failed to watch stream directory " + dir + ": " + e.getMessage());
+        }
+    }
+
+    private static boolean isPlaylist(String fileName) {
+        return fileName.endsWith(".m3u8") || fileName.endsWith(".mpd");
+    }
+
+    /**
+     * Callback for changes of indexed files
+     */
+    public interface Listener {
+        void onFileChanged(String streamId, String fileName);
+    }
+
+    /**
+     * Files of one stream directory
+     */
+    private static class StreamFiles {
+        private final Path dir;
+        private final ConcurrentMap<String, IndexedFile> byName = new ConcurrentHashMap<>();
+        private final ConcurrentMap<Integer, ConcurrentSkipListMap<Long, IndexedFile>> variants = new ConcurrentHashMap<>();
+
+        StreamFiles(Path dir) {
+            this.dir = dir;
+        }
+
+        void rescan() {
+            Set<String> present = new HashSet<>();
+            try (Stream<Path> paths = Files.list(dir)) {
+                paths.forEach(path -> present.add(path.getFileName().toString()));
+            } catch (IOException e) {
+                System.err.println("❌ Failed to list " + dir + ": " + e.getMessage());
+                return;
+            }
+            present.forEach(this::update);
+            byName.keySet().stream()
+                    .filter(fileName -> !present.contains(fileName))
+                    .toList()
+                    .forEach(this::remove);
+        }
+
+        void update(String fileName) {
+            if (fileName.endsWith(".tmp")) {
+                return;
+            }
+            Path path = dir.resolve(fileName);
+            try {
+                long size = Files.size(path);
+                String text = isPlaylist(fileName) ? Files.readString(path) : null;
+                IndexedFile previous = byName.get(fileName);
+                IndexedFile file = new IndexedFile(path, size,
+                        previous != null ? previous.getCreatedAt() : System.currentTimeMillis(),
+                        previous != null ? previous.getDuration() : 0, text);
+                byName.put(fileName, file);
+
+                Matcher matcher = SEGMENT_NAME.matcher(fileName);
+                if (matcher.matches()) {
+                    variants.computeIfAbsent(Integer.parseInt(matcher.group(1)), v -> new ConcurrentSkipListMap<>())
+                            .put(Long.parseLong(matcher.group(2)), file);
+                } else if (text != null && fileName.endsWith(".m3u8")) {
+                    applyDurations(text);
+                }
+            } catch (IOException e) {
+                // Deleted or replaced before it could be read; the following event settles it
+                remove(fileName);
+            }
+        }
+
+        void remove(String fileName) {
+            byName.remove(fileName);
+            Matcher matcher = SEGMENT_NAME.matcher(fileName);
+            if (matcher.matches()) {
+                ConcurrentSkipListMap<Long, IndexedFile> segments = variants.get(Integer.parseInt(matcher.group(1)));
+                if (segments != null) {
+                    segments.remove(Long.parseLong(matcher.group(2)));
+                }
+            }
+        }
+
+        /**
+         * Copy #EXTINF durations from a media playlist onto the segments it lists
+         */
+        private void applyDurations(String playlist) {
+            double duration = 0;
+            for (String line : playlist.split("\n")) {
+                line = line.trim();
+                if (line.startsWith("#EXTINF:")) {
+                    int comma = line.indexOf(',');
+                    try {
+                        duration = Double.parseDouble(line.substring(8, comma > 0 ? comma : line.length()));
+                    } catch (NumberFormatException e) {
+                        duration = 0;
+                    }
+                } else if (!line.isEmpty() && !line.startsWith("#")) {
+                    IndexedFile segment = byName.get(line);
+                    if (segment != null && segment.getDuration() == 0 && duration > 0) {
+                        segment.duration = duration;
+                    }
+                    duration = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * An indexed media file
+     */
+    public static class IndexedFile {
+        private final Path path;
+        private final long size;
+        private final long createdAt;
+        private volatile double duration;
+        private final String text;
+
+        IndexedFile(Path path, long size, long createdAt, double duration, String text) {
+            this.path = path;
+            this.size = size;
+            this.createdAt = createdAt;
+            this.duration = duration;
+            this.text = text;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getCreatedAt() {
+            return createdAt;
+        }
+
+        public double getDuration() {
+            return duration;
+        }
+
+        /**
+         * Content of playlists and manifests, null for media files
+         */
+        public String getText() {
+            return text;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.livemediaserver.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Read-only client for the transcoder's in-memory segment store.
+ *
+ * FFmpeg uploads playlists and segments to the transcoder, which keeps them in memory and serves
+ * them at {@code /hls/{streamKey}/{fileName}} on its control port; writing them through to the
+ * shared media directory is optional. Playlists and segments are read from there first, and the
+ * caller falls back to the media directory only when the store does not hold the file or cannot be
+ * reached. Calls go through their own circuit breaker, so an unreachable transcoder costs one
+ * timeout per breaker window rather than one per viewer request.
+ */
+@Service
+public class SegmentStoreClient {
+
+    @Value("${livemediaserver.transcoder.enabled:true}")
+    private boolean transcoderEnabled;
+
+    @Value("${livemediaserver.media.segment-store.enabled:true}")
+    private boolean storeEnabled;
+
+    @Value("${livemediaserver.transcoder.base-url:http://localhost:8081}")
+    private String baseUrl;
+
+    @Value("${livemediaserver.media.segment-store.timeout-ms:1000}")
+    private long timeoutMs;
+
+    @Value("${livemediaserver.transcoder.circuit-failure-threshold:5}")
+    private int circuitFailureThreshold;
+
+    @Value("${livemediaserver.transcoder.circuit-open-ms:30000}")
+    private long circuitOpenMillis;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(1))
+            .build();
+
+    private CircuitBreaker circuitBreaker;
+    private Counter hits;
+    private Counter misses;
+
+    @PostConstruct
+    public void start() {
+        circuitBreaker = new CircuitBreaker("segment-store", circuitFailureThreshold, circuitOpenMillis);
+        Gauge.builder("livemediaserver.segment.store.circuit.open", circuitBreaker,
+                        breaker -> breaker.getState() == CircuitBreaker.State.CLOSED ? 0 : 1)
+                .description("1 while reads from the transcoder's segment store fail fast").register(meterRegistry);
+        hits = Counter.builder("livemediaserver.segment.store.reads").tag("result", "hit")
+                .description("Playlist and segment reads answered by the transcoder's segment store")
+                .register(meterRegistry);
+        misses = Counter.builder("livemediaserver.segment.store.reads").tag("result", "miss")
+                .description("Playlist and segment reads that fell back to the media directory")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return transcoderEnabled && storeEnabled;
+    }
+
+    /**
+     * Read a playlist or segment from the store.
+     * Passes the caller's store ETag through so an unchanged playlist comes back as 304 without a body.
+     *
+     * @return empty when the store does not hold the file, is disabled or cannot be reached
+     */
+    public Optional<StoredFile> fetch(String streamId, String fileName, String ifNoneMatch) {
+        if (!isEnabled() || !circuitBreaker.allowRequest()) {
+            return Optional.empty();
+        }
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(baseUrl + "/hls/"
+                        + URLEncoder.encode(streamId, StandardCharsets.UTF_8).replace("+", "%20") + "/"
+                        + URLEncoder.encode(fileName, StandardCharsets.UTF_8).replace("+", "%20")))
+                .timeout(Duration.ofMillis(timeoutMs))
+                .GET();
+        if (ifNoneMatch != null) {
+            request.header("If-None-Match", ifNoneMatch);
+        }
+
+        try {
+            HttpResponse<byte[]> response = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+            // 404 is a store miss, not a failure of the transcoder
+            if (response.statusCode() >= 500) {
+                circuitBreaker.recordFailure();
+            } else {
+                circuitBreaker.recordSuccess();
+            }
+            if (response.statusCode() != 200 && response.statusCode() != 304) {
+                misses.increment();
+                return Optional.empty();
+            }
+            hits.increment();
+            return Optional.of(new StoredFile(
+                    response.statusCode() == 304,
+                    response.body(),
+                    response.headers().firstValue("ETag").orElse(null),
+                    response.headers().firstValueAsLong("X-Stored-At").orElse(System.currentTimeMillis())));
+        } catch (IOException e) {
+            circuitBreaker.recordFailure();
+            misses.increment();
+            System.err.println("❌ Failed to read " + streamId + "/" + fileName + " from the segment store: " + e.getMessage());
+            return Optional.empty();
+        } catch (InterruptedException e) {
+            circuitBreaker.recordFailure();
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * A playlist or segment as held by the store
+     */
+    public static class StoredFile {
+        private final boolean notModified;
+        private final byte[] data;
+        private final String etag;
+        private final long storedAt;
+
+        public StoredFile(boolean notModified, byte[] data, String etag, long storedAt) {
+            this.notModified = notModified;
+            this.data = data;
+            this.etag = etag;
+            this.storedAt = storedAt;
+        }
+
+        /**
+         * True when the store answered 304 to the ETag passed in; the data is then empty
+         */
+        public boolean isNotModified() {
+            return notModified;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * The store's validator of this version, to be passed back on the next read
+         */
+        public String getEtag() {
+            return etag;
+        }
+
+        /**
+         * When the transcoder received the file, in epoch milliseconds
+         */
+        public long getStoredAt() {
+            return storedAt;
+        }
+    }
+}
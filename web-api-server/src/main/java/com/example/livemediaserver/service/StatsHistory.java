@@ -0,0 +1,202 @@
+package com.example.livemediaserver.service;
+
+import com.example.livemediaserver.model.StreamStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Recent history of viewers, bitrate and transcoder speed of each live stream.
+ *
+ * Every live stream is sampled once per second into three fixed-size rings of floats: 1 second
+ * points for the last 5 minutes, 10 second points for the last hour and 1 minute points for the
+ * last 6 hours. A sample is folded into the running average of the current point of each ring,
+ * so the coarser resolutions are downsampled as the samples arrive; recording one allocates
+ * nothing. A stream's history takes about 12 KB and is dropped once the stream is no longer
+ * live, so memory is bounded by the number of live streams.
+ */
+@Service
+public class StatsHistory {
+
+    private static final String[] METRICS = {"viewers", "bitrate", "speed"};
+    private static final String[] RESOLUTIONS = {"1s", "10s", "1m"};
+    private static final int[] RESOLUTION_SECONDS = {1, 10, 60};
+    private static final int[] POINTS = {300, 360, 360};
+
+    @Autowired
+    private StreamStateCache streamStates;
+
+    @Autowired
+    private ViewerTracker viewerTracker;
+
+    @Autowired
+    private TranscoderClient transcoderClient;
+
+    @Value("${livemediaserver.transcoder.enabled:true}")
+    private boolean transcoderEnabled;
+
+    private final ConcurrentMap<String, History> histories = new ConcurrentHashMap<>();
+    // Only touched by the sampling task
+    private long round;
+
+    /**
+     * Record one sample of every live stream and drop the history of streams that are not live
+     */
+    @Scheduled(fixedRate = 1000)
+    public void sample() {
+        long second = System.currentTimeMillis() / 1000;
+        long current = ++round;
+        streamStates.forEach(StreamStatus.LIVE, stream -> {
+            History history = histories.computeIfAbsent(stream.getId(), id -> new History());
+            Long bitrate = stream.getBitrate();
+            history.add(second, current, viewerTracker.getViewerCount(stream.getId()),
+                    bitrate != null ? bitrate : Float.NaN);
+        });
+        histories.values().removeIf(history -> history.round != current);
+    }
+
+    /**
+     * Refresh the transcoder speed of the live streams; samples repeat it until the next poll
+     */
+    @Scheduled(fixedRateString = "${livemediaserver.stats.transcoder-poll-ms:5000}")
+    public void pollTranscoderSpeeds() {
+        if (!transcoderEnabled || histories.isEmpty()) {
+            return;
+        }
+        transcoderClient.getSpeeds().thenAccept(speeds -> histories.forEach((streamId, history) -> {
+            Double speed = speeds.get(streamId);
+            history.speed = speed != null ? speed.floatValue() : Float.NaN;
+        })).exceptionally(e -> {
+            // Unreachable transcoder: keep the last speed, the circuit breaker reports the outage
+            return null;
+        });
+    }
+
+    /**
+     * History of a live stream at one resolution, oldest point first; null marks missing values
+     *
+     * @param resolution 1s, 10s or 1m
+     * @throws IllegalArgumentException for an unknown resolution
+     */
+    public Optional<Map<String, Object>> getHistory(String streamId, String resolution) {
+        int tier = Arrays.asList(RESOLUTIONS).indexOf(resolution);
+        if (tier < 0) {
+            throw new IllegalArgumentException("resolution must be one of " + String.join(", ", RESOLUTIONS));
+        }
+        History history = histories.get(streamId);
+        if (history == null) {
+            return Optional.empty();
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("streamId", streamId);
+        result.put("resolution", resolution);
+        result.put("intervalSeconds", RESOLUTION_SECONDS[tier]);
+        history.copyTo(tier, result);
+        return Optional.of(result);
+    }
+
+    private static class History {
+        final Tier[] tiers = new Tier[RESOLUTIONS.length];
+        volatile float speed = Float.NaN;
+        // Sampling round that last saw the stream live
+        volatile long round;
+
+        History() {
+            for (int i = 0; i < tiers.length; i++) {
+                tiers[i] = new Tier(RESOLUTION_SECONDS[i], POINTS[i]);
+            }
+        }
+
+        synchronized void add(long second, long round, float viewers, float bitrate) {
+            this.round = round;
+            for (Tier tier : tiers) {
+                tier.add(second, viewers, bitrate, speed);
+            }
+        }
+
+        synchronized void copyTo(int tier, Map<String, Object> result) {
+            tiers[tier].copyTo(result);
+        }
+    }
+
+    /**
+     * Ring of points at one resolution; point i holds its metrics at values[i * METRICS.length + m]
+     */
+    private static class Tier {
+        final int seconds;
+        final int points;
+        final float[] values;
+        // Running sums and counts of the newest point, per metric
+        final double[] sums = new double[METRICS.length];
+        final int[] counts = new int[METRICS.length];
+        long newest = -1;
+        long oldest = -1;
+
+        Tier(int seconds, int points) {
+            this.seconds = seconds;
+            this.points = points;
+            this.values = new float[points * METRICS.length];
+            Arrays.fill(values, Float.NaN);
+        }
+
+        void add(long second, float viewers, float bitrate, float speed) {
+            long point = second / seconds;
+            if (point < newest) {
+                return; // clock stepped back
+            }
+            if (point > newest) {
+                // Points skipped since the newest one, e.g. after a pause, have no value
+                for (long skipped = Math.max(newest + 1, point - points + 1); skipped <= point; skipped++) {
+                    Arrays.fill(values, slot(skipped), slot(skipped) + METRICS.length, Float.NaN);
+                }
+                Arrays.fill(sums, 0);
+                Arrays.fill(counts, 0);
+                newest = point;
+                if (oldest < 0) {
+                    oldest = point;
+                }
+            }
+            int base = slot(point);
+            fold(base, 0, viewers);
+            fold(base, 1, bitrate);
+            fold(base, 2, speed);
+        }
+
+        private void fold(int base, int metric, float value) {
+            if (!Float.isNaN(value)) {
+                sums[metric] += value;
+                counts[metric]++;
+                values[base + metric] = (float) (sums[metric] / counts[metric]);
+            }
+        }
+
+        private int slot(long point) {
+            return (int) (point % points) * METRICS.length;
+        }
+
+        void copyTo(Map<String, Object> result) {
+            long first = Math.max(oldest, newest - points + 1);
+            int size = newest < 0 ? 0 : (int) (newest - first + 1);
+            result.put("startTime", first * seconds * 1000);
+            result.put("points", size);
+            for (int metric = 0; metric < METRICS.length; metric++) {
+                List<Float> column = new ArrayList<>(size);
+                for (long point = first; point <= newest; point++) {
+                    float value = values[slot(point) + metric];
+                    column.add(Float.isNaN(value) ? null : value);
+                }
+                result.put(METRICS[metric], column);
+            }
+        }
+    }
+}
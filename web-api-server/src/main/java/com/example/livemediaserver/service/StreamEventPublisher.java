@@ -0,0 +1,134 @@
+package com.example.livemediaserver.service;
+
+import com.example.livemediaserver.model.Stream;
+import com.example.livemediaserver.model.StreamStatus;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Pushes stream lifecycle events and stats deltas to WebSocket subscribers.
+ *
+ * Every event is serialized to JSON once, and the messages sent to each of its topics share the
+ * payload bytes. Fan-out is still per subscriber: the simple broker builds a message for every
+ * subscription and the STOMP encoder writes a complete frame, payload included, for every
+ * session, so what is saved is the JSON serialization, not the per-session encoding and copy.
+ *
+ * Stats are sampled periodically from the in-memory stream state and only the fields that
+ * changed since the previous push are sent; a dashboard gets the full picture once from
+ * GET /streams/{id}/stats and then keeps it current from the deltas.
+ */
+@Service
+public class StreamEventPublisher {
+
+    public static final String STREAMS_TOPIC = "/topic/streams";
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private StreamStateCache streamStates;
+
+    @Autowired
+    private ViewerTracker viewerTracker;
+
+    private final ConcurrentMap<String, Map<String, Object>> lastStats = new ConcurrentHashMap<>();
+
+    public void streamStarted(Stream stream) {
+        publishLifecycle("started", stream);
+    }
+
+    public void streamStopped(Stream stream) {
+        publishLifecycle("stopped", stream);
+    }
+
+    public void streamUpdated(Stream stream) {
+        publishLifecycle("updated", stream);
+    }
+
+    /**
+     * Send what changed in the stats of each live stream since the last run
+     */
+    @Scheduled(fixedRateString = "${livemediaserver.websocket.stats-interval-ms:2000}")
+    public void publishStatsDeltas() {
+        Set<String> live = new HashSet<>();
+        for (Stream stream : streamStates.findByStatusIn(List.of(StreamStatus.LIVE))) {
+            live.add(stream.getId());
+            Map<String, Object> stats = new HashMap<>();
+            // The tracker's estimate is fresher than the count last written to the stream
+            stats.put("viewerCount", viewerTracker.getViewerCount(stream.getId()));
+            stats.put("bitrate", stream.getBitrate());
+            stats.put("resolution", stream.getResolution());
+            stats.put("transcodingEnabled", stream.getTranscodingEnabled());
+
+            Map<String, Object> previous = lastStats.put(stream.getId(), stats);
+            Map<String, Object> changes = new LinkedHashMap<>();
+            stats.forEach((field, value) -> {
+                if (previous == null || !Objects.equals(previous.get(field), value)) {
+                    changes.put(field, value);
+                }
+            });
+            if (!changes.isEmpty()) {
+                Map<String, Object> event = new LinkedHashMap<>();
+                event.put("type", "stats");
+                event.put("streamId", stream.getId());
+                event.put("timestamp", System.currentTimeMillis());
+                event.put("changes", changes);
+                send(event, topic(stream.getId()) + "/stats");
+            }
+        }
+        lastStats.keySet().retainAll(live);
+    }
+
+    private void publishLifecycle(String type, Stream stream) {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("type", type);
+        event.put("streamId", stream.getId());
+        event.put("timestamp", System.currentTimeMillis());
+        event.put("stream", stream);
+        send(event, STREAMS_TOPIC, topic(stream.getId()));
+    }
+
+    /**
+     * Serialize the event once and send it to each destination; the broker copies it per subscriber
+     */
+    private void send(Map<String, Object> event, String... destinations) {
+        byte[] payload;
+        try {
+            payload = objectMapper.writeValueAsBytes(event);
+        } catch (JsonProcessingException e) {
+            System.err.println("❌ Failed to serialize " + event.get("type") + " event: " + e.getMessage());
+            return;
+        }
+        for (String destination : destinations) {
+            Message<byte[]> message = MessageBuilder.withPayload(payload)
+                    .setHeader(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.APPLICATION_JSON)
+                    .build();
+            messagingTemplate.send(destination, message);
+        }
+    }
+
+    private static String topic(String streamId) {
+        return STREAMS_TOPIC + "/" + streamId;
+    }
+}
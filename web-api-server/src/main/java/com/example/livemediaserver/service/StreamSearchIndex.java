@@ -0,0 +1,184 @@
+package com.example.livemediaserver.service;
+
+import com.example.livemediaserver.repository.StreamRepository;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory trigram index of stream names for substring search.
+ *
+ * Each stream gets a document number in creation order and every trigram of its lower-cased
+ * name a posting list of document numbers, kept sorted because documents are only appended.
+ * A query is answered by intersecting the postings of its trigrams, smallest first, and
+ * checking the candidates against the name, newest first; the cost follows the number of
+ * matches instead of the number of streams. Queries shorter than a trigram scan the names.
+ * Stream names do not change, so the index only grows as streams are created.
+ */
+@Service
+public class StreamSearchIndex {
+
+    private static final int GRAM = 3;
+
+    @Autowired
+    private StreamRepository streamRepository;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> documents = new HashMap<>();
+    private final List<String> ids = new ArrayList<>();
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Postings> postings = new HashMap<>();
+
+    @PostConstruct
+    public void start() {
+        for (StreamRepository.NameView stream : streamRepository.findAllByOrderByCreatedAtAscIdAsc()) {
+            add(stream.getId(), stream.getName());
+        }
+        System.out.println("🔎 Stream search index: " + ids.size() + " names, " + postings.size() + " trigrams");
+    }
+
+    /**
+     * Index a new stream; streams already indexed are ignored
+     */
+    public void add(String streamId, String name) {
+        String normalized = name != null ? name.toLowerCase(Locale.ROOT) : "";
+        lock.writeLock().lock();
+        try {
+            if (documents.containsKey(streamId)) {
+                return;
+            }
+            int document = ids.size();
+            documents.put(streamId, document);
+            ids.add(streamId);
+            names.add(normalized);
+            for (String gram : grams(normalized)) {
+                postings.computeIfAbsent(gram, g -> new Postings()).add(document);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Ids of streams whose name contains the query (case-insensitive), newest first
+     *
+     * @param before document cursor from a previous page, or -1 for the first page
+     * @param limit  maximum number of ids
+     */
+    public Result search(String query, int before, int limit) {
+        String normalized = query.toLowerCase(Locale.ROOT);
+        lock.readLock().lock();
+        try {
+            int from = before >= 0 ? Math.min(before, ids.size()) - 1 : ids.size() - 1;
+            List<String> matches = new ArrayList<>(limit);
+            int last = -1;
+            Set<String> grams = grams(normalized);
+            if (grams.isEmpty()) {
+                for (int document = from; document >= 0 && matches.size() < limit; document--) {
+                    if (names.get(document).contains(normalized)) {
+                        matches.add(ids.get(document));
+                        last = document;
+                    }
+                }
+            } else {
+                Postings[] lists = new Postings[grams.size()];
+                int i = 0;
+                for (String gram : grams) {
+                    Postings list = postings.get(gram);
+                    if (list == null) {
+                        return new Result(List.of(), -1);
+                    }
+                    lists[i++] = list;
+                }
+                Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+                // Walk the shortest list backwards; the others are probed by binary search
+                Postings shortest = lists[0];
+                for (int p = shortest.indexAtOrBelow(from); p >= 0 && matches.size() < limit; p--) {
+                    int document = shortest.documents[p];
+                    if (containsAll(lists, document) && names.get(document).contains(normalized)) {
+                        matches.add(ids.get(document));
+                        last = document;
+                    }
+                }
+            }
+            return new Result(matches, matches.size() == limit ? last : -1);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static boolean containsAll(Postings[] lists, int document) {
+        for (int i = 1; i < lists.length; i++) {
+            if (Arrays.binarySearch(lists[i].documents, 0, lists[i].size, document) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Set<String> grams(String text) {
+        Set<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i + GRAM <= text.length(); i++) {
+            grams.add(text.substring(i, i + GRAM));
+        }
+        return grams;
+    }
+
+    /**
+     * A page of matching stream ids
+     */
+    public static class Result {
+        private final List<String> streamIds;
+        private final int next;
+
+        Result(List<String> streamIds, int next) {
+            this.streamIds = streamIds;
+            this.next = next;
+        }
+
+        public List<String> getStreamIds() {
+            return streamIds;
+        }
+
+        /**
+         * Cursor for the following page, -1 when there is none
+         */
+        public int getNext() {
+            return next;
+        }
+    }
+
+    /**
+     * Sorted, growable list of document numbers
+     */
+    private static class Postings {
+        int[] documents = new int[4];
+        int size;
+
+        void add(int document) {
+            if (size == documents.length) {
+                documents = Arrays.copyOf(documents, size * 2);
+            }
+            documents[size++] = document;
+        }
+
+        /**
+         * Index of the last document not above the given one, -1 if none
+         */
+        int indexAtOrBelow(int document) {
+            int index = Arrays.binarySearch(documents, 0, size, document);
+            return index >= 0 ? index : -index - 2;
+        }
+    }
+}
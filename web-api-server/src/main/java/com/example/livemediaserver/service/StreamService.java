@@ -1,22 +1,38 @@
 package com.example.livemediaserver.service;
 
+import com.example.livemediaserver.model.MediaFile;
 import com.example.livemediaserver.model.Stream;
-import com.example.livemediaserver.model.StreamStatus;
+import com.example.livemediaserver.model.StreamEvent;
+import com.example.livemediaserver.model.StreamEventResult;
+import com.example.livemediaserver.model.StreamPage;
+import com.example.livemediaserver.model.StreamSummary;
 import com.example.livemediaserver.repository.StreamRepository;
+import com.example.livemediaserver.model.StreamStatus;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * Service class for managing live streams
@@ -24,9 +40,33 @@ import java.util.Optional;
 @Service
 public class StreamService {
 
+    @Autowired
+    private StreamStateCache streamStates;
+
+    @Autowired
+    private StreamEventPublisher eventPublisher;
+
     @Autowired
     private StreamRepository streamRepository;
 
+    @Autowired
+    private StreamSearchIndex searchIndex;
+
+    @Autowired
+    private SegmentIndexService segmentIndex;
+
+    @Autowired
+    private SegmentCache segmentCache;
+
+    @Autowired
+    private PlaylistCache playlistCache;
+
+    @Autowired
+    private SegmentStoreClient segmentStore;
+
+    @Autowired
+    private TranscodingCoordinator transcoding;
+
     @Value("${livemediaserver.media.storage-path:../media-data}")
     private String mediaStoragePath;
 
@@ -34,59 +74,111 @@ public class StreamService {
      * Get all active streams
      */
     public List<Stream> getAllActiveStreams() {
-        return streamRepository.findByStatusIn(List.of(StreamStatus.LIVE, StreamStatus.OFFLINE));
+        return streamStates.findByStatusIn(List.of(StreamStatus.LIVE, StreamStatus.OFFLINE));
     }
 
     /**
      * Get stream by ID
      */
     public Optional<Stream> getStreamById(String streamId) {
-        return streamRepository.findById(streamId);
+        return streamStates.get(streamId);
+    }
+
+    /**
+     * Page of stream summaries with the given statuses, newest first.
+     * Listings read the database, which trails the in-memory state by at most the write-behind interval.
+     *
+     * @param after cursor from the previous page, or null for the first page
+     * @throws IllegalArgumentException if the cursor was not issued by this method
+     */
+    public StreamPage listStreams(Collection<StreamStatus> statuses, int limit, String after) {
+        PageRequest page = PageRequest.ofSize(limit);
+        List<StreamSummary> items;
+        if (after == null) {
+            items = streamRepository.findSummaries(statuses, page);
+        } else {
+            // createdAt|id; the id may itself contain the separator
+            String[] cursor = decodeCursor(after).split("\\|", 2);
+            if (cursor.length != 2 || cursor[1].isEmpty()) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            LocalDateTime createdAt;
+            try {
+                createdAt = LocalDateTime.parse(cursor[0]);
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid cursor", e);
+            }
+            items = streamRepository.findSummariesAfter(statuses, createdAt, cursor[1], page);
+        }
+        StreamSummary last = items.size() == limit ? items.get(items.size() - 1) : null;
+        return new StreamPage(items, last != null ? encodeCursor(last.getCreatedAt() + "|" + last.getId()) : null);
+    }
+
+    /**
+     * Page of streams whose name contains the query, newest first
+     *
+     * @param after cursor from the previous page, or null for the first page
+     * @throws IllegalArgumentException if the cursor was not issued by this method
+     */
+    public StreamPage searchStreams(String query, int limit, String after) {
+        int before = after != null ? Integer.parseInt(decodeCursor(after)) : -1;
+        if (after != null && before < 0) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        StreamSearchIndex.Result result = searchIndex.search(query, before, limit);
+        Map<String, StreamSummary> byId = streamRepository.findSummariesByIdIn(result.getStreamIds()).stream()
+                .collect(Collectors.toMap(StreamSummary::getId, Function.identity()));
+        List<StreamSummary> items = result.getStreamIds().stream()
+                .map(byId::get)
+                .filter(summary -> summary != null)
+                .toList();
+        return new StreamPage(items, result.getNext() >= 0 ? encodeCursor(String.valueOf(result.getNext())) : null);
+    }
+
+    private static String encodeCursor(String cursor) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeCursor(String cursor) {
+        return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
     }
 
     /**
      * Create a new stream
      */
     public Stream createStream(String streamId, String streamName) {
-        Stream stream = new Stream(streamId, streamName);
-        stream.setRtmpUrl("rtmp://localhost:1935/live/" + streamId);
-        stream.setHlsUrl("/api/streams/" + streamId + "/playlist.m3u8");
-        return streamRepository.save(stream);
+        return streamStates.createOrUpdate(streamId, id -> newStream(id, streamName), stream -> { });
     }
 
     /**
      * Start a stream (called when RTMP connection begins)
      */
     public boolean startStream(String streamId) {
-        Optional<Stream> optionalStream = streamRepository.findById(streamId);
-        if (optionalStream.isPresent()) {
-            Stream stream = optionalStream.get();
-            stream.start();
-            streamRepository.save(stream);
-            return true;
-        }
-        return false;
+        Optional<Stream> started = streamStates.update(streamId, Stream::start);
+        started.ifPresent(stream -> {
+            eventPublisher.streamStarted(stream);
+            transcoding.streamLive(streamId);
+        });
+        return started.isPresent();
     }
 
     /**
      * Stop a stream
      */
     public boolean stopStream(String streamId) {
-        Optional<Stream> optionalStream = streamRepository.findById(streamId);
-        if (optionalStream.isPresent()) {
-            Stream stream = optionalStream.get();
-            stream.stop();
-            streamRepository.save(stream);
-            return true;
-        }
-        return false;
+        Optional<Stream> stopped = streamStates.update(streamId, Stream::stop);
+        stopped.ifPresent(stream -> {
+            eventPublisher.streamStopped(stream);
+            transcoding.streamEnded(streamId);
+        });
+        return stopped.isPresent();
     }
 
     /**
      * Get stream statistics
      */
     public Optional<Object> getStreamStats(String streamId) {
-        Optional<Stream> optionalStream = streamRepository.findById(streamId);
+        Optional<Stream> optionalStream = streamStates.get(streamId);
         if (optionalStream.isPresent()) {
             Stream stream = optionalStream.get();
             Map<String, Object> stats = new HashMap<>();
@@ -104,39 +196,80 @@ public class StreamService {
     }
 
     /**
-     * Start transcoding for a stream
+     * Request transcoding for a stream; transcodingEnabled is set once the transcoder confirms
+     *
+     * @return false when the stream does not exist
      */
     public boolean startTranscoding(String streamId) {
-        Optional<Stream> optionalStream = streamRepository.findById(streamId);
-        if (optionalStream.isPresent()) {
-            Stream stream = optionalStream.get();
-            stream.setTranscodingEnabled(true);
-            streamRepository.save(stream);
-
-            // 集成转码模块 - 调用转码服务API
-            try {
-                // 这里可以调用转码服务的HTTP API
-                // 例如: POST http://localhost:8081/transcode/start
-                System.out.println("🎬 Starting transcoding for stream: " + streamId);
-                System.out.println("📡 Transcoder service integration: http://localhost:8081");
-                // 实际的HTTP调用可以在这里实现
-                return true;
-            } catch (Exception e) {
-                System.err.println("❌ Failed to start transcoding: " + e.getMessage());
-                return false;
-            }
+        if (streamStates.get(streamId).isEmpty()) {
+            return false;
         }
-        return false;
+        transcoding.streamLive(streamId);
+        return true;
+    }
+
+    /**
+     * Get HLS playlist for a stream (master or per-track media playlist)
+     */
+    public Optional<PlaylistCache.Playlist> getHlsPlaylist(String streamId, String playlistName) {
+        return readPlaylist(streamId, playlistName + ".m3u8");
     }
 
     /**
-     * Get HLS playlist for a stream
+     * Get DASH manifest for a stream
      */
-    public Optional<String> getHlsPlaylist(String streamId) {
+    public Optional<PlaylistCache.Playlist> getDashManifest(String streamId) {
+        return readPlaylist(streamId, "manifest.mpd");
+    }
+
+    /**
+     * Get HLS segment for a stream
+     */
+    public Optional<MediaFile> getHlsSegment(String streamId, String segmentName) {
+        return readMediaFile(streamId, segmentName + ".ts");
+    }
+
+    /**
+     * Get CMAF media segment (.m4s) or initialization segment (.mp4) shared by HLS and DASH
+     */
+    public Optional<MediaFile> getCmafFile(String streamId, String fileName) {
+        return readMediaFile(streamId, fileName);
+    }
+
+    /**
+     * Read a playlist from the transcoder's segment store, revalidating the encoded copy of the
+     * previous version; falls back to the media directory when the store misses
+     */
+    private Optional<PlaylistCache.Playlist> readPlaylist(String streamId, String fileName) {
+        if (segmentStore.isEnabled()) {
+            PlaylistCache.Playlist cached = playlistCache.getStored(streamId, fileName);
+            Optional<SegmentStoreClient.StoredFile> stored =
+                    segmentStore.fetch(streamId, fileName, cached != null ? cached.getStoreEtag() : null);
+            if (stored.isPresent()) {
+                if (stored.get().isNotModified() && cached != null) {
+                    return Optional.of(cached);
+                }
+                return Optional.of(playlistCache.putStored(streamId, fileName,
+                        new String(stored.get().getData(), StandardCharsets.UTF_8), stored.get().getEtag()));
+            }
+        }
+        Optional<String> text = readTextFile(streamId, fileName);
+        if (text.isEmpty()) {
+            // Also covers stream directories removed without per-file events
+            playlistCache.invalidate(streamId, fileName);
+        }
+        return text.map(content -> playlistCache.get(streamId, fileName, content));
+    }
+
+    private Optional<String> readTextFile(String streamId, String fileName) {
+        if (segmentIndex.isActive()) {
+            // Playlists are held in the index and refreshed on every write
+            return segmentIndex.lookup(streamId, fileName).map(SegmentIndexService.IndexedFile::getText);
+        }
         try {
-            Path playlistPath = Paths.get(mediaStoragePath, streamId, "playlist.m3u8");
-            if (Files.exists(playlistPath)) {
-                return Optional.of(Files.readString(playlistPath));
+            Path path = Paths.get(mediaStoragePath, streamId, fileName);
+            if (Files.exists(path)) {
+                return Optional.of(Files.readString(path));
             }
         } catch (IOException e) {
             // Log error
@@ -145,13 +278,26 @@ public class StreamService {
     }
 
     /**
-     * Get HLS segment for a stream
+     * Resolve a media file, with its content when the transcoder's segment store or the segment
+     * cache holds it; otherwise the controller streams the content from disk
      */
-    public Optional<byte[]> getHlsSegment(String streamId, String segmentName) {
+    private Optional<MediaFile> readMediaFile(String streamId, String fileName) {
+        if (segmentStore.isEnabled()) {
+            Optional<SegmentStoreClient.StoredFile> stored = segmentStore.fetch(streamId, fileName, null);
+            if (stored.isPresent() && !stored.get().isNotModified()) {
+                byte[] data = stored.get().getData();
+                return Optional.of(new MediaFile(Paths.get(mediaStoragePath, streamId, fileName), data.length,
+                        stored.get().getStoredAt(), ByteBuffer.wrap(data).asReadOnlyBuffer()));
+            }
+        }
+        if (segmentIndex.isActive()) {
+            return segmentIndex.lookup(streamId, fileName)
+                    .map(file -> segmentCache.get(new MediaFile(file.getPath(), file.getSize(), file.getCreatedAt())));
+        }
         try {
-            Path segmentPath = Paths.get(mediaStoragePath, streamId, segmentName + ".ts");
-            if (Files.exists(segmentPath)) {
-                return Optional.of(Files.readAllBytes(segmentPath));
+            Path path = Paths.get(mediaStoragePath, streamId, fileName);
+            if (Files.exists(path)) {
+                return Optional.of(new MediaFile(path, Files.size(path), Files.getLastModifiedTime(path).toMillis()));
             }
         } catch (IOException e) {
             // Log error
@@ -163,39 +309,28 @@ public class StreamService {
      * Create or update stream when RTMP connection starts
      */
     public Stream createOrUpdateStream(String streamKey, String clientIp) {
-        Optional<Stream> existingStream = streamRepository.findById(streamKey);
-
-        Stream stream;
-        if (existingStream.isPresent()) {
-            // 更新现有流
-            stream = existingStream.get();
-            System.out.println("📝 Updating existing stream: " + streamKey);
-        } else {
+        Stream stream = streamStates.createOrUpdate(streamKey, id -> {
             // 创建新流
-            stream = new Stream(streamKey, "Live Stream " + streamKey);
-            stream.setRtmpUrl("rtmp://localhost:1935/live/" + streamKey);
-            stream.setHlsUrl("/api/streams/" + streamKey + "/playlist.m3u8");
-            System.out.println("🆕 Creating new stream: " + streamKey);
-        }
-
-        // 设置流为直播状态
-        stream.start();
+            System.out.println("🆕 Creating new stream: " + id);
+            return newStream(id, "Live Stream " + id);
+        }, Stream::start); // 设置流为直播状态
+        eventPublisher.streamStarted(stream);
+        transcoding.streamLive(streamKey);
 
         // 保存客户端IP信息（可以扩展Stream模型来存储这个信息）
         System.out.println("🌐 Client IP: " + clientIp);
 
-        return streamRepository.save(stream);
+        return stream;
     }
 
     /**
      * Stop stream by stream key
      */
     public boolean stopStreamByKey(String streamKey) {
-        Optional<Stream> optionalStream = streamRepository.findById(streamKey);
-        if (optionalStream.isPresent()) {
-            Stream stream = optionalStream.get();
-            stream.stop();
-            streamRepository.save(stream);
+        Optional<Stream> stopped = streamStates.update(streamKey, Stream::stop);
+        if (stopped.isPresent()) {
+            eventPublisher.streamStopped(stopped.get());
+            transcoding.streamEnded(streamKey);
             System.out.println("🛑 Stream stopped: " + streamKey);
             return true;
         }
@@ -207,22 +342,109 @@ public class StreamService {
      * Update stream metadata (bitrate, resolution, etc.)
      */
     public boolean updateStreamMetadata(String streamKey, Long bitrate, String resolution) {
-        Optional<Stream> optionalStream = streamRepository.findById(streamKey);
-        if (optionalStream.isPresent()) {
-            Stream stream = optionalStream.get();
+        Optional<Stream> updated = streamStates.update(streamKey, stream -> applyMetadata(stream, bitrate, resolution));
+        if (updated.isPresent()) {
+            eventPublisher.streamUpdated(updated.get());
+            System.out.println("🔄 Stream metadata updated: " + streamKey);
+            return true;
+        }
+        return false;
+    }
 
-            if (bitrate != null) {
-                stream.setBitrate(bitrate);
+    /**
+     * Apply a batch of control-plane events in order and persist the result in one transaction.
+     * Returns only once the changes are committed. If that fails, the applied events stay in the
+     * stream state and are written by the next flush, and their notifications are sent once it
+     * succeeds; resending the batch is safe, the events are then reported as duplicates.
+     */
+    public List<StreamEventResult> applyEvents(List<StreamEvent> events) {
+        List<StreamEventResult> results = new ArrayList<>(events.size());
+        List<Runnable> notifications = new ArrayList<>();
+        // One query for all streams of the batch instead of one per event
+        Set<String> missing = streamStates.preload(events.stream()
+                .map(StreamEvent::getStreamKey)
+                .filter(streamKey -> streamKey != null && !streamKey.isBlank())
+                .collect(Collectors.toSet()));
+        for (StreamEvent event : events) {
+            results.add(applyEvent(event, missing, notifications));
+        }
+
+        // Dashboards and the transcoder hear about changes only once they are durable
+        notifications.forEach(streamStates::afterCommit);
+        streamStates.flush();
+        return results;
+    }
+
+    private StreamEventResult applyEvent(StreamEvent event, Set<String> missing, List<Runnable> notifications) {
+        if (event.getType() == null || event.getStreamKey() == null || event.getStreamKey().isBlank()
+                || event.getSequence() == null) {
+            return new StreamEventResult(event, StreamEventResult.Outcome.REJECTED,
+                    "type, streamKey and sequence are required");
+        }
+
+        boolean[] changed = new boolean[1];
+        Consumer<Stream> change = stream -> {
+            // Checked under the stream's lock, so concurrent redeliveries apply at most once
+            Long last = stream.getLastEventSequence();
+            if (last != null && event.getSequence() <= last) {
+                return;
             }
-            if (resolution != null && !resolution.trim().isEmpty()) {
-                stream.setResolution(resolution);
+            switch (event.getType()) {
+                case START -> stream.start();
+                case STOP -> stream.stop();
+                case UPDATE -> applyMetadata(stream, event.getBitrate(), event.getResolution());
             }
+            stream.setLastEventSequence(event.getSequence());
+            changed[0] = true;
+        };
+        Optional<Stream> stream;
+        if (event.getType() == StreamEvent.Type.START) {
+            // Created by this event: later events of the batch find it in the cache
+            stream = Optional.of(missing.remove(event.getStreamKey())
+                    ? streamStates.create(event.getStreamKey(), id -> newStream(id, "Live Stream " + id), change)
+                    : streamStates.createOrUpdate(event.getStreamKey(), id -> newStream(id, "Live Stream " + id), change));
+        } else {
+            stream = missing.contains(event.getStreamKey()) ? Optional.empty()
+                    : streamStates.update(event.getStreamKey(), change);
+        }
 
-            streamRepository.save(stream);
-            System.out.println("🔄 Stream metadata updated: " + streamKey);
-            return true;
+        if (stream.isEmpty()) {
+            return new StreamEventResult(event, StreamEventResult.Outcome.NOT_FOUND, "stream not found");
         }
-        return false;
+        if (!changed[0]) {
+            return new StreamEventResult(event, StreamEventResult.Outcome.DUPLICATE,
+                    "already applied up to sequence " + stream.get().getLastEventSequence());
+        }
+        Stream snapshot = stream.get();
+        notifications.add(switch (event.getType()) {
+            case START -> () -> {
+                eventPublisher.streamStarted(snapshot);
+                transcoding.streamLive(snapshot.getId());
+            };
+            case STOP -> () -> {
+                eventPublisher.streamStopped(snapshot);
+                transcoding.streamEnded(snapshot.getId());
+            };
+            case UPDATE -> () -> eventPublisher.streamUpdated(snapshot);
+        });
+        return new StreamEventResult(event, StreamEventResult.Outcome.APPLIED, null);
+    }
+
+    private static void applyMetadata(Stream stream, Long bitrate, String resolution) {
+        if (bitrate != null) {
+            stream.setBitrate(bitrate);
+        }
+        if (resolution != null && !resolution.trim().isEmpty()) {
+            stream.setResolution(resolution);
+        }
+    }
+
+    private static Stream newStream(String streamId, String streamName) {
+        Stream stream = new Stream(streamId, streamName);
+        stream.setRtmpUrl("rtmp://localhost:1935/live/" + streamId);
+        stream.setHlsUrl("/api/streams/" + streamId + "/playlist.m3u8");
+        stream.setThumbnailUrl("/api/streams/" + streamId + "/thumbnail.jpg");
+        return stream;
     }
 
     /**
@@ -0,0 +1,330 @@
+package com.example.livemediaserver.service;
+
+import com.example.livemediaserver.model.Stream;
+import com.example.livemediaserver.model.StreamStatus;
+import com.example.livemediaserver.repository.StreamRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory state of active streams with write-behind persistence.
+ *
+ * Active streams are loaded once at startup and then served from memory: listing, lookups and
+ * stats of a live stream never query the database. Changes are applied to the cached stream and
+ * the stream is marked dirty; a scheduled flush writes all dirty streams in one transaction, so
+ * several changes to the same stream between two flushes cost one UPDATE. The flush interval
+ * ({@code livemediaserver.streams.write-behind-ms}) bounds how much is lost if the process dies.
+ * Ended streams are dropped from memory once written and read from the database on demand.
+ */
+@Service
+public class StreamStateCache {
+
+    @Autowired
+    private StreamRepository streamRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private StreamSearchIndex searchIndex;
+
+    @Value("${livemediaserver.streams.write-behind-ms:1000}")
+    private long writeBehindMillis;
+
+    private final ConcurrentMap<String, Stream> streams = new ConcurrentHashMap<>();
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    // Bumped under the key's lock on every eviction, so a load can tell its read may be stale
+    private final AtomicLong evictions = new AtomicLong();
+    // Actions waiting for the changes made before they were registered to be committed
+    private final List<Runnable> afterCommit = new ArrayList<>();
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    public void start() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        for (Stream stream : streamRepository.findByStatusIn(List.of(StreamStatus.LIVE, StreamStatus.OFFLINE))) {
+            streams.put(stream.getId(), new Stream(stream));
+        }
+        System.out.println("🗂️ Stream state cache: " + streams.size() + " active streams, write-behind "
+                + writeBehindMillis + " ms");
+    }
+
+    /**
+     * Write pending changes before the application context closes
+     */
+    @PreDestroy
+    public void stop() {
+        flush();
+    }
+
+    /**
+     * Snapshot of a stream; active streams are served from memory
+     */
+    public Optional<Stream> get(String streamId) {
+        Stream stream = streams.get(streamId);
+        if (stream != null) {
+            return Optional.of(snapshot(stream));
+        }
+        return streamRepository.findById(streamId).map(Stream::new);
+    }
+
+    /**
+     * Snapshots of all cached streams with one of the given statuses
+     */
+    public List<Stream> findByStatusIn(Collection<StreamStatus> statuses) {
+        List<Stream> result = new ArrayList<>();
+        for (Stream stream : streams.values()) {
+            Stream copy = snapshot(stream);
+            if (statuses.contains(copy.getStatus())) {
+                result.add(copy);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Run an action on each cached stream with the given status, under the stream's lock and
+     * without copying it; the action must neither keep nor modify the stream
+     */
+    public void forEach(StreamStatus status, Consumer<Stream> action) {
+        for (Stream stream : streams.values()) {
+            synchronized (stream) {
+                if (stream.getStatus() == status) {
+                    action.accept(stream);
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply a change to a stream, loading it first if it is not cached
+     *
+     * @return snapshot after the change, empty when the stream does not exist
+     */
+    public Optional<Stream> update(String streamId, Consumer<Stream> change) {
+        return Optional.ofNullable(load(streamId)).map(stream -> apply(stream, change));
+    }
+
+    /**
+     * Apply a change to an existing stream, or to the one built by the factory when there is none
+     *
+     * @return snapshot after the change
+     */
+    public Stream createOrUpdate(String streamId, Function<String, Stream> factory, Consumer<Stream> change) {
+        Stream stream = load(streamId);
+        if (stream == null) {
+            Stream created = factory.apply(streamId);
+            Stream existing = streams.putIfAbsent(streamId, created);
+            stream = existing != null ? existing : created;
+        }
+        return apply(stream, change);
+    }
+
+    /**
+     * Like {@link #createOrUpdate}, for a stream {@link #preload} reported missing: created
+     * without asking the database again
+     */
+    public Stream create(String streamId, Function<String, Stream> factory, Consumer<Stream> change) {
+        return apply(streams.computeIfAbsent(streamId, factory), change);
+    }
+
+    /**
+     * Load the given streams that are not cached yet with one query
+     *
+     * @return ids of the streams that do not exist
+     */
+    public Set<String> preload(Collection<String> streamIds) {
+        Set<String> missing = new HashSet<>();
+        for (String streamId : streamIds) {
+            if (!streams.containsKey(streamId)) {
+                missing.add(streamId);
+            }
+        }
+        if (!missing.isEmpty()) {
+            for (Stream stored : streamRepository.findAllById(missing)) {
+                streams.putIfAbsent(stored.getId(), new Stream(stored));
+                missing.remove(stored.getId());
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Run an action once the changes made so far are committed: after the next successful flush,
+     * which may be a later one if this one fails
+     */
+    public void afterCommit(Runnable action) {
+        synchronized (afterCommit) {
+            afterCommit.add(action);
+        }
+    }
+
+    /**
+     * Write dirty streams to the database in one transaction; returns once it is committed.
+     * Flushes are serialized, so a caller never returns while another flush still holds
+     * its changes uncommitted.
+     */
+    @Scheduled(fixedDelayString = "${livemediaserver.streams.write-behind-ms:1000}")
+    public synchronized void flush() {
+        // Taken before the dirty set: the changes these actions wait for are all in this flush
+        List<Runnable> committed;
+        synchronized (afterCommit) {
+            committed = new ArrayList<>(afterCommit);
+            afterCommit.clear();
+        }
+        try {
+            writeDirty();
+        } catch (RuntimeException e) {
+            synchronized (afterCommit) {
+                afterCommit.addAll(0, committed);
+            }
+            throw e;
+        }
+        for (Runnable action : committed) {
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                System.err.println("❌ After-commit action failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void writeDirty() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        List<Stream> pending = new ArrayList<>();
+        for (String streamId : List.copyOf(dirty)) {
+            // Unmark before copying: a change made after this point marks it again for the next flush
+            dirty.remove(streamId);
+            Stream stream = streams.get(streamId);
+            if (stream != null) {
+                pending.add(snapshot(stream));
+            }
+        }
+
+        List<Stream> inserted;
+        try {
+            inserted = transactionTemplate.execute(status -> write(pending));
+        } catch (RuntimeException e) {
+            pending.forEach(stream -> dirty.add(stream.getId()));
+            System.err.println("❌ Failed to persist " + pending.size() + " streams, retrying: " + e.getMessage());
+            throw e;
+        }
+        inserted.forEach(stream -> searchIndex.add(stream.getId(), stream.getName()));
+
+        for (Stream stream : pending) {
+            if (stream.getStatus() == StreamStatus.ENDED && !dirty.contains(stream.getId())) {
+                streams.computeIfPresent(stream.getId(), (id, cached) -> {
+                    if (cached.getStatus() != StreamStatus.ENDED || dirty.contains(id)) {
+                        return cached;
+                    }
+                    evictions.incrementAndGet();
+                    return null;
+                });
+            }
+        }
+    }
+
+    /**
+     * @return the streams that were inserted
+     */
+    private List<Stream> write(List<Stream> pending) {
+        List<Stream> inserted = new ArrayList<>();
+        Map<String, Stream> managed = streamRepository.findAllById(pending.stream().map(Stream::getId).toList())
+                .stream().collect(Collectors.toMap(Stream::getId, Function.identity()));
+        for (Stream stream : pending) {
+            Stream entity = managed.get(stream.getId());
+            if (entity != null) {
+                entity.copyStateFrom(stream);
+            } else {
+                // Known to be new: persist directly instead of merge's extra SELECT
+                entityManager.persist(stream);
+                inserted.add(stream);
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * The cached instance of a stream, read from the database and cached when there is none.
+     * The query runs outside the map, so it holds no lock other keys wait on; if any stream was
+     * evicted meanwhile, the row read may predate what that flush committed, and it is read again.
+     */
+    private Stream load(String streamId) {
+        while (true) {
+            Stream cached = streams.get(streamId);
+            if (cached != null) {
+                return cached;
+            }
+            long evicted = evictions.get();
+            Stream stored = streamRepository.findById(streamId).map(Stream::new).orElse(null);
+            if (stored == null) {
+                return streams.get(streamId);
+            }
+            Stream loaded = streams.compute(streamId,
+                    (id, current) -> current != null ? current : evictions.get() == evicted ? stored : null);
+            if (loaded != null) {
+                return loaded;
+            }
+        }
+    }
+
+    /**
+     * Apply a change to the cached instance of a stream, under the key's lock like flush's
+     * eviction. A stream loaded again meanwhile gets the change instead of the instance passed
+     * in; one evicted after it ended is read back as flush committed it rather than put back
+     * from the passed instance, which may miss changes made to a later load.
+     */
+    private Stream apply(Stream stream, Consumer<Stream> change) {
+        Stream[] copy = new Stream[1];
+        while (true) {
+            streams.computeIfPresent(stream.getId(), (id, cached) -> {
+                synchronized (cached) {
+                    change.accept(cached);
+                    copy[0] = new Stream(cached);
+                }
+                dirty.add(id);
+                return cached;
+            });
+            if (copy[0] != null) {
+                return copy[0];
+            }
+            if (load(stream.getId()) == null) {
+                // Not in the database either: nothing newer than the passed instance exists
+                streams.putIfAbsent(stream.getId(), stream);
+            }
+        }
+    }
+
+    private static Stream snapshot(Stream stream) {
+        synchronized (stream) {
+            return new Stream(stream);
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.example.livemediaserver.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * HTTP client for the transcoder service control API.
+ *
+ * One shared HttpClient keeps HTTP/1.1 connections to the transcoder alive and reuses them;
+ * control calls are sent asynchronously and never block the caller. All calls go through a
+ * circuit breaker: while the transcoder is unreachable they fail immediately instead of each
+ * waiting for its timeout.
+ */
+@Service
+public class TranscoderClient {
+
+    // Seconds the transcoder holds a control request open for the job to finish
+    private static final int JOB_WAIT_SECONDS = 10;
+
+    @Value("${livemediaserver.transcoder.base-url:http://localhost:8081}")
+    private String baseUrl;
+
+    @Value("${livemediaserver.transcoder.request-timeout-ms:2000}")
+    private long requestTimeoutMs;
+
+    @Value("${livemediaserver.transcoder.circuit-failure-threshold:5}")
+    private int circuitFailureThreshold;
+
+    @Value("${livemediaserver.transcoder.circuit-open-ms:30000}")
+    private long circuitOpenMillis;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // The transcoder speaks HTTP/1.1 only; skip the h2c upgrade attempt on every new connection
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(2))
+            .build();
+
+    private CircuitBreaker circuitBreaker;
+
+    @PostConstruct
+    public void start() {
+        circuitBreaker = new CircuitBreaker("transcoder", circuitFailureThreshold, circuitOpenMillis);
+        Gauge.builder("livemediaserver.transcoder.circuit.open", circuitBreaker,
+                        breaker -> breaker.getState() == CircuitBreaker.State.CLOSED ? 0 : 1)
+                .description("1 while calls to the transcoder fail fast").register(meterRegistry);
+    }
+
+    /**
+     * Ask the transcoder to start transcoding a stream
+     *
+     * @return completes with the job outcome, or exceptionally when the transcoder is unreachable,
+     *         fails or the circuit is open ({@link CircuitBreaker.OpenException})
+     */
+    public CompletableFuture<JobResult> startTranscoding(String streamKey) {
+        return submitJob("/start", streamKey).thenCompose(result -> result.isSuccess()
+                ? CompletableFuture.completedFuture(result)
+                // Also reported as failed when a transcoder already runs, e.g. after a lost response
+                : isRunning(streamKey).thenApply(running -> running ? new JobResult(true, "already running") : result));
+    }
+
+    /**
+     * Ask the transcoder to stop transcoding a stream
+     */
+    public CompletableFuture<JobResult> stopTranscoding(String streamKey) {
+        return submitJob("/stop", streamKey);
+    }
+
+    private CompletableFuture<JobResult> submitJob(String path, String streamKey) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path + "?streamKey="
+                        + URLEncoder.encode(streamKey, StandardCharsets.UTF_8) + "&wait=" + JOB_WAIT_SECONDS))
+                .timeout(Duration.ofMillis(requestTimeoutMs + JOB_WAIT_SECONDS * 1000L))
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build();
+        return send(request).thenCompose(response -> {
+            JsonNode job = parse(response.body());
+            if (response.statusCode() >= 500) {
+                return CompletableFuture.failedFuture(new IOException("HTTP " + response.statusCode()));
+            }
+            if (response.statusCode() == 202 && job.hasNonNull("jobId")) {
+                return awaitJob(job.get("jobId").asText());
+            }
+            return CompletableFuture.completedFuture(toResult(response.statusCode(), job));
+        });
+    }
+
+    /**
+     * Follow a job that outlived the wait of the submitting request
+     */
+    private CompletableFuture<JobResult> awaitJob(String jobId) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/jobs?id="
+                        + URLEncoder.encode(jobId, StandardCharsets.UTF_8) + "&wait=" + JOB_WAIT_SECONDS))
+                .timeout(Duration.ofMillis(requestTimeoutMs + JOB_WAIT_SECONDS * 1000L))
+                .GET()
+                .build();
+        return send(request).thenCompose(response -> {
+            JsonNode job = parse(response.body());
+            if (response.statusCode() >= 500) {
+                return CompletableFuture.failedFuture(new IOException("HTTP " + response.statusCode()));
+            }
+            // 202 while the job is still pending after the wait
+            if ((response.statusCode() == 200 || response.statusCode() == 202) && !isFinished(job)) {
+                return awaitJob(jobId);
+            }
+            return CompletableFuture.completedFuture(toResult(response.statusCode(), job));
+        });
+    }
+
+    /**
+     * Current speed, as a multiple of real time, of every running transcoder by stream key
+     */
+    public CompletableFuture<Map<String, Double>> getSpeeds() {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/status"))
+                .timeout(Duration.ofMillis(requestTimeoutMs))
+                .GET()
+                .build();
+        return send(request).thenApply(response -> {
+            Map<String, Double> speeds = new HashMap<>();
+            if (response.statusCode() == 200) {
+                for (JsonNode status : parse(response.body()).path("activeTranscoders")) {
+                    if (status.path("isRunning").asBoolean(false)) {
+                        speeds.put(status.path("streamKey").asText(), status.path("speed").asDouble(0));
+                    }
+                }
+            }
+            return speeds;
+        });
+    }
+
+    private CompletableFuture<Boolean> isRunning(String streamKey) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/status?streamKey="
+                        + URLEncoder.encode(streamKey, StandardCharsets.UTF_8)))
+                .timeout(Duration.ofMillis(requestTimeoutMs))
+                .GET()
+                .build();
+        return send(request).thenApply(response -> parse(response.body()).path("isRunning").asBoolean(false));
+    }
+
+    /**
+     * Send through the circuit breaker; transport errors and 5xx count as failures
+     */
+    private CompletableFuture<HttpResponse<String>> send(HttpRequest request) {
+        if (!circuitBreaker.allowRequest()) {
+            return CompletableFuture.failedFuture(
+                    new CircuitBreaker.OpenException("transcoder", circuitBreaker.getRetryDelayMillis()));
+        }
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .whenComplete((response, error) -> {
+                    if (error != null || response.statusCode() >= 500) {
+                        circuitBreaker.recordFailure();
+                    } else {
+                        circuitBreaker.recordSuccess();
+                    }
+                });
+    }
+
+    private JsonNode parse(String body) {
+        try {
+            return objectMapper.readTree(body);
+        } catch (IOException e) {
+            // Plain-text errors such as "Missing streamKey parameter"
+            return objectMapper.createObjectNode().put("message", body);
+        }
+    }
+
+    private static boolean isFinished(JsonNode job) {
+        String status = job.path("status").asText();
+        return "SUCCEEDED".equals(status) || "FAILED".equals(status);
+    }
+
+    private static JobResult toResult(int statusCode, JsonNode job) {
+        boolean success = statusCode == 200 && job.path("success").asBoolean(false);
+        return new JobResult(success, job.path("message").asText("HTTP " + statusCode));
+    }
+
+    /**
+     * Fetch the latest thumbnail or the rolling preview sprite of a stream.
+     * Passes the caller's ETag through so unchanged images come back as 304 without a body.
+     */
+    public Optional<PreviewImage> getPreviewImage(String streamKey, boolean sprite, String ifNoneMatch) {
+        String query = "streamKey=" + URLEncoder.encode(streamKey, StandardCharsets.UTF_8)
+                + (sprite ? "&type=sprite" : "");
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(baseUrl + "/thumbnail?" + query))
+                .timeout(Duration.ofMillis(requestTimeoutMs))
+                .GET();
+        if (ifNoneMatch != null) {
+            request.header("If-None-Match", ifNoneMatch);
+        }
+
+        if (!circuitBreaker.allowRequest()) {
+            return Optional.empty();
+        }
+        try {
+            HttpResponse<byte[]> response = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() >= 500) {
+                circuitBreaker.recordFailure();
+            } else {
+                circuitBreaker.recordSuccess();
+            }
+            if (response.statusCode() != 200 && response.statusCode() != 304) {
+                return Optional.empty();
+            }
+            return Optional.of(new PreviewImage(
+                    response.statusCode() == 304,
+                    response.body(),
+                    response.headers().firstValue("ETag").orElse(null),
+                    response.headers().firstValue("Cache-Control").orElse(null)));
+        } catch (IOException e) {
+            circuitBreaker.recordFailure();
+            System.err.println("❌ Failed to fetch preview image for " + streamKey + ": " + e.getMessage());
+            return Optional.empty();
+        } catch (InterruptedException e) {
+            circuitBreaker.recordFailure();
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Outcome of a start or stop job
+     */
+    public static class JobResult {
+        private final boolean success;
+        private final String message;
+
+        public JobResult(boolean success, String message) {
+            this.success = success;
+            this.message = message;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    /**
+     * Preview image returned by the transcoder
+     */
+    public static class PreviewImage {
+        private final boolean notModified;
+        private final byte[] data;
+        private final String etag;
+        private final String cacheControl;
+
+        public PreviewImage(boolean notModified, byte[] data, String etag, String cacheControl) {
+            this.notModified = notModified;
+            this.data = data;
+            this.etag = etag;
+            this.cacheControl = cacheControl;
+        }
+
+        public boolean isNotModified() {
+            return notModified;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getCacheControl() {
+            return cacheControl;
+        }
+    }
+}
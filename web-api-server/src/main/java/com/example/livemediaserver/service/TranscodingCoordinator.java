@@ -0,0 +1,165 @@
+package com.example.livemediaserver.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the transcoder in line with the streams that are live.
+ *
+ * Stream start and stop only record whether the stream should be transcoded and return; the
+ * request to the transcoder is sent from a background thread. At most one request per stream is
+ * in flight: a change made meanwhile is sent once that request completes, so a stream that
+ * starts and stops quickly ends up with the last state asked for. Failed requests are retried
+ * with exponential backoff, and the stream's transcodingEnabled flag follows what the transcoder
+ * confirmed.
+ */
+@Service
+public class TranscodingCoordinator {
+
+    private static final long INITIAL_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    @Autowired
+    private TranscoderClient transcoderClient;
+
+    @Autowired
+    private StreamStateCache streamStates;
+
+    @Value("${livemediaserver.transcoder.enabled:true}")
+    private boolean enabled;
+
+    @Value("${livemediaserver.transcoder.max-retries:6}")
+    private int maxRetries;
+
+    // Streams with a request in flight or waiting for a retry, and the state they should reach
+    private final ConcurrentMap<String, Target> targets = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "transcoder-control");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Start transcoding a stream that went live; returns without waiting for the transcoder
+     */
+    public void streamLive(String streamKey) {
+        request(streamKey, true);
+    }
+
+    /**
+     * Stop transcoding a stream that ended; returns without waiting for the transcoder
+     */
+    public void streamEnded(String streamKey) {
+        request(streamKey, false);
+    }
+
+    private void request(String streamKey, boolean running) {
+        if (!enabled) {
+            return;
+        }
+        boolean[] dispatch = new boolean[1];
+        targets.compute(streamKey, (key, target) -> {
+            if (target == null) {
+                dispatch[0] = true;
+                return new Target(running);
+            }
+            // Picked up when the request in flight completes
+            target.running = running;
+            return target;
+        });
+        if (dispatch[0]) {
+            scheduler.execute(() -> send(streamKey, 0));
+        }
+    }
+
+    private void send(String streamKey, int attempt) {
+        Target target = targets.get(streamKey);
+        if (target == null) {
+            return;
+        }
+        boolean running = target.running;
+        (running ? transcoderClient.startTranscoding(streamKey) : transcoderClient.stopTranscoding(streamKey))
+                .whenComplete((result, error) -> {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error;
+                    if (cause instanceof CircuitBreaker.OpenException open) {
+                        // Not attempted: wait for the circuit to let a probe through, without using up a retry
+                        // (a half-open circuit has its probe in flight and reports no delay)
+                        schedule(streamKey, attempt, Math.max(INITIAL_BACKOFF_MILLIS, open.getRetryDelayMillis()));
+                        return;
+                    }
+                    // A failed stop means no transcoder was running for the stream, which is what was asked for
+                    boolean done = cause == null && (result.isSuccess() || !running);
+                    String reason = cause != null ? cause.getMessage() : result.getMessage();
+                    completed(streamKey, running, done, reason, attempt);
+                });
+    }
+
+    private void completed(String streamKey, boolean running, boolean done, String reason, int attempt) {
+        int[] next = {-1};
+        targets.computeIfPresent(streamKey, (key, target) -> {
+            if (target.running != running) {
+                // Changed while the request was in flight; send the new state right away
+                next[0] = 0;
+                return target;
+            }
+            if (done || attempt >= maxRetries) {
+                return null;
+            }
+            next[0] = attempt + 1;
+            return target;
+        });
+
+        if (done) {
+            System.out.println((running ? "🎬 Transcoding started: " : "🛑 Transcoding stopped: ") + streamKey);
+            streamStates.update(streamKey, stream -> stream.setTranscodingEnabled(running));
+        } else if (next[0] < 0) {
+            System.err.println("❌ Giving up " + (running ? "starting" : "stopping") + " transcoding for "
+                    + streamKey + " after " + (attempt + 1) + " attempts: " + reason);
+        } else if (next[0] > 0) {
+            System.err.println("⚠️ Transcoder request for " + streamKey + " failed (" + reason + "), retry "
+                    + next[0] + "/" + maxRetries);
+        }
+        if (next[0] >= 0) {
+            schedule(streamKey, next[0],
+                    next[0] == 0 ? 0 : Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << (next[0] - 1)));
+        }
+    }
+
+    private void schedule(String streamKey, int attempt, long delayMillis) {
+        try {
+            scheduler.schedule(() -> send(streamKey, attempt), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+        }
+    }
+
+    private static class Target {
+        volatile boolean running;
+
+        Target(boolean running) {
+            this.running = running;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.livemediaserver.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrent viewer counts inferred from playlist and segment requests.
+ *
+ * A viewer is identified by its playback token (verified, or given as the token parameter), or
+ * by client address plus User-Agent. Every
+ * player polls its playlist and fetches a segment at least once per target duration, so the
+ * distinct viewers seen over the last window are the current audience. They are counted with a
+ * HyperLogLog per stream and time bucket: recording a request is a hash and at most one
+ * compare-and-set on a shared register, with no lock and no allocation. Changed counts are
+ * applied to the stream state periodically and reach the database with its write-behind.
+ */
+@Service
+public class ViewerTracker {
+
+    // 2^10 registers: about 3% standard error, 4 KB per bucket
+    private static final int PRECISION = 10;
+    private static final int REGISTERS = 1 << PRECISION;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+    // The window is split into this many buckets, so it slides in steps of window / BUCKETS
+    private static final int BUCKETS = 6;
+
+    @Autowired
+    private StreamStateCache streamStates;
+
+    @Value("${livemediaserver.viewers.window-seconds:30}")
+    private long windowSeconds;
+
+    private final ConcurrentMap<String, Window> windows = new ConcurrentHashMap<>();
+    private long bucketMillis;
+
+    @PostConstruct
+    public void start() {
+        bucketMillis = Math.max(1, windowSeconds * 1000 / BUCKETS);
+    }
+
+    /**
+     * Count the client of a playlist or segment request as a viewer of the stream
+     */
+    public void record(String streamId, HttpServletRequest request) {
+        String token = (String) request.getAttribute(PlaybackTokenService.TOKEN_ATTRIBUTE);
+        if (token == null) {
+            token = request.getParameter("token");
+        }
+        long hash;
+        if (token != null) {
+            hash = token.hashCode();
+        } else {
+            String userAgent = request.getHeader("User-Agent");
+            hash = ((long) request.getRemoteAddr().hashCode() << 32) ^ (userAgent != null ? userAgent.hashCode() : 0);
+        }
+        windows.computeIfAbsent(streamId, id -> new Window()).add(mix(hash), System.currentTimeMillis() / bucketMillis);
+    }
+
+    /**
+     * Estimated distinct viewers of a stream over the last window
+     */
+    public int getViewerCount(String streamId) {
+        Window window = windows.get(streamId);
+        return window != null ? window.estimate(System.currentTimeMillis() / bucketMillis) : 0;
+    }
+
+    /**
+     * Publish changed viewer counts to the stream state
+     */
+    @Scheduled(fixedRateString = "${livemediaserver.viewers.flush-interval-ms:5000}")
+    public void flush() {
+        long epoch = System.currentTimeMillis() / bucketMillis;
+        windows.forEach((streamId, window) -> {
+            int count = window.estimate(epoch);
+            if (count != window.flushed) {
+                streamStates.update(streamId, stream -> stream.setViewerCount(count));
+                window.flushed = count;
+            }
+            if (count == 0 && window.lastEpoch() < epoch - BUCKETS) {
+                // Nobody watched for a whole window; a new request creates a fresh window
+                windows.remove(streamId, window);
+            }
+        });
+    }
+
+    /**
+     * 64-bit finalizer (SplitMix64) spreading the session hash over all bits
+     */
+    private static long mix(long hash) {
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+
+    /**
+     * Ring of HyperLogLog sketches, one per time bucket. The slot of the current bucket is
+     * reclaimed and cleared by the first request that reaches it; a register set concurrently
+     * with the clearing may be lost, which the viewer's next request makes up for.
+     */
+    private static class Window {
+        // One spare slot so the bucket being reclaimed never belongs to the window
+        private final AtomicIntegerArray[] registers = new AtomicIntegerArray[BUCKETS + 1];
+        private final AtomicLong[] epochs = new AtomicLong[BUCKETS + 1];
+        private volatile int flushed;
+
+        Window() {
+            for (int slot = 0; slot < registers.length; slot++) {
+                registers[slot] = new AtomicIntegerArray(REGISTERS);
+                epochs[slot] = new AtomicLong(-1);
+            }
+        }
+
+        void add(long hash, long epoch) {
+            int slot = (int) (epoch % registers.length);
+            long slotEpoch = epochs[slot].get();
+            if (slotEpoch < epoch && epochs[slot].compareAndSet(slotEpoch, epoch)) {
+                for (int i = 0; i < REGISTERS; i++) {
+                    registers[slot].set(i, 0);
+                }
+            }
+            int index = (int) (hash >>> (64 - PRECISION));
+            // Position of the first 1 bit in the remaining bits; the sentinel bounds it
+            int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+            AtomicIntegerArray sketch = registers[slot];
+            int current = sketch.get(index);
+            while (rank > current && !sketch.compareAndSet(index, current, rank)) {
+                current = sketch.get(index);
+            }
+        }
+
+        int estimate(long epoch) {
+            double sum = 0;
+            int zeros = 0;
+            for (int i = 0; i < REGISTERS; i++) {
+                int max = 0;
+                for (int slot = 0; slot < registers.length; slot++) {
+                    long slotEpoch = epochs[slot].get();
+                    if (slotEpoch > epoch - BUCKETS && slotEpoch <= epoch) {
+                        max = Math.max(max, registers[slot].get(i));
+                    }
+                }
+                sum += 1.0 / (1L << max);
+                if (max == 0) {
+                    zeros++;
+                }
+            }
+            double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+            if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+                // Small-range correction: linear counting over the empty registers
+                estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+            }
+            return (int) Math.round(estimate);
+        }
+
+        long lastEpoch() {
+            long last = -1;
+            for (AtomicLong slotEpoch : epochs) {
+                last = Math.max(last, slotEpoch.get());
+            }
+            return last;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.livemediaserver;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Locale;
+
+/**
+ * Ingest throughput of stream lifecycle events: one request per event on /streams/start and
+ * /streams/stop against batches on /streams/events.
+ *
+ * Each run starts and stops a fresh set of streams through both paths, one request at a time
+ * over a kept-alive connection, as the RTMP server sends them after a mass reconnect.
+ *
+ * Usage (against a running server, after mvn test-compile):
+ *   java -cp target/test-classes com.example.livemediaserver.EventIngestBenchmark
+ *       [--url http://localhost:8080/api] [--streams N] [--batch N]
+ */
+public class EventIngestBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String url = "http://localhost:8080/api";
+        int streams = 2000;
+        int batch = 500;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--url" -> url = args[i + 1];
+                case "--streams" -> streams = Integer.parseInt(args[i + 1]);
+                case "--batch" -> batch = Integer.parseInt(args[i + 1]);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        String run = Long.toString(System.currentTimeMillis(), 36);
+
+        long started = System.nanoTime();
+        for (int i = 0; i < streams; i++) {
+            post(client, url + "/streams/start",
+                    "{\"streamKey\":\"single-" + run + "-" + i + "\",\"clientIp\":\"10.0.0.1\"}");
+        }
+        for (int i = 0; i < streams; i++) {
+            post(client, url + "/streams/stop", "{\"streamKey\":\"single-" + run + "-" + i + "\"}");
+        }
+        double single = 2.0 * streams / seconds(started);
+
+        started = System.nanoTime();
+        int requests = 0;
+        for (String type : new String[] {"START", "STOP"}) {
+            long sequence = type.equals("START") ? 1 : 2;
+            for (int from = 0; from < streams; from += batch) {
+                StringBuilder body = new StringBuilder("[");
+                for (int i = from; i < Math.min(streams, from + batch); i++) {
+                    if (i > from) {
+                        body.append(',');
+                    }
+                    body.append("{\"type\":\"").append(type)
+                            .append("\",\"streamKey\":\"batch-").append(run).append('-').append(i)
+                            .append("\",\"sequence\":").append(sequence).append('}');
+                }
+                post(client, url + "/streams/events", body.append(']').toString());
+                requests++;
+            }
+        }
+        double batched = 2.0 * streams / seconds(started);
+
+        System.out.printf(Locale.ROOT, "%d streams started and stopped (%d events per path)%n", streams, 2 * streams);
+        System.out.printf(Locale.ROOT, "  /start + /stop:  %8.0f events/s (%d requests)%n", single, 2 * streams);
+        System.out.printf(Locale.ROOT, "  /events (%4d): %8.0f events/s (%d requests)%n", batch, batched, requests);
+        System.out.printf(Locale.ROOT, "  speedup:         %8.1fx%n", batched / single);
+    }
+
+    private static void post(HttpClient client, String url, String body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException(url + " answered " + response.statusCode() + ": " + response.body());
+        }
+    }
+
+    private static double seconds(long startedNanos) {
+        return (System.nanoTime() - startedNanos) / 1e9;
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.livemediaserver.config;
+
+import com.example.livemediaserver.service.PlaybackTokenService;
+import jakarta.servlet.http.Cookie;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.cookie;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {
+        "livemediaserver.transcoder.enabled=false",
+        "livemediaserver.media.watch-enabled=false",
+        "livemediaserver.playback.tokens.enabled=true",
+        "livemediaserver.playback.tokens.keys=k1:test-secret",
+        "livemediaserver.playback.tokens.issuer-key=issuer-secret"
+})
+@AutoConfigureMockMvc
+class PlaybackTokenInterceptorTest {
+
+    private static final Path MEDIA = createMedia();
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private PlaybackTokenService tokens;
+
+    @DynamicPropertySource
+    static void mediaPath(DynamicPropertyRegistry registry) {
+        registry.add("livemediaserver.media.storage-path", MEDIA::toString);
+    }
+
+    private static Path createMedia() {
+        try {
+            Path media = Files.createTempDirectory("playback-token-test");
+            Path stream = Files.createDirectories(media.resolve("s1"));
+            Files.writeString(stream.resolve("master.m3u8"), "#EXTM3U\n#EXT-X-TARGETDURATION:6\n");
+            Files.write(stream.resolve("seg_0_00001.m4s"), new byte[128]);
+            Files.write(stream.resolve("seg0.ts"), new byte[188]);
+            return media;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String token(String streamId) {
+        return tokens.issue(streamId, System.currentTimeMillis() / 1000 + 60);
+    }
+
+    @Test
+    void requiresTokenOnMediaRequests() throws Exception {
+        mvc.perform(get("/streams/s1/master.m3u8")).andExpect(status().isUnauthorized());
+        mvc.perform(get("/streams/s1/seg_0_00001.m4s")).andExpect(status().isUnauthorized());
+        mvc.perform(get("/streams/s1/seg0.ts")).andExpect(status().isUnauthorized());
+        mvc.perform(get("/streams/s1/manifest.mpd")).andExpect(status().isUnauthorized());
+        mvc.perform(get("/streams/s1/init_0.mp4")).andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    void rejectsPathParametersInsteadOfSkippingTheCheck() throws Exception {
+        mvc.perform(get("/streams/s1/master.m3u8;x")).andExpect(status().isBadRequest());
+        mvc.perform(get("/streams/s1/seg_0_00001.m4s;x")).andExpect(status().isBadRequest());
+        mvc.perform(get("/streams/s1;x/seg0.ts")).andExpect(status().isBadRequest());
+        mvc.perform(get("/streams/s1/master.m3u8;x").param("token", token("s1"))).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void checksEncodedPathsAgainstTheDecodedStreamId() throws Exception {
+        URI encoded = URI.create("/streams/%73%31/master.m3u8");
+        mvc.perform(get(encoded)).andExpect(status().isUnauthorized());
+        mvc.perform(get(encoded).param("token", token("s2"))).andExpect(status().isForbidden());
+        mvc.perform(get(encoded).param("token", token("s1"))).andExpect(status().isOk());
+    }
+
+    @Test
+    void servesWithQueryTokenAndHandsItBackAsCookie() throws Exception {
+        String token = token("s1");
+        mvc.perform(get("/streams/s1/master.m3u8").param("token", token))
+                .andExpect(status().isOk())
+                .andExpect(cookie().value(PlaybackTokenInterceptor.COOKIE_NAME, token))
+                .andExpect(cookie().path(PlaybackTokenInterceptor.COOKIE_NAME, "/streams/s1/"));
+        mvc.perform(get("/streams/s1/seg_0_00001.m4s").cookie(new Cookie(PlaybackTokenInterceptor.COOKIE_NAME, token)))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void rejectsTokenOfAnotherStream() throws Exception {
+        mvc.perform(get("/streams/s1/master.m3u8").param("token", token("s2"))).andExpect(status().isForbidden());
+        mvc.perform(get("/streams/s1/seg0.ts").cookie(new Cookie(PlaybackTokenInterceptor.COOKIE_NAME, token("s2"))))
+                .andExpect(status().isForbidden());
+    }
+
+    @Test
+    void rejectsExpiredToken() throws Exception {
+        String expired = tokens.issue("s1", System.currentTimeMillis() / 1000 - 1);
+        mvc.perform(get("/streams/s1/master.m3u8").param("token", expired)).andExpect(status().isForbidden());
+    }
+
+    @Test
+    void leavesOtherEndpointsOpen() throws Exception {
+        mvc.perform(get("/streams")).andExpect(status().isOk());
+    }
+
+    @Test
+    void issuingNeedsTheIssuerKey() throws Exception {
+        mvc.perform(post("/streams/s1/playback-token")).andExpect(status().isForbidden());
+        mvc.perform(post("/streams/s1/playback-token").header("Authorization", "Bearer wrong"))
+                .andExpect(status().isForbidden());
+        // Authorized, but the stream does not exist
+        mvc.perform(post("/streams/s1/playback-token").header("Authorization", "Bearer issuer-secret"))
+                .andExpect(status().isNotFound());
+    }
+}
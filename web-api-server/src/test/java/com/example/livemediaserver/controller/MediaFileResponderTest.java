@@ -0,0 +1,107 @@
+package com.example.livemediaserver.controller;
+
+import com.example.livemediaserver.model.MediaFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MediaFileResponderTest {
+
+    private static final String CONTENT = "0123456789abcdefghij";
+
+    @TempDir
+    Path dir;
+
+    private final MediaFileResponder responder = new MediaFileResponder();
+
+    private MockHttpServletResponse fetch(String range) throws IOException {
+        Path path = dir.resolve("seg_0_1.m4s");
+        Files.writeString(path, CONTENT, StandardCharsets.US_ASCII);
+        MediaFile file = new MediaFile(path, Files.size(path), Files.getLastModifiedTime(path).toMillis());
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/media/seg_0_1.m4s");
+        if (range != null) {
+            request.addHeader("Range", range);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        responder.write(file, "video/iso.segment", request, response);
+        return response;
+    }
+
+    @Test
+    void parsesSingleRanges() {
+        assertArrayEquals(new long[] {0, 99}, MediaFileResponder.parseRange("bytes=0-99", 1000));
+        // Suffix: the last N bytes, clamped to the file
+        assertArrayEquals(new long[] {500, 999}, MediaFileResponder.parseRange("bytes=-500", 1000));
+        assertArrayEquals(new long[] {0, 999}, MediaFileResponder.parseRange("bytes=-5000", 1000));
+        // Open-ended: to the end of the file
+        assertArrayEquals(new long[] {100, 999}, MediaFileResponder.parseRange("bytes=100-", 1000));
+        // End past the file is clamped
+        assertArrayEquals(new long[] {900, 999}, MediaFileResponder.parseRange("bytes=900-5000", 1000));
+    }
+
+    @Test
+    void rejectsUnsatisfiableRanges() {
+        assertNull(MediaFileResponder.parseRange("bytes=1000-", 1000));
+        assertNull(MediaFileResponder.parseRange("bytes=1000-1100", 1000));
+        assertNull(MediaFileResponder.parseRange("bytes=500-100", 1000));
+        assertNull(MediaFileResponder.parseRange("bytes=-0", 1000));
+        assertNull(MediaFileResponder.parseRange("bytes=0-", 0));
+    }
+
+    @Test
+    void ignoresRangesItDoesNotServe() {
+        assertEquals(0, MediaFileResponder.parseRange("bytes=0-1,5-6", 1000).length);
+        assertEquals(0, MediaFileResponder.parseRange("items=0-1", 1000).length);
+        assertEquals(0, MediaFileResponder.parseRange("bytes=abc-", 1000).length);
+        assertEquals(0, MediaFileResponder.parseRange("bytes=5", 1000).length);
+    }
+
+    @Test
+    void suffixRangeIsPartialContent() throws IOException {
+        MockHttpServletResponse response = fetch("bytes=-5");
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 15-19/20", response.getHeader("Content-Range"));
+        assertEquals(5, response.getContentLengthLong());
+        assertEquals("fghij", response.getContentAsString());
+    }
+
+    @Test
+    void openEndedRangeIsPartialContent() throws IOException {
+        MockHttpServletResponse response = fetch("bytes=10-");
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 10-19/20", response.getHeader("Content-Range"));
+        assertEquals("abcdefghij", response.getContentAsString());
+    }
+
+    @Test
+    void outOfRangeIsNotSatisfiable() throws IOException {
+        MockHttpServletResponse response = fetch("bytes=20-");
+
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */20", response.getHeader("Content-Range"));
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void multipleRangesGetTheFullFile() throws IOException {
+        MockHttpServletResponse response = fetch("bytes=0-1,5-6");
+
+        assertEquals(200, response.getStatus());
+        assertNull(response.getHeader("Content-Range"));
+        assertEquals(20, response.getContentLengthLong());
+        assertEquals(CONTENT, response.getContentAsString());
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.livemediaserver.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Base64;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {
+        "livemediaserver.transcoder.enabled=false",
+        "livemediaserver.media.watch-enabled=false"
+})
+@AutoConfigureMockMvc
+class StreamControllerCursorTest {
+
+    @Autowired
+    private MockMvc mvc;
+
+    @DynamicPropertySource
+    static void mediaPath(DynamicPropertyRegistry registry) {
+        try {
+            String media = Files.createTempDirectory("stream-cursor-test").toString();
+            registry.add("livemediaserver.media.storage-path", () -> media);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String cursor(String value) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void acceptsWellFormedPageCursor() throws Exception {
+        mvc.perform(get("/streams/page").param("after", cursor("2024-01-01T00:00|s1|a")))
+                .andExpect(status().isOk());
+        mvc.perform(get("/streams/search").param("q", "s").param("after", cursor("10")))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void rejectsMalformedPageCursor() throws Exception {
+        for (String after : new String[] {
+                "!!not-base64",
+                cursor("2024-01-01T00:00"),
+                cursor("2024-01-01T00:00|"),
+                cursor("yesterday|s1"),
+                cursor("")}) {
+            mvc.perform(get("/streams/page").param("after", after))
+                    .andExpect(status().isBadRequest())
+                    .andExpect(jsonPath("$.message").value("Invalid cursor"));
+        }
+    }
+
+    @Test
+    void rejectsMalformedSearchCursor() throws Exception {
+        for (String after : new String[] {"!!not-base64", cursor("ten"), cursor("-1")}) {
+            mvc.perform(get("/streams/search").param("q", "s").param("after", after))
+                    .andExpect(status().isBadRequest())
+                    .andExpect(jsonPath("$.message").value("Invalid cursor"));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.livemediaserver.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlaybackTokenServiceTest {
+
+    private static long inOneHour() {
+        return System.currentTimeMillis() / 1000 + 3600;
+    }
+
+    private static PlaybackTokenService service(String keys, String activeKey) {
+        PlaybackTokenService service = new PlaybackTokenService();
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "keySpec", keys);
+        ReflectionTestUtils.setField(service, "activeKey", activeKey);
+        ReflectionTestUtils.setField(service, "ttlSeconds", 3600L);
+        ReflectionTestUtils.setField(service, "cacheSize", 16);
+        ReflectionTestUtils.setField(service, "issuerKey", "issuer-secret");
+        service.start();
+        return service;
+    }
+
+    @Test
+    void acceptsTokenIssuedForTheStream() {
+        PlaybackTokenService tokens = service("k1:secret-one", "k1");
+        long expires = inOneHour();
+        String token = tokens.issue("stream-a", expires);
+
+        assertTrue(tokens.verify(token, "stream-a"));
+        // Second check is answered from the verified-token table
+        assertTrue(tokens.verify(token, "stream-a"));
+        assertEquals(expires, tokens.expiresOf(token));
+    }
+
+    @Test
+    void rejectsTokenForAnotherStream() {
+        PlaybackTokenService tokens = service("k1:secret-one", "k1");
+        String token = tokens.issue("stream-a", inOneHour());
+
+        assertTrue(tokens.verify(token, "stream-a"));
+        assertFalse(tokens.verify(token, "stream-b"));
+    }
+
+    @Test
+    void rejectsExpiredToken() {
+        PlaybackTokenService tokens = service("k1:secret-one", "k1");
+        String token = tokens.issue("stream-a", System.currentTimeMillis() / 1000 - 1);
+
+        assertFalse(tokens.verify(token, "stream-a"));
+    }
+
+    @Test
+    void rejectsTamperedAndMalformedTokens() {
+        PlaybackTokenService tokens = service("k1:secret-one", "k1");
+        long expires = inOneHour();
+        String token = tokens.issue("stream-a", expires);
+        String signature = token.substring(token.lastIndexOf('.') + 1);
+
+        // Extending the expiry invalidates the signature
+        assertFalse(tokens.verify("k1." + (expires + 3600) + "." + signature, "stream-a"));
+        assertFalse(tokens.verify(token.substring(0, token.length() - 1), "stream-a"));
+        assertFalse(tokens.verify("unknown." + expires + "." + signature, "stream-a"));
+        assertFalse(tokens.verify("k1.notanumber." + signature, "stream-a"));
+        assertFalse(tokens.verify("garbage", "stream-a"));
+        assertFalse(tokens.verify("", "stream-a"));
+    }
+
+    @Test
+    void acceptsTokensOfRetiredKeyUntilItIsRemoved() {
+        PlaybackTokenService before = service("old:secret-old", "old");
+        String oldToken = before.issue("stream-a", inOneHour());
+
+        // Rotation: new key active, old key still accepted
+        PlaybackTokenService during = service("old:secret-old,new:secret-new", "new");
+        String newToken = during.issue("stream-a", inOneHour());
+        assertTrue(newToken.startsWith("new."));
+        assertTrue(during.verify(oldToken, "stream-a"));
+        assertTrue(during.verify(newToken, "stream-a"));
+
+        // Old key removed once its tokens expired
+        PlaybackTokenService after = service("new:secret-new", "new");
+        assertFalse(after.verify(oldToken, "stream-a"));
+        assertTrue(after.verify(newToken, "stream-a"));
+    }
+
+    @Test
+    void rejectsTokenSignedWithAnotherSecretUnderTheSameKeyId() {
+        String forged = service("k1:attacker-secret", "k1").issue("stream-a", inOneHour());
+
+        assertFalse(service("k1:secret-one", "k1").verify(forged, "stream-a"));
+    }
+
+    @Test
+    void refusesToStartWithoutActiveKey() {
+        assertThrows(IllegalStateException.class, () -> service("", ""));
+        assertThrows(IllegalStateException.class, () -> service("k1:secret-one", "k2"));
+    }
+
+    @Test
+    void issuerNeedsTheConfiguredBearerKey() {
+        PlaybackTokenService tokens = service("k1:secret-one", "k1");
+
+        assertTrue(tokens.isIssuer("Bearer issuer-secret"));
+        assertFalse(tokens.isIssuer("Bearer issuer-secre"));
+        assertFalse(tokens.isIssuer("issuer-secret"));
+        assertFalse(tokens.isIssuer(null));
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.livemediaserver.service;
+
+import com.example.livemediaserver.model.MediaFile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SegmentCacheTest {
+
+    // Ten segments fill the 1 MB cache; the eleventh forces one eviction
+    private static final int SEGMENT_BYTES = 100 * 1024;
+    private static final int SEGMENTS_THAT_FIT = 10;
+
+    @TempDir
+    Path dir;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private SegmentCache cache() {
+        SegmentCache cache = new SegmentCache();
+        ReflectionTestUtils.setField(cache, "segmentIndex", new SegmentIndexService());
+        ReflectionTestUtils.setField(cache, "meterRegistry", registry);
+        ReflectionTestUtils.setField(cache, "maxMegabytes", 1L);
+        cache.start();
+        return cache;
+    }
+
+    private List<MediaFile> writeSegments(int count) throws IOException {
+        Path streamDir = Files.createDirectories(dir.resolve("stream-a"));
+        long base = System.currentTimeMillis() - 3_600_000L;
+        List<MediaFile> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Path path = streamDir.resolve("seg_0_" + i + ".m4s");
+            Files.write(path, new byte[SEGMENT_BYTES]);
+            // One second apart, oldest first
+            Files.setLastModifiedTime(path, FileTime.fromMillis(base + i * 1000L));
+            files.add(new MediaFile(path, SEGMENT_BYTES, Files.getLastModifiedTime(path).toMillis()));
+        }
+        return files;
+    }
+
+    /**
+     * True when the file is still served from memory: its disk copy is removed first,
+     * so a miss cannot reload it
+     */
+    private static boolean cached(SegmentCache cache, MediaFile file) throws IOException {
+        Files.deleteIfExists(file.getPath());
+        return cache.get(file).getContent() != null;
+    }
+
+    private double evictions() {
+        return registry.get("livemediaserver.segment.cache.evictions").counter().count();
+    }
+
+    @Test
+    void evictsTheColdestOfTheOldestEntries() throws IOException {
+        SegmentCache cache = cache();
+        List<MediaFile> files = writeSegments(SEGMENTS_THAT_FIT + 1);
+        for (int i = 0; i < SEGMENTS_THAT_FIT; i++) {
+            cache.get(files.get(i));
+        }
+        // The oldest segment is popular (e.g. a replay); the next one nobody asked for again
+        for (int i = 0; i < 5; i++) {
+            cache.get(files.get(0));
+        }
+        assertEquals(0, evictions());
+
+        cache.get(files.get(SEGMENTS_THAT_FIT));
+
+        assertEquals(1, evictions());
+        assertFalse(cached(cache, files.get(1)));
+        assertTrue(cached(cache, files.get(0)));
+        assertTrue(cached(cache, files.get(SEGMENTS_THAT_FIT)));
+    }
+
+    @Test
+    void keepsTheLiveEdgeEvenWhenOlderEntriesAreHotter() throws IOException {
+        SegmentCache cache = cache();
+        List<MediaFile> files = writeSegments(SEGMENTS_THAT_FIT + 1);
+        for (int i = 0; i < SEGMENTS_THAT_FIT; i++) {
+            cache.get(files.get(i));
+        }
+        // Every old segment is requested more often than the two newest ones
+        for (int i = 0; i < SEGMENTS_THAT_FIT - 2; i++) {
+            for (int n = 0; n < 3 + i; n++) {
+                cache.get(files.get(i));
+            }
+        }
+
+        cache.get(files.get(SEGMENTS_THAT_FIT));
+
+        assertEquals(1, evictions());
+        // The least requested of the oldest candidates goes, not the cold live edge
+        assertFalse(cached(cache, files.get(0)));
+        for (int i = SEGMENTS_THAT_FIT - 2; i <= SEGMENTS_THAT_FIT; i++) {
+            assertTrue(cached(cache, files.get(i)), "segment " + i);
+        }
+    }
+
+    @Test
+    void streamsFilesTooLargeToCache() throws IOException {
+        SegmentCache cache = cache();
+        Path path = Files.createDirectories(dir.resolve("stream-a")).resolve("seg_0_0.m4s");
+        // Over an eighth of the cache
+        Files.write(path, new byte[200 * 1024]);
+        MediaFile file = new MediaFile(path, Files.size(path), Files.getLastModifiedTime(path).toMillis());
+
+        assertNull(cache.get(file).getContent());
+        assertEquals(0, cache.getHitRatio());
+    }
+}
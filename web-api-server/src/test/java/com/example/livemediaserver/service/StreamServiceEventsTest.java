@@ -0,0 +1,71 @@
+package com.example.livemediaserver.service;
+
+import com.example.livemediaserver.model.Stream;
+import com.example.livemediaserver.model.StreamEvent;
+import com.example.livemediaserver.model.StreamEventResult;
+import com.example.livemediaserver.repository.StreamRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@SpringBootTest(properties = {
+        "livemediaserver.transcoder.enabled=false",
+        "livemediaserver.media.watch-enabled=false",
+        // Only the flushes of the test itself
+        "livemediaserver.streams.write-behind-ms=3600000"
+})
+class StreamServiceEventsTest {
+
+    @Autowired
+    private StreamService streamService;
+
+    @Autowired
+    private StreamStateCache streamStates;
+
+    @SpyBean
+    private StreamRepository streamRepository;
+
+    @SpyBean
+    private StreamEventPublisher eventPublisher;
+
+    private static StreamEvent start(String streamKey, long sequence) {
+        StreamEvent event = new StreamEvent();
+        event.setType(StreamEvent.Type.START);
+        event.setStreamKey(streamKey);
+        event.setSequence(sequence);
+        return event;
+    }
+
+    @Test
+    void notifiesOnceTheBatchIsCommittedEvenIfTheFirstFlushFailed() {
+        streamService.createStream("flaky", "Flaky");
+        streamStates.flush();
+
+        // Cached, so the batch needs no preload query: only the flush reads the rows to update
+        doThrow(new DataAccessResourceFailureException("database unavailable"))
+                .when(streamRepository).findAllById(any());
+        List<StreamEvent> batch = List.of(start("flaky", 1));
+        assertThrows(DataAccessResourceFailureException.class, () -> streamService.applyEvents(batch));
+        verify(eventPublisher, never()).streamStarted(any(Stream.class));
+
+        reset(streamRepository);
+
+        List<StreamEventResult> resent = streamService.applyEvents(batch);
+        assertEquals(StreamEventResult.Outcome.DUPLICATE, resent.get(0).getOutcome());
+        verify(eventPublisher, times(1)).streamStarted(any(Stream.class));
+        assertEquals(1L, streamRepository.findById("flaky").orElseThrow().getLastEventSequence());
+    }
+}